@@ -0,0 +1,25 @@
+package cz.engeto.ja.genesisResources.reactive;
+
+import cz.engeto.ja.genesisResources.service.PersonIdService;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Main entry point of the reactive variant of the Genesis Resources user API.
+ * Serves the user routes of api/v1 on Netty with non-blocking database access (R2DBC),
+ * against the same Users table as the servlet application.
+ */
+@SpringBootApplication
+@Import(PersonIdService.class)
+public class ReactiveGenesisResourcesApplication {
+
+	/**
+	 * Main method to start the application.
+	 * @param args command line arguments
+	 */
+	public static void main(String[] args) {
+		SpringApplication.run(ReactiveGenesisResourcesApplication.class, args);
+	}
+}
@@ -0,0 +1,278 @@
+package cz.engeto.ja.genesisResources.reactive.controller;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.model.UserCreateData;
+import cz.engeto.ja.genesisResources.model.UserUpdateData;
+import cz.engeto.ja.genesisResources.reactive.repository.ReactiveUserRepository;
+import cz.engeto.ja.genesisResources.service.PersonIdService;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+
+import io.r2dbc.spi.R2dbcTransientException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reactive variant of the UserController, serving the same api/v1 user routes with the same responses.
+ * Handlers return without waiting for the database, the event loop threads serve other requests meanwhile.
+ * The user list is streamed with backpressure, as a JSON array or as newline delimited JSON (application/x-ndjson).
+ */
+@RestController
+@RequestMapping("api/v1")
+@CrossOrigin(origins = "http://localhost:63342")
+public class ReactiveUserController {
+
+    private final ReactiveUserRepository userRepository;
+    private final PersonIdService personIdService;
+
+    /**
+     * Constructor for ReactiveUserController.
+     * @param userRepository the ReactiveUserRepository instance
+     * @param personIdService the PersonIdService instance
+     */
+    public ReactiveUserController(ReactiveUserRepository userRepository, PersonIdService personIdService) {
+        this.userRepository = userRepository;
+        this.personIdService = personIdService;
+    }
+
+    /**
+     * Endpoint to create a new user.
+     * @param userData Object containing user's name, surname, and personID
+     * @return Mono of ResponseEntity with the created user or error message
+     */
+    @PostMapping("/user")
+    public Mono<ResponseEntity<?>> createUser(@RequestBody UserCreateData userData) {
+        AppLogger.info("Request to create user with data: " + userData);
+
+        String name = userData.getName();
+        String surname = userData.getSurname();
+        String personID = userData.getPersonID();
+
+        if (name == null || surname == null || personID == null || personID.isEmpty()) {
+            AppLogger.warn("Invalid input: Name, surname, or personID is empty");
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid input: Name, surname, or personID is empty"));
+        }
+        if (!(personID.length() == 12 && personID.matches("[0-9a-zA-Z]+"))) {
+            AppLogger.warn("Invalid personID: " + personID + ", must be 12 characters long and alphanumeric");
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid personID"));
+        }
+
+        // Waits for the personID file while it is being loaded after startup, off the event loop
+        return Mono.fromCallable(() -> personIdService.getPersonIds().contains(personID))
+                .subscribeOn(Schedulers.boundedElastic())
+                .<ResponseEntity<?>>flatMap(available -> {
+                    if (!available) {
+                        AppLogger.warn("Invalid personID: " + personID + ", not in the list of available personIDs");
+                        return Mono.<ResponseEntity<?>>just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid personID"));
+                    }
+                    if (personIdService.isPersonIdUsedByOtherUser(personID)) {
+                        AppLogger.warn("PersonID " + personID + " already assigned to another user");
+                        return Mono.<ResponseEntity<?>>just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+                    }
+                    User user = new User();
+                    user.setName(name);
+                    user.setSurname(surname);
+                    user.setPersonID(personID);
+                    return userRepository.createUser(user)
+                            .<ResponseEntity<?>>map(created -> {
+                                personIdService.markPersonIdAsAssigned(personID);
+                                AppLogger.info("User created: " + created);
+                                return ResponseEntity.status(HttpStatus.CREATED).body(created);
+                            });
+                })
+                .onErrorResume(e -> {
+                    if (isDatabaseUnavailable(e)) {
+                        return Mono.just(serviceUnavailable(e));
+                    }
+                    AppLogger.error("Internal server error: " + e.getMessage());
+                    return Mono.<ResponseEntity<?>>just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+                });
+    }
+
+    /**
+     * Endpoint to retrieve a user by ID.
+     * @param id the ID of the user
+     * @param detail whether to fetch detailed user information
+     * @return Mono of ResponseEntity with user information or error message
+     */
+    @GetMapping(value = "/user/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<?>> getUserById(@PathVariable String id, @RequestParam(value = "detail", required = false, defaultValue = "false") boolean detail) {
+        AppLogger.info("Request to get user by ID: " + id + ", detail: " + detail);
+        Long userId = parseId(id);
+        if (userId == null) {
+            AppLogger.warn("Invalid ID format: " + id);
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid ID format"));
+        }
+        Mono<?> user = detail ? userRepository.getUserById(userId) : userRepository.getUserByIdSimple(userId);
+        return user
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    AppLogger.warn("User not found with ID: " + id);
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found with id " + id);
+                }))
+                .onErrorResume(this::internalServerError);
+    }
+
+    /**
+     * Endpoint to retrieve a user by UUID.
+     * @param uuidStr the UUID string of the user
+     * @return Mono of ResponseEntity with user information or error message
+     */
+    @GetMapping("/user/uuid/{uuid}")
+    public Mono<ResponseEntity<?>> getUserByUuid(@PathVariable("uuid") String uuidStr) {
+        AppLogger.info("Request to get user by UUID: " + uuidStr);
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(uuidStr);
+        } catch (IllegalArgumentException e) {
+            AppLogger.warn("Invalid UUID format: " + uuidStr);
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid UUID format"));
+        }
+        return userRepository.getUserByUuid(uuid)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    AppLogger.warn("User not found with UUID: " + uuid);
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found with uuid " + uuid);
+                }))
+                .onErrorResume(this::internalServerError);
+    }
+
+    /**
+     * Endpoint to retrieve all users. The users are written while they are read from the database, at the pace
+     * the client reads them; neither the list nor a thread is held for the whole response.
+     * An error after the first user can only abort the response, the status is already sent.
+     * @param detail whether to fetch detailed user information
+     * @return Flux of users, as a JSON array or newline delimited JSON depending on the Accept header
+     */
+    @GetMapping(value = "/users", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<?> getAllUsers(@RequestParam(value = "detail", required = false, defaultValue = "false") boolean detail) {
+        AppLogger.info("Request to get all users, detail: " + detail);
+        Flux<?> users = detail ? userRepository.getAllUsers() : userRepository.getAllUsersSimple();
+        return users.doOnError(e -> AppLogger.error("Failed to stream users: " + e.getMessage()));
+    }
+
+    /**
+     * Endpoint to update a user.
+     * @param userData the object containing ID, name, and surname of the user to update
+     * @return Mono of ResponseEntity with updated user information or error message
+     */
+    @PutMapping("/user")
+    public Mono<ResponseEntity<?>> updateUser(@RequestBody UserUpdateData userData) {
+        String id = userData.getId();
+        String name = userData.getName();
+        String surname = userData.getSurname();
+
+        AppLogger.info("Request to update user with ID: " + id + ", new name: " + name + ", new surname: " + surname);
+
+        if (id == null || id.isEmpty() || name == null || name.isEmpty() || surname == null || surname.isEmpty()) {
+            AppLogger.warn("Invalid input: ID, name, or surname is empty");
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid input: ID, name, or surname is empty"));
+        }
+        Long userId = parseId(id);
+        if (userId == null) {
+            AppLogger.warn("Invalid ID format: " + id);
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid ID format"));
+        }
+        User userToUpdate = new User();
+        userToUpdate.setId(userId);
+        userToUpdate.setName(name);
+        userToUpdate.setSurname(surname);
+        return userRepository.updateUser(userToUpdate)
+                .then(userRepository.getUserByIdSimple(userId))
+                .<ResponseEntity<?>>map(userBasicInfo -> {
+                    AppLogger.info("User updated: " + userBasicInfo);
+                    return ResponseEntity.ok(userBasicInfo);
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    AppLogger.warn("User not found with ID: " + id);
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found with id " + id);
+                }))
+                .onErrorResume(this::internalServerError);
+    }
+
+    /**
+     * Endpoint to delete a user.
+     * @param id the ID of the user to delete
+     * @return Mono of ResponseEntity with appropriate status or error message
+     */
+    @DeleteMapping("/user/{id}")
+    public Mono<ResponseEntity<?>> deleteUser(@PathVariable String id) {
+        AppLogger.info("Request to delete user with ID: " + id);
+        Long userId = parseId(id);
+        if (userId == null) {
+            AppLogger.warn("Invalid ID format: " + id);
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid ID format"));
+        }
+        return userRepository.deleteUser(userId)
+                .<ResponseEntity<?>>map(deleted -> deleted == 0
+                        ? ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found with id " + id)
+                        : ResponseEntity.noContent().build())
+                .onErrorResume(this::internalServerError);
+    }
+
+    /**
+     * Builds the response of a failed database call: 503 when the database is unavailable, 500 otherwise.
+     * @param e the error of the database call
+     * @return Mono of ResponseEntity with error message
+     */
+    private Mono<ResponseEntity<?>> internalServerError(Throwable e) {
+        if (isDatabaseUnavailable(e)) {
+            return Mono.just(serviceUnavailable(e));
+        }
+        AppLogger.error("Internal server error: " + e.getMessage());
+        return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage()));
+    }
+
+    /**
+     * Checks whether a database call failed because the database is unreachable, overloaded or the pool is exhausted.
+     * @param e the error of the database call
+     * @return true for connection failures and transient errors
+     */
+    private boolean isDatabaseUnavailable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataAccessResourceFailureException || cause instanceof TransientDataAccessException
+                    || cause instanceof R2dbcTransientException || cause instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds a 503 Service Unavailable response.
+     * @param e the error of the database call
+     * @return ResponseEntity with error message
+     */
+    private ResponseEntity<?> serviceUnavailable(Throwable e) {
+        AppLogger.warn("Database unavailable: " + e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body("Database is temporarily unavailable, retry later");
+    }
+
+    /**
+     * Parses a user ID.
+     * @param str the string to parse
+     * @return the ID, or null if the string is not numeric or out of range
+     */
+    private Long parseId(String str) {
+        if (str == null || !str.matches("\\d+")) {
+            return null;
+        }
+        try {
+            return Long.parseLong(str);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
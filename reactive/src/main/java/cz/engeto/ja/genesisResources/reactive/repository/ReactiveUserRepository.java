@@ -0,0 +1,159 @@
+package cz.engeto.ja.genesisResources.reactive.repository;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.model.UserBasicInfo;
+
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+/**
+ * Non-blocking access to the MySQL Users table over R2DBC.
+ * No thread waits for the database: results are emitted when rows arrive, and lists are emitted row by row
+ * as the subscriber requests them, so a slow client slows down reading instead of filling the memory.
+ */
+@Repository
+public class ReactiveUserRepository {
+
+    /**
+     * Number of rows the driver is asked to fetch at once when streaming the whole table.
+     */
+    private static final int LIST_FETCH_SIZE = 512;
+
+    private final DatabaseClient databaseClient;
+
+    /**
+     * Constructor for ReactiveUserRepository.
+     * @param databaseClient the client of the connection pool configured by spring.r2dbc.*
+     */
+    public ReactiveUserRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    /**
+     * Stores a new user and assigns the generated ID to it.
+     * @param user The user to store
+     * @return The stored user, errors if the user cannot be stored (e.g. duplicate personID)
+     */
+    public Mono<User> createUser(User user) {
+        return databaseClient.sql("INSERT INTO Users (name, surname, personID, uuid) VALUES (:name, :surname, :personID, :uuid)")
+                .bind("name", user.getName())
+                .bind("surname", user.getSurname())
+                .bind("personID", user.getPersonID())
+                .bind("uuid", user.getUuid().toString())
+                .filter(statement -> statement.returnGeneratedValues("id"))
+                .map((row, metadata) -> row.get("id", Long.class))
+                .one()
+                .map(id -> {
+                    user.setId(id);
+                    return user;
+                });
+    }
+
+    /**
+     * Retrieves a user by their ID.
+     * @param id The ID of the user
+     * @return The user, empty if not found
+     */
+    public Mono<User> getUserById(long id) {
+        return databaseClient.sql("SELECT id, name, surname, personID, uuid FROM Users WHERE id = :id")
+                .bind("id", id)
+                .map(this::mapUser)
+                .one();
+    }
+
+    /**
+     * Retrieves basic information of a user by their ID.
+     * @param id The ID of the user
+     * @return The basic information, empty if not found
+     */
+    public Mono<UserBasicInfo> getUserByIdSimple(long id) {
+        return databaseClient.sql("SELECT id, name, surname FROM Users WHERE id = :id")
+                .bind("id", id)
+                .map(this::mapUserBasicInfo)
+                .one();
+    }
+
+    /**
+     * Retrieves a user by their UUID.
+     * @param uuid The UUID of the user
+     * @return The user, empty if not found
+     */
+    public Mono<User> getUserByUuid(UUID uuid) {
+        return databaseClient.sql("SELECT id, name, surname, personID, uuid FROM Users WHERE uuid = :uuid")
+                .bind("uuid", uuid.toString())
+                .map(this::mapUser)
+                .one();
+    }
+
+    /**
+     * Streams all users ordered by ID.
+     * @return The users, emitted as the subscriber requests them
+     */
+    public Flux<User> getAllUsers() {
+        return databaseClient.sql("SELECT id, name, surname, personID, uuid FROM Users ORDER BY id")
+                .filter(statement -> statement.fetchSize(LIST_FETCH_SIZE))
+                .map(this::mapUser)
+                .all();
+    }
+
+    /**
+     * Streams basic information of all users ordered by ID.
+     * @return The users (basic info), emitted as the subscriber requests them
+     */
+    public Flux<UserBasicInfo> getAllUsersSimple() {
+        return databaseClient.sql("SELECT id, name, surname FROM Users ORDER BY id")
+                .filter(statement -> statement.fetchSize(LIST_FETCH_SIZE))
+                .map(this::mapUserBasicInfo)
+                .all();
+    }
+
+    /**
+     * Updates name and surname of an existing user.
+     * @param user The user carrying the ID and the new values
+     * @return Number of updated rows, 0 if the user does not exist
+     */
+    public Mono<Long> updateUser(User user) {
+        return databaseClient.sql("UPDATE Users SET name = :name, surname = :surname WHERE id = :id")
+                .bind("name", user.getName())
+                .bind("surname", user.getSurname())
+                .bind("id", user.getId())
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * Deletes a user by their ID.
+     * @param id The ID of the user to delete
+     * @return Number of deleted rows, 0 if the user does not exist
+     */
+    public Mono<Long> deleteUser(long id) {
+        return databaseClient.sql("DELETE FROM Users WHERE id = :id")
+                .bind("id", id)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    private User mapUser(Row row, RowMetadata metadata) {
+        return new User(
+                row.get("id", Long.class),
+                row.get("name", String.class),
+                row.get("surname", String.class),
+                row.get("personID", String.class),
+                row.get("uuid", String.class)
+        );
+    }
+
+    private UserBasicInfo mapUserBasicInfo(Row row, RowMetadata metadata) {
+        return new UserBasicInfo(
+                row.get("id", Long.class),
+                row.get("name", String.class),
+                row.get("surname", String.class)
+        );
+    }
+}
@@ -2,10 +2,14 @@
 
 package cz.engeto.ja.genesisResources;
 
+import cz.engeto.ja.genesisResources.bulk.BulkTransferRunner;
 import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.Settings;
 
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.stereotype.Component;
 import org.springframework.boot.context.event.ApplicationStartingEvent;
@@ -27,6 +31,12 @@ public class GenesisResourcesApplication {
 	public static void main(String[] args) {
 		SpringApplication app = new SpringApplication(GenesisResourcesApplication.class);
 		app.addListeners(new ApplicationStartingListener());
+		app.setApplicationStartup(new BufferingApplicationStartup(Settings.STARTUP_STEPS_CAPACITY)); // Records startup steps for StartupReport
+		if (BulkTransferRunner.isBulkCommand(args)) {
+			// Bulk export or import: no web server, exit with the result of the command
+			app.setWebApplicationType(WebApplicationType.NONE);
+			System.exit(SpringApplication.exit(app.run(args)));
+		}
 		app.run(args);
 	}
 
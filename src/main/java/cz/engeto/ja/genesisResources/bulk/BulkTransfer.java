@@ -0,0 +1,268 @@
+package cz.engeto.ja.genesisResources.bulk;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.repository.ResilientUserRepository;
+import cz.engeto.ja.genesisResources.repository.UserRepository;
+import cz.engeto.ja.genesisResources.service.PersonIdService;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.Settings;
+
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Service exporting the users into a file and importing them back, for backups and environment refreshes.
+ *
+ * The export streams the users from the repository into the file, so memory use does not grow with the table.
+ * The import reads the file on the calling thread and stores the users in batches on a pool of threads;
+ * the calling thread runs a batch itself when all threads are busy, so reading never gets far ahead of storing.
+ * IDs and UUIDs are kept. Every personID is checked against the PersonIdService before it is stored.
+ * A batch rejected by the database is retried user by user, so one bad row only rejects itself.
+ * Both report progress and throughput in rows per second.
+ */
+@Service
+public class BulkTransfer {
+
+    private static final Pattern PERSON_ID_PATTERN = Pattern.compile("[0-9a-zA-Z]{12}");
+
+    /**
+     * Outcome of an import.
+     * @param imported Number of stored users
+     * @param rejected Number of users rejected by validation or by the database
+     */
+    public record ImportResult(long imported, long rejected) {
+    }
+
+    private final UserRepository userRepository;
+    private final PersonIdService personIdService;
+
+    /**
+     * Constructor for BulkTransfer.
+     * @param userRepository The UserRepository to export from and import into
+     * @param personIdService The PersonIdService checking imported personIDs
+     */
+    public BulkTransfer(UserRepository userRepository, PersonIdService personIdService) {
+        this.userRepository = userRepository;
+        this.personIdService = personIdService;
+    }
+
+    /**
+     * Exports all users into a file. The file is written under a temporary name and renamed when complete,
+     * so an interrupted export never leaves a truncated file behind.
+     * @param file The file to write, replaced if it exists
+     * @param format The format of the file
+     * @return Number of exported users
+     * @throws SQLException If the users cannot be read
+     * @throws IOException If the file cannot be written
+     */
+    public long exportUsers(Path file, UserFileFormat format) throws SQLException, IOException {
+        AppLogger.info("Exporting users to " + file + " as " + format);
+        Path partFile = file.resolveSibling(file.getFileName() + ".part");
+        Progress progress = new Progress("Export");
+        UserFileWriter writer = new UserFileWriter(FileChannel.open(partFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), format, Settings.BULK_BUFFER_SIZE);
+        try {
+            try (writer) {
+                userRepository.forEachUser(user -> {
+                    writer.write(user);
+                    progress.add(1);
+                });
+            }
+            Files.move(partFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (SQLException | IOException | RuntimeException e) {
+            Files.deleteIfExists(partFile);
+            throw e;
+        }
+        progress.finish();
+        return writer.getCount();
+    }
+
+    /**
+     * Imports users from a file.
+     * @param file The file to read
+     * @param format The format of the file
+     * @param threads Number of threads storing batches
+     * @param batchSize Number of users stored in one transaction
+     * @return Numbers of imported and rejected users
+     * @throws SQLException If the database becomes unavailable, the import stops
+     * @throws IOException If the file cannot be read or is malformed, the import stops
+     */
+    public ImportResult importUsers(Path file, UserFileFormat format, int threads, int batchSize) throws SQLException, IOException {
+        AppLogger.info("Importing users from " + file + " as " + format + " with " + threads + " threads, batches of " + batchSize);
+        Set<String> personIds = personIdService.getPersonIds();
+        Progress progress = new Progress("Import");
+        AtomicLong rejected = new AtomicLong();
+        AtomicReference<SQLException> failure = new AtomicReference<>();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads), runnable -> {
+                    Thread thread = new Thread(runnable, "bulk-import-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        try (UserFileReader reader = new UserFileReader(FileChannel.open(file, StandardOpenOption.READ), format, Settings.BULK_BUFFER_SIZE)) {
+            List<User> batch = new ArrayList<>(batchSize);
+            User user;
+            while (failure.get() == null && (user = reader.read()) != null) {
+                String problem = validate(user, personIds);
+                if (problem != null) {
+                    reject(rejected, reader.getPosition(), user, problem);
+                    continue;
+                }
+                batch.add(user);
+                if (batch.size() == batchSize) {
+                    submit(executor, batch, progress, rejected, failure);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty() && failure.get() == null) {
+                submit(executor, batch, progress, rejected, failure);
+            }
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure.get() != null) {
+            throw new SQLException("Import stopped after " + progress.getRows() + " users: " + failure.get().getMessage(), failure.get());
+        }
+        progress.finish();
+        if (rejected.get() > 0) {
+            AppLogger.warn("Rejected " + rejected.get() + " users");
+        }
+        return new ImportResult(progress.getRows(), rejected.get());
+    }
+
+    private void submit(ThreadPoolExecutor executor, List<User> batch, Progress progress, AtomicLong rejected,
+                        AtomicReference<SQLException> failure) {
+        executor.execute(() -> {
+            if (failure.get() != null) {
+                return;
+            }
+            try {
+                store(batch, progress, rejected);
+            } catch (SQLException e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+    }
+
+    /**
+     * Stores a batch, retrying user by user when the database rejects it.
+     * @throws SQLException If the database is unavailable
+     */
+    private void store(List<User> batch, Progress progress, AtomicLong rejected) throws SQLException {
+        try {
+            userRepository.importUsers(batch);
+            stored(batch, progress);
+            return;
+        } catch (SQLException e) {
+            if (ResilientUserRepository.isOutage(e) || batch.size() == 1) {
+                throw e;
+            }
+        }
+        for (User user : batch) {
+            try {
+                userRepository.importUsers(List.of(user));
+                stored(List.of(user), progress);
+            } catch (SQLException e) {
+                if (ResilientUserRepository.isOutage(e)) {
+                    throw e;
+                }
+                reject(rejected, "ID " + user.getId(), user, e.getMessage());
+            }
+        }
+    }
+
+    private void stored(List<User> users, Progress progress) {
+        for (User user : users) {
+            personIdService.markPersonIdAsAssigned(user.getPersonID());
+        }
+        progress.add(users.size());
+    }
+
+    /**
+     * Checks an imported user the same way the API checks a created one.
+     * @return Description of the problem, or null if the user is valid
+     */
+    private static String validate(User user, Set<String> personIds) {
+        if (user.getId() == null || user.getId() <= 0) {
+            return "invalid ID";
+        }
+        if (user.getName() == null) {
+            return "name is empty";
+        }
+        if (user.getPersonID() == null || !PERSON_ID_PATTERN.matcher(user.getPersonID()).matches()) {
+            return "invalid personID";
+        }
+        if (!personIds.contains(user.getPersonID())) {
+            return "personID not in the list of available personIDs";
+        }
+        return null;
+    }
+
+    private static void reject(AtomicLong rejected, String position, User user, String problem) {
+        if (rejected.incrementAndGet() <= Settings.BULK_MAX_LOGGED_REJECTS) {
+            AppLogger.warn("Rejected user at " + position + " (personID " + user.getPersonID() + "): " + problem);
+        }
+    }
+
+    /**
+     * Counts processed rows and logs the progress periodically.
+     */
+    private static class Progress {
+        private final String operation;
+        private final long startNanos = System.nanoTime();
+        private final long intervalNanos = TimeUnit.MILLISECONDS.toNanos(Settings.BULK_PROGRESS_INTERVAL_MS);
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong nextReportNanos;
+
+        Progress(String operation) {
+            this.operation = operation;
+            this.nextReportNanos = new AtomicLong(startNanos + intervalNanos);
+        }
+
+        void add(long count) {
+            long total = rows.addAndGet(count);
+            long now = System.nanoTime();
+            long next = nextReportNanos.get();
+            if (now >= next && nextReportNanos.compareAndSet(next, now + intervalNanos)) {
+                AppLogger.info(operation + ": " + total + " users, " + rate(total, now) + " users/s");
+            }
+        }
+
+        long getRows() {
+            return rows.get();
+        }
+
+        void finish() {
+            long now = System.nanoTime();
+            AppLogger.info(operation + " finished: " + rows.get() + " users in " + (now - startNanos) / 1_000_000 + " ms, "
+                    + rate(rows.get(), now) + " users/s");
+        }
+
+        private long rate(long total, long now) {
+            return total * 1_000_000_000L / Math.max(1, now - startNanos);
+        }
+    }
+}
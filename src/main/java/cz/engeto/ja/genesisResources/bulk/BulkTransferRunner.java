@@ -0,0 +1,117 @@
+package cz.engeto.ja.genesisResources.bulk;
+
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.Settings;
+
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Command line entry of the bulk export and import. The application runs them instead of serving HTTP when started with
+ * --export=FILE or --import=FILE, optionally with --format=csv|binary (guessed from the extension by default),
+ * --threads=N and --batch-size=N for imports. The exit code is 0 on success, 1 on failure, 2 for invalid arguments
+ * and 3 when an import completed but rejected some users.
+ */
+@Component
+public class BulkTransferRunner implements ApplicationRunner, ExitCodeGenerator {
+
+    private static final String EXPORT_OPTION = "export";
+    private static final String IMPORT_OPTION = "import";
+    private static final String FORMAT_OPTION = "format";
+    private static final String THREADS_OPTION = "threads";
+    private static final String BATCH_SIZE_OPTION = "batch-size";
+    private static final int EXIT_FAILURE = 1;
+    private static final int EXIT_USAGE = 2;
+    private static final int EXIT_REJECTED = 3;
+
+    private final BulkTransfer bulkTransfer;
+    private int exitCode;
+
+    /**
+     * Constructor for BulkTransferRunner.
+     * @param bulkTransfer the BulkTransfer running the export or import
+     */
+    public BulkTransferRunner(BulkTransfer bulkTransfer) {
+        this.bulkTransfer = bulkTransfer;
+    }
+
+    /**
+     * Checks whether the application was started to run a bulk export or import.
+     * @param args the command line arguments
+     * @return true if --export or --import is given
+     */
+    public static boolean isBulkCommand(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--" + EXPORT_OPTION + "=") || arg.startsWith("--" + IMPORT_OPTION + "=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the export or import requested on the command line, if any.
+     * @param args the parsed command line arguments
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        boolean export = args.containsOption(EXPORT_OPTION);
+        boolean importing = args.containsOption(IMPORT_OPTION);
+        if (!export && !importing) {
+            return;
+        }
+        try {
+            if (export && importing) {
+                throw new IllegalArgumentException("Use either --export or --import");
+            }
+            Path file = Path.of(option(args, export ? EXPORT_OPTION : IMPORT_OPTION, null));
+            String formatName = option(args, FORMAT_OPTION, null);
+            UserFileFormat format = formatName == null ? UserFileFormat.of(file) : UserFileFormat.parse(formatName);
+            if (format == null) {
+                throw new IllegalArgumentException("Invalid format " + formatName + ", use csv or binary");
+            }
+            if (export) {
+                bulkTransfer.exportUsers(file, format);
+            } else {
+                int threads = Integer.parseInt(option(args, THREADS_OPTION, Integer.toString(Settings.BULK_IMPORT_THREADS)));
+                int batchSize = Integer.parseInt(option(args, BATCH_SIZE_OPTION, Integer.toString(Settings.BULK_BATCH_SIZE)));
+                if (threads < 1 || batchSize < 1) {
+                    throw new IllegalArgumentException("Threads and batch size must be positive");
+                }
+                BulkTransfer.ImportResult result = bulkTransfer.importUsers(file, format, threads, batchSize);
+                exitCode = result.rejected() > 0 ? EXIT_REJECTED : 0;
+            }
+        } catch (IllegalArgumentException e) {
+            AppLogger.error("Invalid arguments: " + e.getMessage());
+            exitCode = EXIT_USAGE;
+        } catch (Exception e) {
+            AppLogger.error((export ? "Export" : "Import") + " failed: " + e.getMessage());
+            exitCode = EXIT_FAILURE;
+        }
+    }
+
+    /**
+     * Retrieves the exit code of the bulk command.
+     * @return 0 on success or when no bulk command was run
+     */
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    private static String option(ApplicationArguments args, String name, String defaultValue) {
+        List<String> values = args.getOptionValues(name);
+        if (values == null || values.isEmpty() || values.get(0).isEmpty()) {
+            if (defaultValue == null) {
+                throw new IllegalArgumentException("Missing value of --" + name);
+            }
+            return defaultValue;
+        }
+        return values.get(0);
+    }
+}
@@ -0,0 +1,44 @@
+package cz.engeto.ja.genesisResources.bulk;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Formats of user export files.
+ */
+public enum UserFileFormat {
+
+    /**
+     * RFC 4180 CSV in UTF-8 with the header id,name,surname,personID,uuid.
+     * An empty unquoted field is null, an empty quoted field is an empty string.
+     */
+    CSV,
+
+    /**
+     * Compact binary format: a magic number, one record per user with the ID and UUID as raw longs and
+     * length-prefixed UTF-8 strings, and a trailer with the number of records to detect truncated files.
+     */
+    BINARY;
+
+    /**
+     * Parses a format name.
+     * @param name csv or binary, ignoring case
+     * @return The format, or null if the name is unknown
+     */
+    public static UserFileFormat parse(String name) {
+        return switch (name.toLowerCase(Locale.ROOT)) {
+            case "csv" -> CSV;
+            case "binary", "bin" -> BINARY;
+            default -> null;
+        };
+    }
+
+    /**
+     * Guesses the format from the file extension.
+     * @param path The file
+     * @return CSV for .csv files, BINARY otherwise
+     */
+    public static UserFileFormat of(Path path) {
+        return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv") ? CSV : BINARY;
+    }
+}
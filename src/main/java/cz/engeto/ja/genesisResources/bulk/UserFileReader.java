@@ -0,0 +1,244 @@
+package cz.engeto.ja.genesisResources.bulk;
+
+import cz.engeto.ja.genesisResources.model.User;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reads users from an export file written by UserFileWriter through a channel.
+ * The file is read in large chunks into one buffer and decoded record by record.
+ * An instance is not thread-safe.
+ */
+public class UserFileReader implements Closeable {
+
+    private static final int CSV_COLUMNS = 5;
+
+    private final ReadableByteChannel channel;
+    private final UserFileFormat format;
+    private final ByteBuffer buffer; // Binary format
+    private final Reader reader; // CSV format
+    private final char[] chars;
+    private int charPosition;
+    private int charLimit;
+    private long line = 1;
+    private long count;
+    private boolean finished;
+
+    /**
+     * Constructor reading and checking the file header.
+     * @param channel The channel to read from, closed by close()
+     * @param format The format of the file
+     * @param bufferSize Size of the buffer in bytes, at least 64 KiB
+     * @throws IOException If the header cannot be read or does not match the format
+     */
+    public UserFileReader(ReadableByteChannel channel, UserFileFormat format, int bufferSize) throws IOException {
+        this.channel = channel;
+        this.format = format;
+        int size = Math.max(bufferSize, 64 * 1024);
+        if (format == UserFileFormat.CSV) {
+            this.buffer = null;
+            this.reader = Channels.newReader(channel, StandardCharsets.UTF_8);
+            this.chars = new char[size];
+            List<String> header = readCsvRecord();
+            if (header == null || !String.join(",", header).equals(UserFileWriter.CSV_HEADER)) {
+                throw new IOException("Not a user CSV file, expected header " + UserFileWriter.CSV_HEADER);
+            }
+        } else {
+            this.buffer = ByteBuffer.allocate(size).flip();
+            this.reader = null;
+            this.chars = null;
+            byte[] magic = new byte[UserFileWriter.MAGIC.length];
+            ensureAvailable(magic.length);
+            buffer.get(magic);
+            if (!Arrays.equals(magic, UserFileWriter.MAGIC)) {
+                throw new IOException("Not a user binary file or unsupported version");
+            }
+        }
+    }
+
+    /**
+     * Reads the next user.
+     * @return The user, or null at the end of the file
+     * @throws IOException If the file cannot be read or is malformed
+     */
+    public User read() throws IOException {
+        if (finished) {
+            return null;
+        }
+        User user = format == UserFileFormat.CSV ? readCsv() : readBinary();
+        if (user == null) {
+            finished = true;
+        } else {
+            count++;
+        }
+        return user;
+    }
+
+    /**
+     * Retrieves the position in the file, for error messages.
+     * @return Line number for CSV files, record number for binary files
+     */
+    public String getPosition() {
+        return format == UserFileFormat.CSV ? "line " + line : "record " + (count + 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private User readCsv() throws IOException {
+        long recordLine = line;
+        List<String> fields = readCsvRecord();
+        if (fields == null) {
+            return null;
+        }
+        if (fields.size() != CSV_COLUMNS) {
+            throw new IOException("Expected " + CSV_COLUMNS + " columns on line " + recordLine + ", found " + fields.size());
+        }
+        try {
+            return new User(Long.parseLong(fields.get(0)), fields.get(1), fields.get(2), fields.get(3), fields.get(4));
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid ID or UUID on line " + recordLine + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads one CSV record, quoted fields may contain separators, doubled quotes and line breaks.
+     * @return The fields (null for empty unquoted fields), or null at the end of the file
+     */
+    private List<String> readCsvRecord() throws IOException {
+        int c = nextChar();
+        if (c == -1) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>(CSV_COLUMNS);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean inQuotes = false;
+        while (true) {
+            if (inQuotes) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted field on line " + line);
+                }
+                if (c == '"') {
+                    c = nextChar();
+                    if (c != '"') {
+                        inQuotes = false;
+                        continue;
+                    }
+                } else if (c == '\n') {
+                    line++;
+                }
+                field.append((char) c);
+            } else if (c == '"' && field.isEmpty() && !quoted) {
+                quoted = true;
+                inQuotes = true;
+            } else if (c == ',' || c == '\n' || c == '\r' || c == -1) {
+                fields.add(field.isEmpty() && !quoted ? null : field.toString());
+                if (c != ',') {
+                    if (c == '\r' && peekChar() == '\n') {
+                        nextChar();
+                    }
+                    line++;
+                    return fields;
+                }
+                field.setLength(0);
+                quoted = false;
+            } else {
+                field.append((char) c);
+            }
+            c = nextChar();
+        }
+    }
+
+    private int nextChar() throws IOException {
+        if (charPosition == charLimit && !fillChars()) {
+            return -1;
+        }
+        return chars[charPosition++];
+    }
+
+    private int peekChar() throws IOException {
+        if (charPosition == charLimit && !fillChars()) {
+            return -1;
+        }
+        return chars[charPosition];
+    }
+
+    private boolean fillChars() throws IOException {
+        int read = reader.read(chars, 0, chars.length);
+        if (read <= 0) {
+            return false;
+        }
+        charPosition = 0;
+        charLimit = read;
+        return true;
+    }
+
+    private User readBinary() throws IOException {
+        ensureAvailable(1);
+        byte type = buffer.get();
+        if (type == UserFileWriter.TRAILER) {
+            ensureAvailable(Long.BYTES);
+            long expected = buffer.getLong();
+            if (expected != count) {
+                throw new IOException("File holds " + count + " users, the trailer expects " + expected);
+            }
+            return null;
+        }
+        if (type != UserFileWriter.RECORD) {
+            throw new IOException("Corrupted file at " + getPosition());
+        }
+        ensureAvailable(3 * Long.BYTES);
+        long id = buffer.getLong();
+        UUID uuid = new UUID(buffer.getLong(), buffer.getLong());
+        String name = readString();
+        String surname = readString();
+        String personID = readString();
+        return new User(id, name, surname, personID, uuid.toString());
+    }
+
+    private String readString() throws IOException {
+        ensureAvailable(Integer.BYTES);
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.capacity()) {
+            throw new IOException("Corrupted file at " + getPosition());
+        }
+        ensureAvailable(length);
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * Makes sure the buffer holds at least the given number of unread bytes, reading more from the channel if needed.
+     * @throws EOFException If the file ends before, i.e. the file is truncated
+     */
+    private void ensureAvailable(int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < length) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of file at " + getPosition() + ", the file is truncated");
+            }
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,157 @@
+package cz.engeto.ja.genesisResources.bulk;
+
+import cz.engeto.ja.genesisResources.model.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Writes users into an export file through a channel.
+ * Records are encoded into one large buffer that is written to the channel when full,
+ * so the file is written in a few large writes regardless of the number of users.
+ * An instance is not thread-safe.
+ */
+public class UserFileWriter implements Closeable {
+
+    static final byte[] MAGIC = {'G', 'R', 'U', 1}; // Binary format, version 1
+    static final byte RECORD = 1;
+    static final byte TRAILER = 0;
+    static final String CSV_HEADER = "id,name,surname,personID,uuid";
+    private static final byte[] CSV_HEADER_LINE = (CSV_HEADER + "\n").getBytes(StandardCharsets.US_ASCII);
+    private static final int NULL_LENGTH = -1;
+
+    private final WritableByteChannel channel;
+    private final UserFileFormat format;
+    private final ByteBuffer buffer;
+    private long count;
+
+    /**
+     * Constructor writing the file header.
+     * @param channel The channel to write to, closed by close()
+     * @param format The format of the file
+     * @param bufferSize Size of the buffer in bytes, at least 64 KiB
+     * @throws IOException If the header cannot be written
+     */
+    public UserFileWriter(WritableByteChannel channel, UserFileFormat format, int bufferSize) throws IOException {
+        this.channel = channel;
+        this.format = format;
+        this.buffer = ByteBuffer.allocate(Math.max(bufferSize, 64 * 1024));
+        buffer.put(format == UserFileFormat.CSV ? CSV_HEADER_LINE : MAGIC);
+    }
+
+    /**
+     * Writes a user.
+     * @param user The user to write
+     * @throws IOException If the channel fails
+     */
+    public void write(User user) throws IOException {
+        if (format == UserFileFormat.CSV) {
+            writeCsv(user);
+        } else {
+            writeBinary(user);
+        }
+        count++;
+    }
+
+    /**
+     * Retrieves the number of users written so far.
+     * @return The number of users
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Writes the trailer and the buffered bytes and closes the channel.
+     * @throws IOException If the channel fails
+     */
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            if (format == UserFileFormat.BINARY) {
+                ensureCapacity(1 + Long.BYTES);
+                buffer.put(TRAILER).putLong(count);
+            }
+            flush();
+        }
+    }
+
+    private void writeCsv(User user) throws IOException {
+        byte[] id = Long.toString(user.getId()).getBytes(StandardCharsets.US_ASCII);
+        byte[] name = csvField(user.getName());
+        byte[] surname = csvField(user.getSurname());
+        byte[] personID = csvField(user.getPersonID());
+        byte[] uuid = user.getUuid().toString().getBytes(StandardCharsets.US_ASCII);
+        ensureCapacity(id.length + name.length + surname.length + personID.length + uuid.length + 5);
+        buffer.put(id).put((byte) ',').put(name).put((byte) ',').put(surname).put((byte) ',')
+                .put(personID).put((byte) ',').put(uuid).put((byte) '\n');
+    }
+
+    /**
+     * Encodes a CSV field, quoting it when it is empty or contains a separator, quote or line break.
+     */
+    private static byte[] csvField(String value) {
+        if (value == null) {
+            return new byte[0];
+        }
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        String field = quote ? "\"" + value.replace("\"", "\"\"") + "\"" : value;
+        return field.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void writeBinary(User user) throws IOException {
+        byte[] name = utf8(user.getName());
+        byte[] surname = utf8(user.getSurname());
+        byte[] personID = utf8(user.getPersonID());
+        ensureCapacity(1 + 3 * Long.BYTES + 3 * Integer.BYTES + length(name) + length(surname) + length(personID));
+        UUID uuid = user.getUuid();
+        buffer.put(RECORD)
+                .putLong(user.getId())
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits());
+        putString(name);
+        putString(surname);
+        putString(personID);
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private void putString(byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(NULL_LENGTH);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+            if (buffer.remaining() < length) {
+                throw new IOException("Record of " + length + " bytes does not fit into the write buffer");
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
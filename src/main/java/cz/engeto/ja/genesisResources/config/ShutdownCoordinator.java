@@ -0,0 +1,121 @@
+package cz.engeto.ja.genesisResources.config;
+
+import cz.engeto.ja.genesisResources.controller.UserChangeController;
+import cz.engeto.ja.genesisResources.repository.UserRepository;
+import cz.engeto.ja.genesisResources.service.ReadinessGate;
+import cz.engeto.ja.genesisResources.service.UserChangeFeed;
+import cz.engeto.ja.genesisResources.tracing.Tracer;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.QueryProfiler;
+
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Coordinates the shutdown of the application and reports the time of each phase.
+ *
+ * 1. When the context starts closing, the instance is reported not ready and change feed streams are closed,
+ *    so long-lived connections do not hold up draining.
+ * 2. Spring Boot's graceful shutdown stops accepting requests and drains the ones in flight
+ *    (server.shutdown=graceful, deadline spring.lifecycle.timeout-per-shutdown-phase).
+ * 3. Once the web server is stopped, state is flushed: a snapshot of the embedded store,
+ *    the change feed spill file, the profiler and the queued trace spans.
+ */
+@Component
+@Lazy(false)
+public class ShutdownCoordinator implements ApplicationListener<ContextClosedEvent>, SmartLifecycle {
+
+    // Lower phases stop later; the web server drains at DEFAULT_PHASE - 1024 and stops at DEFAULT_PHASE - 2048
+    private static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 4096;
+
+    private final ReadinessGate readinessGate;
+    private final UserChangeController userChangeController;
+    private final UserChangeFeed userChangeFeed;
+    private final UserRepository userRepository;
+    private final QueryProfiler queryProfiler;
+    private volatile boolean running;
+    private volatile long shutdownStart;
+    private volatile long drainStart;
+
+    /**
+     * Constructor for ShutdownCoordinator.
+     * The dependencies are injected lazily so that the coordinator does not force their creation at startup.
+     * @param readinessGate the ReadinessGate to report the shutdown to
+     * @param userChangeController the UserChangeController whose streams are closed
+     * @param userChangeFeed the UserChangeFeed to close
+     * @param userRepository the UserRepository to flush
+     * @param queryProfiler the QueryProfiler to close
+     */
+    public ShutdownCoordinator(ReadinessGate readinessGate, @Lazy UserChangeController userChangeController, @Lazy UserChangeFeed userChangeFeed,
+                               @Lazy UserRepository userRepository, @Lazy QueryProfiler queryProfiler) {
+        this.readinessGate = readinessGate;
+        this.userChangeController = userChangeController;
+        this.userChangeFeed = userChangeFeed;
+        this.userRepository = userRepository;
+        this.queryProfiler = queryProfiler;
+    }
+
+    /**
+     * Starts the shutdown sequence when the application context is closing.
+     * @param event The context closed event
+     */
+    @Override
+    public void onApplicationEvent(ContextClosedEvent event) {
+        shutdownStart = System.nanoTime();
+        AppLogger.info("Shutdown started");
+        phase("report not ready", readinessGate::shuttingDown);
+        phase("close change feed streams", userChangeController::shutdown);
+        drainStart = System.nanoTime();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * Flushes state after the web server has drained requests and stopped.
+     */
+    @Override
+    public void stop() {
+        if (drainStart != 0) {
+            AppLogger.info("Shutdown phase 'drain requests' took " + (System.nanoTime() - drainStart) / 1_000_000 + " ms");
+        }
+        phase("flush user store", userRepository::close);
+        phase("close change feed", userChangeFeed::close);
+        phase("close profiler", queryProfiler::close);
+        phase("flush trace spans", Tracer::shutdown);
+        if (shutdownStart != 0) {
+            AppLogger.info("Shutdown finished in " + (System.nanoTime() - shutdownStart) / 1_000_000 + " ms");
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    /**
+     * Runs one phase of the shutdown and logs its time. A failing phase does not stop the following ones.
+     * @param name Name of the phase
+     * @param action The work of the phase
+     */
+    private void phase(String name, Runnable action) {
+        long start = System.nanoTime();
+        try {
+            action.run();
+            AppLogger.info("Shutdown phase '" + name + "' took " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (RuntimeException e) {
+            AppLogger.error("Shutdown phase '" + name + "' failed after " + (System.nanoTime() - start) / 1_000_000 + " ms: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package cz.engeto.ja.genesisResources.config;
+
+import cz.engeto.ja.genesisResources.service.ReadinessGate;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.boot.context.metrics.buffering.StartupTimeline;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.metrics.StartupStep;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Report of where the startup time goes.
+ * Uses the startup steps recorded by Spring (BufferingApplicationStartup set in GenesisResourcesApplication)
+ * and adds the milestones of the application: JVM start, context ready and caches warm.
+ */
+@Component
+@Lazy(false)
+public class StartupReport implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final int LOGGED_STEPS = 10;
+
+    private final ReadinessGate readinessGate;
+    private volatile StartupTimeline timeline;
+    private volatile long contextReadyUptimeMillis = -1;
+    private volatile long contextStartupMillis = -1;
+
+    /**
+     * Constructor for StartupReport.
+     * @param readinessGate the ReadinessGate reporting when caches are warm
+     */
+    public StartupReport(ReadinessGate readinessGate) {
+        this.readinessGate = readinessGate;
+    }
+
+    /**
+     * Records the startup timeline and logs the slowest steps once the application is ready.
+     * @param event The application ready event
+     */
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        contextReadyUptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        contextStartupMillis = event.getTimeTaken() == null ? -1 : event.getTimeTaken().toMillis();
+        if (event.getApplicationContext().getApplicationStartup() instanceof BufferingApplicationStartup startup) {
+            timeline = startup.getBufferedTimeline();
+        }
+        AppLogger.info("Context ready after " + contextReadyUptimeMillis + " ms of JVM uptime (context startup "
+                + contextStartupMillis + " ms)");
+        for (Map<String, Object> step : slowestSteps(LOGGED_STEPS)) {
+            AppLogger.info("Startup step " + step.get("name") + " " + step.get("tags") + " took " + step.get("durationMs") + " ms");
+        }
+    }
+
+    /**
+     * Builds the startup report.
+     * @param top Maximum number of startup steps to include
+     * @return Map with the milestones and the slowest startup steps
+     */
+    public Map<String, Object> getReport(int top) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("contextStartupMs", contextStartupMillis);
+        report.put("uptimeAtContextReadyMs", contextReadyUptimeMillis);
+        report.put("uptimeAtReadyMs", readinessGate.getReadyUptimeMillis());
+        report.put("slowestSteps", slowestSteps(top));
+        return report;
+    }
+
+    private List<Map<String, Object>> slowestSteps(int top) {
+        List<Map<String, Object>> steps = new ArrayList<>();
+        StartupTimeline currentTimeline = timeline;
+        if (currentTimeline == null) {
+            return steps;
+        }
+        currentTimeline.getEvents().stream()
+                .sorted(Comparator.comparing(StartupTimeline.TimelineEvent::getDuration).reversed())
+                .limit(top)
+                .forEach(event -> {
+                    Map<String, String> tags = new LinkedHashMap<>();
+                    for (StartupStep.Tag tag : event.getStartupStep().getTags()) {
+                        tags.put(tag.getKey(), tag.getValue());
+                    }
+                    Map<String, Object> step = new LinkedHashMap<>();
+                    step.put("name", event.getStartupStep().getName());
+                    step.put("tags", tags);
+                    step.put("durationMs", event.getDuration().toMillis());
+                    steps.add(step);
+                });
+        return steps;
+    }
+}
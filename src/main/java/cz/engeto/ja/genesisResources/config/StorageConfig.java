@@ -0,0 +1,107 @@
+package cz.engeto.ja.genesisResources.config;
+
+import cz.engeto.ja.genesisResources.repository.InMemoryUserRepository;
+import cz.engeto.ja.genesisResources.repository.MySqlUserRepository;
+import cz.engeto.ja.genesisResources.repository.ResilientUserRepository;
+import cz.engeto.ja.genesisResources.repository.ShardDirectory;
+import cz.engeto.ja.genesisResources.repository.ShardedUserRepository;
+import cz.engeto.ja.genesisResources.repository.UserRepository;
+import cz.engeto.ja.genesisResources.repository.WriteAheadLog;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.CircuitBreaker;
+import cz.engeto.ja.genesisResources.util.QueryProfiler;
+import cz.engeto.ja.genesisResources.util.Settings;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration selecting the storage engine used by the UserService.
+ * The engine is chosen by Settings.STORAGE_ENGINE. MySQL is accessed through a circuit breaker and bulkheads,
+ * with the sharded engine every shard has its own.
+ */
+@Configuration
+public class StorageConfig {
+
+    /**
+     * Creates the profiler of database statements and looked up keys.
+     * @return QueryProfiler instance
+     */
+    @Bean
+    public QueryProfiler queryProfiler() {
+        return new QueryProfiler(Settings.PROFILER_SLOW_QUERY_MS, Settings.PROFILER_SLOW_LOG_SIZE,
+                Settings.PROFILER_HOT_KEY_CAPACITY, Settings.PROFILER_EXPLAIN);
+    }
+
+    /**
+     * Creates the UserRepository for the configured storage engine.
+     * @param queryProfiler the profiler recording the statements of the MySQL engine
+     * @return UserRepository instance
+     */
+    @Bean
+    public UserRepository userRepository(QueryProfiler queryProfiler) {
+        AppLogger.info("Using storage engine: " + Settings.STORAGE_ENGINE);
+        switch (Settings.STORAGE_ENGINE) {
+            case Settings.STORAGE_MYSQL:
+                return mySql("mysql", Settings.CONNECTION_STRING, queryProfiler);
+            case Settings.STORAGE_SHARDED:
+                return sharded(queryProfiler);
+            case Settings.STORAGE_MEMORY:
+                return new InMemoryUserRepository();
+            case Settings.STORAGE_EMBEDDED:
+                try {
+                    return new InMemoryUserRepository(new WriteAheadLog(Path.of(Settings.WAL_DIRECTORY), Settings.WAL_SNAPSHOT_INTERVAL));
+                } catch (IOException e) {
+                    AppLogger.error("Failed to recover embedded user store: " + e.getMessage());
+                    throw new UncheckedIOException(e);
+                }
+            default:
+                throw new IllegalStateException("Unknown storage engine: " + Settings.STORAGE_ENGINE);
+        }
+    }
+
+    /**
+     * Creates the repository of one MySQL database, behind its own circuit breaker and bulkheads.
+     * @param name Name of the database in logs and metrics
+     * @param connectionString The JDBC connection string of the database
+     * @param queryProfiler the profiler recording the statements
+     * @return UserRepository instance
+     */
+    private UserRepository mySql(String name, String connectionString, QueryProfiler queryProfiler) {
+        MySqlUserRepository mySqlUserRepository = new MySqlUserRepository(connectionString,
+                Settings.DB_CONNECT_TIMEOUT_MS, Settings.DB_SOCKET_TIMEOUT_MS, Settings.DB_READ_TIMEOUT_S, Settings.DB_WRITE_TIMEOUT_S, queryProfiler);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(name, Settings.DB_BREAKER_FAILURE_THRESHOLD,
+                Settings.DB_BREAKER_OPEN_MS, Settings.DB_BREAKER_HALF_OPEN_PROBES);
+        return new ResilientUserRepository(mySqlUserRepository, circuitBreaker, Settings.DB_READ_CONCURRENCY,
+                Settings.DB_WRITE_CONCURRENCY, Settings.DB_BULKHEAD_WAIT_MS, Settings.DB_FALLBACK_CACHE_SIZE);
+    }
+
+    /**
+     * Creates the sharded repository over the databases in Settings.SHARD_CONNECTION_STRINGS.
+     * Slow statements are explained on the last shard, all shards run the same statements.
+     * @param queryProfiler the profiler recording the statements of all shards
+     * @return UserRepository instance
+     */
+    private UserRepository sharded(QueryProfiler queryProfiler) {
+        if (Settings.SHARD_CONNECTION_STRINGS.isEmpty()) {
+            throw new IllegalStateException("Sharded storage needs the shard databases in genesis.shards");
+        }
+        List<UserRepository> shards = new ArrayList<>();
+        for (String connectionString : Settings.SHARD_CONNECTION_STRINGS) {
+            shards.add(mySql("mysql-shard-" + shards.size(), connectionString, queryProfiler));
+        }
+        CircuitBreaker directoryBreaker = new CircuitBreaker("mysql-shard-directory", Settings.DB_BREAKER_FAILURE_THRESHOLD,
+                Settings.DB_BREAKER_OPEN_MS, Settings.DB_BREAKER_HALF_OPEN_PROBES);
+        ShardDirectory directory = new ShardDirectory(Settings.SHARD_DIRECTORY_CONNECTION_STRING, Settings.DB_CONNECT_TIMEOUT_MS,
+                Settings.DB_SOCKET_TIMEOUT_MS, Settings.DB_READ_TIMEOUT_S, Settings.DB_WRITE_TIMEOUT_S, directoryBreaker,
+                shards.size(), Settings.SHARD_RANGE_SIZE);
+        AppLogger.info("Sharding users over " + shards.size() + " databases in ranges of " + Settings.SHARD_RANGE_SIZE + " IDs");
+        return new ShardedUserRepository(shards, directory, Settings.SHARD_RANGE_SIZE, Settings.SHARD_QUERY_THREADS);
+    }
+}
@@ -0,0 +1,83 @@
+package cz.engeto.ja.genesisResources.config;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.model.UserBasicInfo;
+import cz.engeto.ja.genesisResources.util.UserJsonWriter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * HTTP message converter writing User and UserBasicInfo responses (and lists of them)
+ * with the hand-written UserJsonWriter instead of reflective Jackson serialization.
+ * Lists containing other types are delegated to Jackson. The converter only writes, requests are read by Jackson.
+ */
+public class UserJsonHttpMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ThreadLocal<UserJsonWriter> writers = ThreadLocal.withInitial(() -> new UserJsonWriter(BUFFER_SIZE));
+    private final MappingJackson2HttpMessageConverter fallback;
+
+    /**
+     * Constructor for UserJsonHttpMessageConverter.
+     * @param objectMapper the ObjectMapper used for values the fast path does not handle
+     */
+    public UserJsonHttpMessageConverter(ObjectMapper objectMapper) {
+        super(MediaType.APPLICATION_JSON);
+        this.fallback = new MappingJackson2HttpMessageConverter(objectMapper);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return User.class.isAssignableFrom(clazz) || UserBasicInfo.class.isAssignableFrom(clazz) || List.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) {
+        throw new UnsupportedOperationException("UserJsonHttpMessageConverter does not read requests");
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) {
+        throw new UnsupportedOperationException("UserJsonHttpMessageConverter does not read requests");
+    }
+
+    @Override
+    protected void writeInternal(Object value, Type type, HttpOutputMessage outputMessage) throws IOException {
+        if (!UserJsonWriter.canWrite(value)) {
+            fallback.write(value, type, outputMessage.getHeaders().getContentType(), outputMessage);
+            return;
+        }
+        UserJsonWriter writer = writers.get();
+        writer.reset(outputMessage.getBody());
+        try {
+            if (value instanceof List<?> list) {
+                writer.writeList(list);
+            } else {
+                writer.writeValue(value);
+            }
+            writer.flush();
+        } finally {
+            writer.reset(null);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package cz.engeto.ja.genesisResources.config;
+
+import cz.engeto.ja.genesisResources.service.UserVersionTracker;
+import cz.engeto.ja.genesisResources.util.AdaptiveConcurrencyLimiter;
+import cz.engeto.ja.genesisResources.util.RateLimiter;
+import cz.engeto.ja.genesisResources.util.Settings;
+import cz.engeto.ja.genesisResources.web.AdminAccessInterceptor;
+import cz.engeto.ja.genesisResources.web.AdmissionControlInterceptor;
+import cz.engeto.ja.genesisResources.web.ClientIdentifier;
+import cz.engeto.ja.genesisResources.web.EndpointClass;
+import cz.engeto.ja.genesisResources.web.RateLimitInterceptor;
+import cz.engeto.ja.genesisResources.web.TracingInterceptor;
+import cz.engeto.ja.genesisResources.web.UserListRepresentation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spring MVC configuration of the application.
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    private static final String API_PATTERN = "/api/v1/**";
+    private static final String ADMIN_PATTERN = "/api/v1/admin/**";
+    private static final String READY_PATH = "/api/v1/admin/ready";
+    private static final String CHANGE_FEED_PATTERN = "/api/v1/users/changes";
+
+    private final ObjectMapper objectMapper;
+    private final AdaptiveConcurrencyLimiter admissionLimiter;
+    private final ClientIdentifier clientIdentifier;
+    private final RateLimitInterceptor rateLimitInterceptor;
+
+    /**
+     * Constructor for WebConfig.
+     * @param objectMapper the ObjectMapper configured by Spring Boot
+     * @param userVersionTracker the tracker of user versions, used to recognize revalidations of the user list
+     */
+    public WebConfig(ObjectMapper objectMapper, UserVersionTracker userVersionTracker) {
+        this.objectMapper = objectMapper;
+        this.admissionLimiter = new AdaptiveConcurrencyLimiter(Settings.ADMISSION_INITIAL_LIMIT, Settings.ADMISSION_MIN_LIMIT,
+                Settings.ADMISSION_MAX_LIMIT, Settings.ADMISSION_LATENCY_TARGET_MS, Settings.ADMISSION_BULK_SHARE);
+        this.clientIdentifier = new ClientIdentifier(Settings.API_KEYS, Settings.RATE_LIMIT_TRUST_FORWARDED_FOR);
+        Map<EndpointClass, RateLimiter> rateLimiters = new EnumMap<>(EndpointClass.class);
+        if (Settings.RATE_LIMIT_ENABLED) {
+            rateLimiters.put(EndpointClass.READ, rateLimiter(Settings.RATE_LIMIT_READ_PER_SECOND, Settings.RATE_LIMIT_READ_BURST));
+            rateLimiters.put(EndpointClass.WRITE, rateLimiter(Settings.RATE_LIMIT_WRITE_PER_SECOND, Settings.RATE_LIMIT_WRITE_BURST));
+            rateLimiters.put(EndpointClass.BULK, rateLimiter(Settings.RATE_LIMIT_BULK_PER_SECOND, Settings.RATE_LIMIT_BULK_BURST));
+        }
+        this.rateLimitInterceptor = new RateLimitInterceptor(rateLimiters, clientIdentifier,
+                request -> UserListRepresentation.isNotModified(request, userVersionTracker));
+    }
+
+    private static RateLimiter rateLimiter(double ratePerSecond, int burst) {
+        return new RateLimiter(ratePerSecond, burst, Settings.RATE_LIMIT_MAX_CLIENTS, Settings.RATE_LIMIT_SWEEP_MS);
+    }
+
+    /**
+     * Exposes the admission limiter so its state can be reported.
+     * @return the limiter used by the admission control interceptor
+     */
+    @Bean
+    public AdaptiveConcurrencyLimiter admissionLimiter() {
+        return admissionLimiter;
+    }
+
+    /**
+     * Exposes the identification of clients, shared by rate limiting and Idempotency-Keys.
+     * @return the client identifier
+     */
+    @Bean
+    public ClientIdentifier clientIdentifier() {
+        return clientIdentifier;
+    }
+
+    /**
+     * Exposes the per-client rate limiting so its state can be reported.
+     * @return the rate limiting interceptor
+     */
+    @Bean
+    public RateLimitInterceptor rateLimitInterceptor() {
+        return rateLimitInterceptor;
+    }
+
+    /**
+     * Registers tracing, per-client rate limiting and admission control for the API. Tracing comes first, so rejected
+     * requests are traced too. Rate limiting comes before admission control, so a client over its rate never takes
+     * a slot from the others. Admin endpoints and the long-lived change feed streams are neither traced nor limited.
+     * Admin endpoints other than the readiness check are restricted to the admin clients.
+     * @param registry the interceptor registry
+     */
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new AdminAccessInterceptor(clientIdentifier, Settings.ADMIN_CLIENTS))
+                .addPathPatterns(ADMIN_PATTERN)
+                .excludePathPatterns(READY_PATH);
+        registry.addInterceptor(new TracingInterceptor())
+                .addPathPatterns(API_PATTERN)
+                .excludePathPatterns(ADMIN_PATTERN, CHANGE_FEED_PATTERN);
+        registry.addInterceptor(rateLimitInterceptor)
+                .addPathPatterns(API_PATTERN)
+                .excludePathPatterns(ADMIN_PATTERN, CHANGE_FEED_PATTERN);
+        registry.addInterceptor(new AdmissionControlInterceptor(admissionLimiter))
+                .addPathPatterns(API_PATTERN)
+                .excludePathPatterns(ADMIN_PATTERN, CHANGE_FEED_PATTERN);
+    }
+
+    /**
+     * Registers the fast JSON converter for users in front of the default Jackson converter
+     * and makes sure the compact CBOR encoding (application/cbor) is available for machine consumers.
+     * @param converters the converters configured so far
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new UserJsonHttpMessageConverter(objectMapper));
+        if (converters.stream().noneMatch(converter -> converter instanceof MappingJackson2CborHttpMessageConverter)) {
+            converters.add(new MappingJackson2CborHttpMessageConverter());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package cz.engeto.ja.genesisResources.controller;
+
+import cz.engeto.ja.genesisResources.config.StartupReport;
+import cz.engeto.ja.genesisResources.repository.ResilientUserRepository;
+import cz.engeto.ja.genesisResources.repository.ShardedUserRepository;
+import cz.engeto.ja.genesisResources.repository.UserRepository;
+import cz.engeto.ja.genesisResources.service.IdempotencyStore;
+import cz.engeto.ja.genesisResources.service.ReadinessGate;
+import cz.engeto.ja.genesisResources.service.UserService;
+import cz.engeto.ja.genesisResources.tracing.Tracer;
+import cz.engeto.ja.genesisResources.util.AdaptiveConcurrencyLimiter;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.QueryProfiler;
+import cz.engeto.ja.genesisResources.web.RateLimitInterceptor;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Controller exposing operational information of the application.
+ */
+@RestController
+@RequestMapping("api/v1/admin")
+public class AdminController {
+
+    private final UserService userService;
+    private final AdaptiveConcurrencyLimiter admissionLimiter;
+    private final UserRepository userRepository;
+    private final QueryProfiler queryProfiler;
+    private final ReadinessGate readinessGate;
+    private final StartupReport startupReport;
+    private final IdempotencyStore idempotencyStore;
+    private final RateLimitInterceptor rateLimitInterceptor;
+
+    /**
+     * Constructor for AdminController.
+     * @param userService the UserService instance
+     * @param admissionLimiter the limiter of the admission control
+     * @param userRepository the UserRepository used by the UserService
+     * @param queryProfiler the profiler of database statements and looked up keys
+     * @param readinessGate the ReadinessGate reporting whether the instance is ready
+     * @param startupReport the report of the startup time
+     * @param idempotencyStore the IdempotencyStore remembering created users by Idempotency-Key
+     * @param rateLimitInterceptor the per-client rate limiting of the API
+     */
+    public AdminController(UserService userService, AdaptiveConcurrencyLimiter admissionLimiter, UserRepository userRepository,
+                           QueryProfiler queryProfiler, ReadinessGate readinessGate, StartupReport startupReport,
+                           IdempotencyStore idempotencyStore, RateLimitInterceptor rateLimitInterceptor) {
+        this.userService = userService;
+        this.admissionLimiter = admissionLimiter;
+        this.userRepository = userRepository;
+        this.queryProfiler = queryProfiler;
+        this.readinessGate = readinessGate;
+        this.startupReport = startupReport;
+        this.idempotencyStore = idempotencyStore;
+        this.rateLimitInterceptor = rateLimitInterceptor;
+    }
+
+    /**
+     * Endpoint for load balancers and orchestrators to check whether the instance should receive traffic.
+     * @return ResponseEntity with 200 when ready, 503 while warming up or shutting down
+     */
+    @GetMapping("/ready")
+    public ResponseEntity<?> getReadiness() {
+        ReadinessGate.State state = readinessGate.getState();
+        if (state != ReadinessGate.State.READY) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(state.name());
+        }
+        return ResponseEntity.ok(state.name());
+    }
+
+    /**
+     * Endpoint to retrieve runtime metrics of the application.
+     * @return ResponseEntity with metrics grouped by subsystem
+     */
+    @GetMapping("/metrics")
+    public ResponseEntity<?> getMetrics() {
+        AppLogger.info("Request to get metrics");
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("lookups", userService.getLookupMetrics());
+        metrics.put("admission", admissionLimiter.getMetrics());
+        metrics.put("rateLimit", rateLimitInterceptor.getMetrics());
+        if (userRepository instanceof ResilientUserRepository resilientUserRepository) {
+            metrics.put("database", resilientUserRepository.getMetrics());
+        } else if (userRepository instanceof ShardedUserRepository shardedUserRepository) {
+            metrics.put("database", shardedUserRepository.getMetrics());
+        }
+        metrics.put("idempotency", idempotencyStore.getMetrics());
+        metrics.put("tracing", Tracer.getMetrics());
+        return ResponseEntity.ok(metrics);
+    }
+
+    /**
+     * Endpoint to retrieve the profiler report: statements by total time, recent slow queries with their
+     * execution plans and the most frequently looked up keys.
+     * @param top the maximum number of entries per section
+     * @return ResponseEntity with the report or error message
+     */
+    @GetMapping("/profiler")
+    public ResponseEntity<?> getProfilerReport(@RequestParam(value = "top", required = false, defaultValue = "20") int top) {
+        AppLogger.info("Request to get profiler report, top: " + top);
+        if (top < 1 || top > 1000) {
+            AppLogger.warn("Invalid top: " + top);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid top, must be between 1 and 1000");
+        }
+        return ResponseEntity.ok(queryProfiler.getReport(top));
+    }
+
+    /**
+     * Endpoint to retrieve where the startup time went: milestones and the slowest startup steps.
+     * @param top the maximum number of startup steps
+     * @return ResponseEntity with the report or error message
+     */
+    @GetMapping("/startup")
+    public ResponseEntity<?> getStartupReport(@RequestParam(value = "top", required = false, defaultValue = "20") int top) {
+        AppLogger.info("Request to get startup report, top: " + top);
+        if (top < 1 || top > 1000) {
+            AppLogger.warn("Invalid top: " + top);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid top, must be between 1 and 1000");
+        }
+        return ResponseEntity.ok(startupReport.getReport(top));
+    }
+}
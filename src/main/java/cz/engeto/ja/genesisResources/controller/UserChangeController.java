@@ -0,0 +1,170 @@
+package cz.engeto.ja.genesisResources.controller;
+
+import cz.engeto.ja.genesisResources.service.UserChangeFeed;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.Settings;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Controller streaming the change feed of users as server-sent events.
+ * Every event carries the epoch of the application run and its sequence number as SSE id, so a consumer reconnecting
+ * with the Last-Event-ID header (or the since parameter) continues exactly where it stopped, or gets 410 after a restart.
+ */
+@RestController
+@RequestMapping("api/v1")
+@CrossOrigin(origins = "http://localhost:63342")
+public class UserChangeController {
+
+    private static final int BATCH_SIZE = 256;
+    private static final long KEEP_ALIVE_MS = 15_000;
+
+    private final UserChangeFeed userChangeFeed;
+    private final ThreadPoolExecutor streamExecutor;
+
+    /**
+     * Constructor for UserChangeController.
+     * @param userChangeFeed the UserChangeFeed instance
+     */
+    public UserChangeController(UserChangeFeed userChangeFeed) {
+        this.userChangeFeed = userChangeFeed;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.streamExecutor = new ThreadPoolExecutor(0, Settings.CHANGE_FEED_MAX_SUBSCRIBERS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "change-feed-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Endpoint streaming changes of users.
+     * Without since and Last-Event-ID only changes published after the connection are streamed, since=0 streams
+     * all changes still available.
+     * @param since the id of the last event the consumer has seen, or 0
+     * @param lastEventId the id of the last event received, sent by SSE clients when reconnecting
+     * @return ResponseEntity with the event stream, or 410 if the requested changes are no longer available
+     */
+    @GetMapping(value = "/users/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> streamChanges(@RequestParam(value = "since", required = false) String since,
+                                           @RequestHeader(value = HttpHeaders.LAST_EVENT_ID, required = false) String lastEventId) {
+        String position = lastEventId != null ? lastEventId.trim() : since;
+        long after;
+        if (position == null) {
+            after = userChangeFeed.getLatestSequence();
+        } else if (position.equals("0")) {
+            after = 0;
+        } else {
+            try {
+                after = userChangeFeed.sequenceOf(position);
+            } catch (IllegalArgumentException e) {
+                AppLogger.warn("Invalid change feed position: " + position);
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid Last-Event-ID");
+            }
+            if (after < 0) {
+                AppLogger.warn("Change feed position " + position + " is from another run of the application");
+                return ResponseEntity.status(HttpStatus.GONE).body("Changes after " + position + " are no longer available, reload /api/v1/users");
+            }
+        }
+        AppLogger.info("Request to stream user changes after sequence " + after);
+        if (!userChangeFeed.canResumeAfter(after)) {
+            AppLogger.warn("Changes after sequence " + after + " are no longer available");
+            return ResponseEntity.status(HttpStatus.GONE).body("Changes after sequence " + after + " are no longer available, reload /api/v1/users");
+        }
+
+        SseEmitter emitter = new SseEmitter(Settings.CHANGE_FEED_STREAM_TIMEOUT_MS);
+        AtomicBoolean closed = new AtomicBoolean();
+        emitter.onCompletion(() -> closed.set(true));
+        emitter.onTimeout(() -> closed.set(true));
+        emitter.onError(error -> closed.set(true));
+        try {
+            streamExecutor.execute(() -> stream(emitter, closed, after));
+        } catch (RejectedExecutionException e) {
+            AppLogger.warn("Too many change feed consumers");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "5").body("Too many change feed consumers");
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * Stops all running streams.
+     */
+    @PreDestroy
+    public void shutdown() {
+        streamExecutor.shutdownNow();
+    }
+
+    /**
+     * Sends events to one consumer until the stream is closed.
+     * @param emitter the emitter of the consumer
+     * @param closed flag set when the stream is closed by the client or by a timeout
+     * @param after the sequence number of the last change the consumer has seen
+     */
+    private void stream(SseEmitter emitter, AtomicBoolean closed, long after) {
+        long position = after;
+        try {
+            while (!closed.get()) {
+                List<UserChangeFeed.Entry> entries;
+                try {
+                    entries = userChangeFeed.awaitEvents(position, BATCH_SIZE, KEEP_ALIVE_MS);
+                } catch (IllegalStateException e) {
+                    AppLogger.warn("Change feed consumer fell behind: " + e.getMessage());
+                    sendReset(emitter, closed, e.getMessage());
+                    return;
+                }
+                if (entries.isEmpty()) {
+                    emitter.send(SseEmitter.event().comment("keep-alive"));
+                    continue;
+                }
+                for (UserChangeFeed.Entry entry : entries) {
+                    emitter.send(SseEmitter.event()
+                            .id(userChangeFeed.eventId(entry.sequence()))
+                            .name(entry.type())
+                            .data(entry.json(), MediaType.APPLICATION_JSON));
+                    position = entry.sequence();
+                }
+            }
+        } catch (IllegalStateException e) {
+            // The emitter was completed by a timeout or a connection error before the closed flag was seen
+            AppLogger.info("Change feed stream closed after sequence " + position);
+        } catch (IOException e) {
+            AppLogger.info("Change feed consumer disconnected after sequence " + position);
+            emitter.completeWithError(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            emitter.complete();
+        }
+    }
+
+    /**
+     * Tells a consumer that fell behind to reload all users, then ends its stream.
+     * @param emitter the emitter of the consumer
+     * @param closed flag set when the stream is closed by the client or by a timeout
+     * @param reason the reason sent with the RESET event
+     */
+    private void sendReset(SseEmitter emitter, AtomicBoolean closed, String reason) {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            emitter.send(SseEmitter.event().name("RESET").data(reason));
+            emitter.complete();
+        } catch (IOException | IllegalStateException ignored) {
+            // The client is gone or the stream already ended, nothing to tell
+        }
+    }
+}
@@ -3,18 +3,31 @@ package cz.engeto.ja.genesisResources.controller;
 import cz.engeto.ja.genesisResources.model.User;
 import cz.engeto.ja.genesisResources.model.UserBasicInfo;
 import cz.engeto.ja.genesisResources.model.UserCreateData;
+import cz.engeto.ja.genesisResources.model.UserLookupRequest;
+import cz.engeto.ja.genesisResources.model.UserSearchResult;
 import cz.engeto.ja.genesisResources.model.UserUpdateData;
+import cz.engeto.ja.genesisResources.repository.DatabaseUnavailableException;
+import cz.engeto.ja.genesisResources.repository.StaleReads;
+import cz.engeto.ja.genesisResources.service.IdempotencyStore;
 import cz.engeto.ja.genesisResources.service.PersonIdService;
+import cz.engeto.ja.genesisResources.service.UserSearchIndex;
 import cz.engeto.ja.genesisResources.service.UserService;
+import cz.engeto.ja.genesisResources.service.UserVersionTracker;
 import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.Settings;
+import cz.engeto.ja.genesisResources.web.ClientIdentifier;
+import cz.engeto.ja.genesisResources.web.UserListRepresentation;
 
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -26,30 +39,57 @@ import java.util.UUID;
 @CrossOrigin(origins = "http://localhost:63342")
 public class UserController {
 
+    private static final int SEARCH_DEFAULT_LIMIT = 20;
+    private static final int SEARCH_MAX_LIMIT = 100;
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
+
     @Autowired
     private UserService userService;
 
     @Autowired
     private PersonIdService personIdService;
 
+    @Autowired
+    private UserVersionTracker userVersionTracker;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired
+    private ClientIdentifier clientIdentifier;
+
     /**
      * Constructor for UserController.
      * @param userService the UserService instance
      * @param personIdService the PersonIdService instance
+     * @param userVersionTracker the UserVersionTracker instance used for conditional requests
+     * @param idempotencyStore the IdempotencyStore remembering created users by Idempotency-Key
+     * @param clientIdentifier the ClientIdentifier scoping idempotency keys per client
      */
-    public UserController(UserService userService, PersonIdService personIdService) {
+    public UserController(UserService userService, PersonIdService personIdService, UserVersionTracker userVersionTracker,
+                          IdempotencyStore idempotencyStore, ClientIdentifier clientIdentifier) {
         this.userService = userService;
         this.personIdService = personIdService;
+        this.userVersionTracker = userVersionTracker;
+        this.idempotencyStore = idempotencyStore;
+        this.clientIdentifier = clientIdentifier;
     }
 
     /**
      * Endpoint to create a new user.
+     * Clients retrying after a timeout should send the same Idempotency-Key header with every attempt:
+     * a retry then gets the originally created user without creating it again. Keys are scoped per client.
      * @param userData Object containing user's name, surname, and personID
+     * @param idempotencyKey the key identifying all attempts of one creation, if any
+     * @param request the request, identifying the client
      * @return ResponseEntity with appropriate status and message
      */
     @PostMapping("/user")
-    public ResponseEntity<?> createUser(@RequestBody UserCreateData userData) {
-        AppLogger.info("Request to create user with data: " + userData);
+    public ResponseEntity<?> createUser(@RequestBody UserCreateData userData,
+                                        @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                        HttpServletRequest request) {
+        AppLogger.info("Request to create user with data: " + userData + ", idempotency key: " + idempotencyKey);
 
         String name = userData.getName();
         String surname = userData.getSurname();
@@ -59,6 +99,16 @@ public class UserController {
             AppLogger.warn("Invalid input: Name, surname, or personID is empty");
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid input: Name, surname, or personID is empty");
         }
+        if (name.length() > Settings.NAME_MAX_LENGTH || surname.length() > Settings.NAME_MAX_LENGTH) {
+            AppLogger.warn("Invalid input: Name or surname is too long");
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Invalid input: Name and surname must be at most " + Settings.NAME_MAX_LENGTH + " characters long");
+        }
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > Settings.IDEMPOTENCY_KEY_MAX_LENGTH)) {
+            AppLogger.warn("Invalid idempotency key: " + idempotencyKey);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Invalid idempotency key, must be 1 to " + Settings.IDEMPOTENCY_KEY_MAX_LENGTH + " characters long");
+        }
 
         try {
             if (!(personID.length() == 12 && personID.matches("[0-9a-zA-Z]+"))) {
@@ -71,30 +121,67 @@ public class UserController {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid personID");
             }
 
-            User user = new User();
-            user.setName(name);
-            user.setSurname(surname);
-            user.setPersonID(personID);
-
-            userService.createUser(user);
-            personIdService.markPersonIdAsAssigned(personID);
-
-            AppLogger.info("User created: " + user);
-            return ResponseEntity.status(HttpStatus.CREATED).body(user);
+            if (idempotencyKey == null) {
+                User user = createUser(name, surname, personID);
+                return ResponseEntity.status(HttpStatus.CREATED).body(user);
+            }
+            // Every field is prefixed by its length, so no choice of characters in the names can make different bodies equal
+            String fingerprint = personID.length() + ":" + personID + name.length() + ":" + name + surname.length() + ":" + surname;
+            IdempotencyStore.Result result = idempotencyStore.execute(clientIdentifier.clientOf(request), idempotencyKey, fingerprint, () -> createUser(name, surname, personID));
+            if (result.replayed()) {
+                AppLogger.info("Replaying user created with idempotency key " + idempotencyKey + ": " + result.user());
+            }
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .header(IDEMPOTENT_REPLAYED_HEADER, Boolean.toString(result.replayed()))
+                    .body(result.user());
+        } catch (IdempotencyStore.KeyReusedException e) {
+            AppLogger.warn(e.getMessage());
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body("Idempotency key was already used with a different request");
+        } catch (IdempotencyStore.InProgressException e) {
+            AppLogger.warn(e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body("Request with this idempotency key is still in progress, retry later");
         } catch (SQLException e) {
+            if (isDatabaseUnavailable(e)) {
+                return serviceUnavailable(e);
+            }
             AppLogger.error("Internal server error: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
+    /**
+     * Creates a user and marks its personID as assigned.
+     * @param name the name of the user
+     * @param surname the surname of the user
+     * @param personID the validated personID of the user
+     * @return the created user
+     * @throws SQLException If the user cannot be created
+     */
+    private User createUser(String name, String surname, String personID) throws SQLException {
+        User user = new User();
+        user.setName(name);
+        user.setSurname(surname);
+        user.setPersonID(personID);
+
+        userService.createUser(user);
+        personIdService.markPersonIdAsAssigned(personID);
+
+        AppLogger.info("User created: " + user);
+        return user;
+    }
+
     /**
      * Endpoint to retrieve a user by ID.
      * @param id the ID of the user
      * @param detail whether to fetch detailed user information
-     * @return ResponseEntity with user information or error message
+     * @param ifNoneMatch the ETag the client already has, if any
+     * @return ResponseEntity with user information, 304 if not modified, or error message
      */
     @GetMapping(value = "/user/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> getUserById(@PathVariable String id, @RequestParam(value = "detail", required = false, defaultValue = "false") boolean detail) {
+    public ResponseEntity<?> getUserById(@PathVariable String id, @RequestParam(value = "detail", required = false, defaultValue = "false") boolean detail,
+                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         AppLogger.info("Request to get user by ID: " + id + ", detail: " + detail);
         if (id == null || id.isEmpty()) {
             AppLogger.warn("Invalid input: ID is empty");
@@ -106,22 +193,30 @@ public class UserController {
         }
         try {
             Long userId = Long.parseLong(id);
-            if (detail) {
-                User user = userService.getUserById(userId);
-                if (user == null) {
-                    AppLogger.warn("User not found with ID: " + id);
-                    return ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found with id " + id);
-                }
-                return ResponseEntity.ok(user);
-            } else {
-                UserBasicInfo userBasicInfo = userService.getUserByIdSimple(userId);
-                if (userBasicInfo == null) {
-                    AppLogger.warn("User not found with ID: " + id);
-                    return ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found with id " + id);
-                }
-                return ResponseEntity.ok(userBasicInfo);
+            String representation = representation(detail);
+            // With in-process storage the version ETag is known before reading, otherwise it is computed from the content
+            String eTag = userVersionTracker.getUserETag(userId, representation);
+            long lastModified = userVersionTracker.getUserLastModified(userId);
+            if (userVersionTracker.matchesListed(ifNoneMatch, eTag)) {
+                AppLogger.info("User with ID " + id + " not modified");
+                return notModified(eTag, lastModified);
             }
+            StaleReads.clear();
+            Object user = detail ? userService.getUserById(userId) : userService.getUserByIdSimple(userId);
+            if (user == null) {
+                AppLogger.warn("User not found with ID: " + id);
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found with id " + id);
+            }
+            eTag = currentETag(eTag, representation, user);
+            if (isNotModified(ifNoneMatch, eTag)) {
+                AppLogger.info("User with ID " + id + " not modified");
+                return notModified(eTag, lastModified);
+            }
+            return okWithValidators(eTag, lastModified).body(user);
         } catch (SQLException e) {
+            if (isDatabaseUnavailable(e)) {
+                return serviceUnavailable(e);
+            }
             AppLogger.error("Internal server error: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
         }
@@ -130,10 +225,12 @@ public class UserController {
     /**
      * Endpoint to retrieve a user by UUID.
      * @param uuidStr the UUID string of the user
-     * @return ResponseEntity with user information or error message
+     * @param ifNoneMatch the ETag the client already has, if any
+     * @return ResponseEntity with user information, 304 if not modified, or error message
      */
     @GetMapping("/user/uuid/{uuid}")
-    public ResponseEntity<?> getUserByUuid(@PathVariable String uuidStr) {
+    public ResponseEntity<?> getUserByUuid(@PathVariable("uuid") String uuidStr,
+                                           @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         AppLogger.info("Request to get user by UUID: " + uuidStr);
         if (uuidStr == null || uuidStr.isEmpty()) {
             AppLogger.warn("Invalid input: UUID is empty");
@@ -141,17 +238,39 @@ public class UserController {
         }
         try {
             UUID uuid = UUID.fromString(uuidStr);
+            // The version ETag can only be computed up front when the ID of the UUID is already known
+            Long knownId = userVersionTracker.getIdByUuid(uuid);
+            String eTag = knownId == null ? null : userVersionTracker.getUserETag(knownId, "uuid");
+            long lastModified = knownId == null ? -1 : userVersionTracker.getUserLastModified(knownId);
+            if (userVersionTracker.matchesListed(ifNoneMatch, eTag)) {
+                AppLogger.info("User with UUID " + uuid + " not modified");
+                return notModified(eTag, lastModified);
+            }
+            StaleReads.clear();
             User user = userService.getUserByUuid(uuid);
             if (user == null) {
                 AppLogger.warn("User not found with UUID: " + uuid);
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found with uuid " + uuid);
             }
             AppLogger.info("User found: " + user);
-            return ResponseEntity.ok(user);
+            if (eTag != null && !user.getId().equals(knownId)) {
+                // A version ETag taken after the read could belong to a newer version than the data
+                eTag = null;
+                lastModified = -1;
+            }
+            eTag = currentETag(eTag, "uuid", user);
+            if (isNotModified(ifNoneMatch, eTag)) {
+                AppLogger.info("User with UUID " + uuid + " not modified");
+                return notModified(eTag, lastModified);
+            }
+            return okWithValidators(eTag, lastModified).body(user);
         } catch (IllegalArgumentException e) {
             AppLogger.warn("Invalid UUID format: " + uuidStr);
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid UUID format");
         } catch (SQLException e) {
+            if (isDatabaseUnavailable(e)) {
+                return serviceUnavailable(e);
+            }
             AppLogger.error("Internal server error: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
         }
@@ -159,21 +278,144 @@ public class UserController {
 
     /**
      * Endpoint to retrieve all users.
+     * The list is served as JSON or, for clients preferring application/cbor, in the compact CBOR encoding.
+     * Large responses are gzip-compressed by the server when the client accepts it.
      * @param detail whether to fetch detailed user information
-     * @return ResponseEntity with list of users or error message
+     * @param ifNoneMatch the ETag the client already has, if any
+     * @param accept the media types accepted by the client
+     * @return ResponseEntity with list of users, 304 if not modified, or error message
      */
     @GetMapping("/users")
-    public ResponseEntity<?> getAllUsers(@RequestParam(value = "detail", required = false, defaultValue = "false") boolean detail) {
+    public ResponseEntity<?> getAllUsers(@RequestParam(value = "detail", required = false, defaultValue = "false") boolean detail,
+                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                         @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
         AppLogger.info("Request to get all users, detail: " + detail);
+        // The encoding is chosen here and forced on the response, so the ETag always belongs to the body sent
+        MediaType mediaType = UserListRepresentation.selectMediaType(accept);
+        if (mediaType == null) {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+        }
+        // Each encoding is a separate representation and needs its own strong ETag
+        String representation = UserListRepresentation.name(detail, mediaType);
+        String eTag = userVersionTracker.getCollectionETag(representation);
+        long lastModified = userVersionTracker.getCollectionLastModified();
+        if (eTag != null && userVersionTracker.matches(ifNoneMatch, eTag)) {
+            AppLogger.info("User list not modified");
+            return notModifiedList(eTag, lastModified);
+        }
         try {
-            if (detail) {
-                List<User> users = userService.getAllUsers();
-                return ResponseEntity.ok(users);
-            } else {
-                List<UserBasicInfo> users = userService.getAllUsersSimple();
-                return ResponseEntity.ok(users);
+            StaleReads.clear();
+            List<?> users = detail ? userService.getAllUsers() : userService.getAllUsersSimple();
+            eTag = currentETag(eTag, representation, users);
+            if (isNotModified(ifNoneMatch, eTag)) {
+                AppLogger.info("User list not modified");
+                return notModifiedList(eTag, lastModified);
             }
+            return okWithValidators(eTag, lastModified)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT).contentType(mediaType).body(users);
         } catch (SQLException e) {
+            if (isDatabaseUnavailable(e)) {
+                return serviceUnavailable(e);
+            }
+            AppLogger.error("Internal server error: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+        }
+    }
+
+    /**
+     * Endpoint to look up many users at once by ID, UUID or personID.
+     * The result holds for each list of keys the users in the order of the request, null where no user was found.
+     * @param lookup the IDs, UUIDs and personIDs to look up, at most Settings.LOOKUP_MAX_KEYS in total
+     * @param detail whether to fetch detailed user information
+     * @return ResponseEntity with the found users or error message
+     */
+    @PostMapping("/users/lookup")
+    public ResponseEntity<?> lookupUsers(@RequestBody UserLookupRequest lookup,
+                                         @RequestParam(value = "detail", required = false, defaultValue = "false") boolean detail) {
+        List<String> idStrings = lookup.getIds() == null ? List.of() : lookup.getIds();
+        List<String> uuidStrings = lookup.getUuids() == null ? List.of() : lookup.getUuids();
+        List<String> personIDs = lookup.getPersonIDs() == null ? List.of() : lookup.getPersonIDs();
+        int keys = idStrings.size() + uuidStrings.size() + personIDs.size();
+        AppLogger.info("Request to look up " + keys + " users, detail: " + detail);
+        if (keys == 0) {
+            AppLogger.warn("Invalid input: no keys to look up");
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid input: ids, uuids and personIDs are empty");
+        }
+        if (keys > Settings.LOOKUP_MAX_KEYS) {
+            AppLogger.warn("Too many keys to look up: " + keys);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Too many keys, at most " + Settings.LOOKUP_MAX_KEYS + " per request");
+        }
+        List<Long> ids = new ArrayList<>(idStrings.size());
+        for (String id : idStrings) {
+            Long userId = parseId(id);
+            if (userId == null) {
+                AppLogger.warn("Invalid ID format: " + id);
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid ID format: " + id);
+            }
+            ids.add(userId);
+        }
+        List<UUID> uuids = new ArrayList<>(uuidStrings.size());
+        for (String uuid : uuidStrings) {
+            try {
+                uuids.add(UUID.fromString(uuid));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                AppLogger.warn("Invalid UUID format: " + uuid);
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid UUID format: " + uuid);
+            }
+        }
+        if (personIDs.contains(null)) {
+            AppLogger.warn("Invalid input: personID is empty");
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid input: personID is empty");
+        }
+        try {
+            return ResponseEntity.ok(userService.lookupUsers(ids, uuids, personIDs, detail));
+        } catch (SQLException e) {
+            if (isDatabaseUnavailable(e)) {
+                return serviceUnavailable(e);
+            }
+            AppLogger.error("Internal server error: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+        }
+    }
+
+    /**
+     * Endpoint to search users by a prefix of their name or surname, ignoring case and diacritics.
+     * Results are paged by cursor: pass nextCursor of a page to get the following page.
+     * @param query the prefix to search for
+     * @param field the field to search, name or surname
+     * @param limit the maximum number of users per page
+     * @param cursor the cursor returned with the previous page, if any
+     * @return ResponseEntity with a page of users or error message
+     */
+    @GetMapping("/users/search")
+    public ResponseEntity<?> searchUsers(@RequestParam(value = "q", required = false) String query,
+                                         @RequestParam(value = "field", required = false, defaultValue = "surname") String field,
+                                         @RequestParam(value = "limit", required = false, defaultValue = "" + SEARCH_DEFAULT_LIMIT) int limit,
+                                         @RequestParam(value = "cursor", required = false) String cursor) {
+        AppLogger.info("Request to search users by " + field + ": " + query + ", limit: " + limit + ", cursor: " + cursor);
+        if (query == null || query.isEmpty()) {
+            AppLogger.warn("Invalid input: search query is empty");
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid input: search query is empty");
+        }
+        UserSearchIndex.Field searchField = UserSearchIndex.Field.parse(field);
+        if (searchField == null) {
+            AppLogger.warn("Invalid search field: " + field);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid search field, use name or surname");
+        }
+        if (limit < 1 || limit > SEARCH_MAX_LIMIT) {
+            AppLogger.warn("Invalid search limit: " + limit);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid limit, must be between 1 and " + SEARCH_MAX_LIMIT);
+        }
+        try {
+            UserSearchResult result = userService.searchUsers(searchField, query, cursor, limit);
+            return ResponseEntity.ok(result);
+        } catch (IllegalArgumentException e) {
+            AppLogger.warn("Invalid search cursor: " + cursor);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid cursor");
+        } catch (SQLException e) {
+            if (isDatabaseUnavailable(e)) {
+                return serviceUnavailable(e);
+            }
             AppLogger.error("Internal server error: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
         }
@@ -196,6 +438,11 @@ public class UserController {
             AppLogger.warn("Invalid input: ID, name, or surname is empty");
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid input: ID, name, or surname is empty");
         }
+        if (name.length() > Settings.NAME_MAX_LENGTH || surname.length() > Settings.NAME_MAX_LENGTH) {
+            AppLogger.warn("Invalid input: Name or surname is too long");
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Invalid input: Name and surname must be at most " + Settings.NAME_MAX_LENGTH + " characters long");
+        }
         if (!isNumeric(id)) {
             AppLogger.warn("Invalid ID format: " + id);
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid ID format");
@@ -219,6 +466,9 @@ public class UserController {
             return ResponseEntity.ok(userBasicInfo);
 
         } catch (SQLException e) {
+            if (isDatabaseUnavailable(e)) {
+                return serviceUnavailable(e);
+            }
             AppLogger.error("Internal server error: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
         }
@@ -250,11 +500,142 @@ public class UserController {
             userService.deleteUser(userId);
             return ResponseEntity.noContent().build();
         } catch (SQLException e) {
+            if (isDatabaseUnavailable(e)) {
+                return serviceUnavailable(e);
+            }
             AppLogger.error("Internal server error: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
         }
     }
 
+    /**
+     * Builds a 304 Not Modified response.
+     * @param eTag the current ETag of the resource, may be null
+     * @param lastModified the time of the last change of the resource, -1 if unknown
+     * @return ResponseEntity without body
+     */
+    private ResponseEntity<?> notModified(String eTag, long lastModified) {
+        return withValidators(ResponseEntity.status(HttpStatus.NOT_MODIFIED), eTag, lastModified).build();
+    }
+
+    /**
+     * Builds a 304 Not Modified response for the user list, which varies by the Accept header.
+     * @param eTag the current ETag of the list, may be null
+     * @param lastModified the time of the last change of any user, -1 if unknown
+     * @return ResponseEntity without body
+     */
+    private ResponseEntity<?> notModifiedList(String eTag, long lastModified) {
+        return withValidators(ResponseEntity.status(HttpStatus.NOT_MODIFIED), eTag, lastModified)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+    }
+
+    /**
+     * Starts a 200 response with the validators of the current version, unless the body was served from
+     * the fallback cache during a database outage. Stale data must not be cached under the current ETag.
+     * @param eTag the current ETag of the resource, may be null
+     * @param lastModified the time of the last change of the resource, -1 if unknown
+     * @return builder of the response
+     */
+    private ResponseEntity.BodyBuilder okWithValidators(String eTag, long lastModified) {
+        if (StaleReads.wereServed()) {
+            AppLogger.warn("Serving possibly stale data without validators");
+            return ResponseEntity.ok().header(HttpHeaders.CACHE_CONTROL, "no-store");
+        }
+        return withValidators(ResponseEntity.ok(), eTag, lastModified);
+    }
+
+    /**
+     * Sets the validators that are known on a response.
+     * @param builder the response builder
+     * @param eTag the ETag, may be null
+     * @param lastModified the time of the last change, -1 if unknown
+     * @return the same builder
+     */
+    private <B extends ResponseEntity.HeadersBuilder<B>> B withValidators(B builder, String eTag, long lastModified) {
+        if (eTag != null) {
+            builder.eTag(eTag);
+        }
+        if (lastModified >= 0) {
+            builder.lastModified(lastModified);
+        }
+        return builder;
+    }
+
+    /**
+     * Determines the ETag of a representation that was just read.
+     * @param eTag the version ETag taken before the read, null if the versions are not authoritative
+     * @param representation name of the representation
+     * @param content the user or users that were read
+     * @return the version ETag if known, otherwise one computed from the content; null for stale data
+     */
+    private String currentETag(String eTag, String representation, Object content) {
+        if (eTag != null || StaleReads.wereServed()) {
+            return eTag;
+        }
+        return userVersionTracker.getContentETag(representation, content);
+    }
+
+    /**
+     * Checks after a read whether the client already has the representation that was read.
+     * @param ifNoneMatch the If-None-Match header of the request, may be null
+     * @param eTag the ETag of the representation that was read, may be null
+     * @return true if 304 Not Modified can be sent; never for data from the fallback cache
+     */
+    private boolean isNotModified(String ifNoneMatch, String eTag) {
+        return !StaleReads.wereServed() && userVersionTracker.matches(ifNoneMatch, eTag);
+    }
+
+    /**
+     * Checks whether a database call failed because the database is unavailable or overloaded.
+     * @param e the exception thrown by the service
+     * @return true if the cause is a DatabaseUnavailableException
+     */
+    private boolean isDatabaseUnavailable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DatabaseUnavailableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds a 503 Service Unavailable response asking the client to retry once the circuit breaker probes again.
+     * @param e the exception thrown by the service
+     * @return ResponseEntity with error message
+     */
+    private ResponseEntity<?> serviceUnavailable(SQLException e) {
+        AppLogger.warn("Database unavailable: " + e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, Settings.DB_BREAKER_OPEN_MS / 1000)))
+                .body("Database is temporarily unavailable, retry later");
+    }
+
+    /**
+     * Names the representation of a user resource, used to give each representation its own ETag.
+     * @param detail whether the detailed representation is requested
+     * @return name of the representation
+     */
+    private String representation(boolean detail) {
+        return detail ? "detail" : "basic";
+    }
+
+    /**
+     * Parses a user ID.
+     * @param str the string to parse
+     * @return the ID, or null if the string is not numeric or out of range
+     */
+    private Long parseId(String str) {
+        if (!isNumeric(str)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(str);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     /**
      * Checks if a string is numeric.
      * @param str the string to check
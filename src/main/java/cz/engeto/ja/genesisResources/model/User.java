@@ -51,6 +51,18 @@ public class User {
         this.uuid = UUID.randomUUID();
     }
 
+    /**
+     * Copy constructor creating an independent copy of another user.
+     * @param other The user to copy
+     */
+    public User(User other) {
+        this.id = other.id;
+        this.name = other.name;
+        this.surname = other.surname;
+        this.personID = other.personID;
+        this.uuid = other.uuid;
+    }
+
     /**
      * Sets the identifier of the user.
      * @param id The identifier of the user
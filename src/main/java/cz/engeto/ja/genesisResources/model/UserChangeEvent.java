@@ -0,0 +1,91 @@
+package cz.engeto.ja.genesisResources.model;
+
+/**
+ * A class representing a change of a user published to the change feed.
+ */
+public class UserChangeEvent {
+
+    /**
+     * Kind of the change.
+     */
+    public enum Type {
+        CREATED, UPDATED, DELETED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final Long userId;
+    private final User user;
+    private final long timestamp;
+
+    /**
+     * Constructs a new change event.
+     * @param sequence The sequence number of the change, increasing by one with every change
+     * @param type The kind of the change
+     * @param userId The ID of the changed user
+     * @param user The user after the change, null for deleted users
+     * @param timestamp Time of the change in milliseconds since the epoch
+     */
+    public UserChangeEvent(long sequence, Type type, Long userId, User user, long timestamp) {
+        this.sequence = sequence;
+        this.type = type;
+        this.userId = userId;
+        this.user = user;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Retrieves the sequence number of the change.
+     * @return The sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Retrieves the kind of the change.
+     * @return The type of the change
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Retrieves the ID of the changed user.
+     * @return The user's id
+     */
+    public Long getUserId() {
+        return userId;
+    }
+
+    /**
+     * Retrieves the user after the change.
+     * @return The user, or null if the user was deleted
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Retrieves the time of the change.
+     * @return Time in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns a string representation of the UserChangeEvent object.
+     * @return A string representation of the UserChangeEvent object
+     */
+    @Override
+    public String toString() {
+        return "UserChangeEvent{" +
+                "sequence=" + sequence +
+                ", type=" + type +
+                ", userId=" + userId +
+                ", user=" + user +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
@@ -0,0 +1,73 @@
+package cz.engeto.ja.genesisResources.model;
+
+import java.util.List;
+
+/**
+ * Represents the keys of users to look up at once. Any of the lists may be missing.
+ */
+public class UserLookupRequest {
+    private List<String> ids;
+    private List<String> uuids;
+    private List<String> personIDs;
+
+    /**
+     * Retrieves the IDs of the users to look up.
+     * @return The IDs, or null if none are requested.
+     */
+    public List<String> getIds() {
+        return ids;
+    }
+
+    /**
+     * Sets the IDs of the users to look up.
+     * @param ids The IDs to set.
+     */
+    public void setIds(List<String> ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Retrieves the UUIDs of the users to look up.
+     * @return The UUIDs, or null if none are requested.
+     */
+    public List<String> getUuids() {
+        return uuids;
+    }
+
+    /**
+     * Sets the UUIDs of the users to look up.
+     * @param uuids The UUIDs to set.
+     */
+    public void setUuids(List<String> uuids) {
+        this.uuids = uuids;
+    }
+
+    /**
+     * Retrieves the personIDs of the users to look up.
+     * @return The personIDs, or null if none are requested.
+     */
+    public List<String> getPersonIDs() {
+        return personIDs;
+    }
+
+    /**
+     * Sets the personIDs of the users to look up.
+     * @param personIDs The personIDs to set.
+     */
+    public void setPersonIDs(List<String> personIDs) {
+        this.personIDs = personIDs;
+    }
+
+    /**
+     * Returns a string representation of the UserLookupRequest object.
+     * @return A string representation of the UserLookupRequest object
+     */
+    @Override
+    public String toString() {
+        return "UserLookupRequest{" +
+                "ids=" + ids +
+                ", uuids=" + uuids +
+                ", personIDs=" + personIDs +
+                '}';
+    }
+}
@@ -0,0 +1,77 @@
+package cz.engeto.ja.genesisResources.model;
+
+import java.util.List;
+
+/**
+ * A class representing the users found by a lookup of many keys.
+ * Each list holds one element per requested key, in the order of the request;
+ * the element is null where no user was found for the key.
+ * @param <T> User or UserBasicInfo, depending on the requested detail
+ */
+public class UserLookupResult<T> {
+
+    private final List<T> ids;
+    private final List<T> uuids;
+    private final List<T> personIDs;
+    private final int notFound;
+
+    /**
+     * Constructs a new lookup result.
+     * @param ids The users found by ID
+     * @param uuids The users found by UUID
+     * @param personIDs The users found by personID
+     * @param notFound The number of keys without a user
+     */
+    public UserLookupResult(List<T> ids, List<T> uuids, List<T> personIDs, int notFound) {
+        this.ids = ids;
+        this.uuids = uuids;
+        this.personIDs = personIDs;
+        this.notFound = notFound;
+    }
+
+    /**
+     * Retrieves the users found by ID, in the order of the requested IDs.
+     * @return List of users, null for IDs without a user
+     */
+    public List<T> getIds() {
+        return ids;
+    }
+
+    /**
+     * Retrieves the users found by UUID, in the order of the requested UUIDs.
+     * @return List of users, null for UUIDs without a user
+     */
+    public List<T> getUuids() {
+        return uuids;
+    }
+
+    /**
+     * Retrieves the users found by personID, in the order of the requested personIDs.
+     * @return List of users, null for personIDs without a user
+     */
+    public List<T> getPersonIDs() {
+        return personIDs;
+    }
+
+    /**
+     * Retrieves the number of requested keys without a user.
+     * @return The number of keys not found
+     */
+    public int getNotFound() {
+        return notFound;
+    }
+
+    /**
+     * Returns a string representation of the UserLookupResult object.
+     * @return A string representation of the UserLookupResult object
+     */
+    @Override
+    public String toString() {
+        return "UserLookupResult{" +
+                "ids=" + ids +
+                ", uuids=" + uuids +
+                ", personIDs=" + personIDs +
+                ", notFound=" + notFound +
+                '}';
+    }
+}
@@ -0,0 +1,50 @@
+package cz.engeto.ja.genesisResources.model;
+
+import java.util.List;
+
+/**
+ * A class representing one page of user search results.
+ */
+public class UserSearchResult {
+
+    private final List<UserBasicInfo> users;
+    private final String nextCursor;
+
+    /**
+     * Constructs a new page of search results.
+     * @param users The users found on this page
+     * @param nextCursor The cursor of the next page, null if this is the last page
+     */
+    public UserSearchResult(List<UserBasicInfo> users, String nextCursor) {
+        this.users = users;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Retrieves the users found on this page.
+     * @return List of users (basic info)
+     */
+    public List<UserBasicInfo> getUsers() {
+        return users;
+    }
+
+    /**
+     * Retrieves the cursor to pass to the next search request to continue after this page.
+     * @return The cursor, or null if there are no more results
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Returns a string representation of the UserSearchResult object.
+     * @return A string representation of the UserSearchResult object
+     */
+    @Override
+    public String toString() {
+        return "UserSearchResult{" +
+                "users=" + users +
+                ", nextCursor='" + nextCursor + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,38 @@
+package cz.engeto.ja.genesisResources.repository;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Thrown when a database call is not attempted because the database is considered unavailable
+ * (open circuit breaker) or overloaded (full bulkhead). Callers may retry later.
+ */
+public class DatabaseUnavailableException extends SQLTransientConnectionException {
+
+    private final boolean overloaded;
+
+    /**
+     * Constructor for a database considered unreachable.
+     * @param reason Description of why the call was rejected
+     */
+    public DatabaseUnavailableException(String reason) {
+        this(reason, false);
+    }
+
+    /**
+     * Constructor for DatabaseUnavailableException.
+     * @param reason Description of why the call was rejected
+     * @param overloaded true if the database is reachable but this instance has too many calls in progress
+     */
+    public DatabaseUnavailableException(String reason, boolean overloaded) {
+        super(reason);
+        this.overloaded = overloaded;
+    }
+
+    /**
+     * Tells whether the call was rejected only because too many calls are in progress.
+     * @return true for a full bulkhead, false for an unreachable database
+     */
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+}
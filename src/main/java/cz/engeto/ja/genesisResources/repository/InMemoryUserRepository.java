@@ -0,0 +1,469 @@
+package cz.engeto.ja.genesisResources.repository;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.model.UserBasicInfo;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * UserRepository implementation keeping all users in process memory.
+ * Users are indexed by id, uuid and personID. Reads are lock-free,
+ * writes are serialized so that the three indexes always stay consistent.
+ * When a WriteAheadLog is given, every change is logged before the write call returns
+ * and the store is rebuilt from the log on startup. Logged changes are applied to the indexes
+ * only once they are durable, in log order; until then they are kept as pending changes,
+ * which later writes of the same user and the unique checks take into account.
+ */
+public class InMemoryUserRepository implements UserRepository {
+
+    private final ConcurrentNavigableMap<Long, User> usersById = new ConcurrentSkipListMap<>(); // Primary index, ordered by ID
+    private final ConcurrentMap<UUID, Long> idsByUuid = new ConcurrentHashMap<>(); // Secondary index on uuid
+    private final ConcurrentMap<String, Long> idsByPersonId = new ConcurrentHashMap<>(); // Secondary index on personID
+    private final AtomicLong lastId = new AtomicLong(); // Equivalent of AUTO_INCREMENT
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Changes logged but not durable yet, guarded by the write lock
+    private final Deque<PendingChange> pendingChanges = new ArrayDeque<>(); // In log order
+    private final Map<Long, PendingChange> latestPendingChanges = new HashMap<>(); // Latest pending change per user ID
+    private final Set<UUID> pendingUuids = new HashSet<>(); // Reserved by pending creates
+    private final Set<String> pendingPersonIds = new HashSet<>(); // Reserved by pending creates
+    private final WriteAheadLog writeAheadLog; // null when the store is not durable
+    private final ExecutorService snapshotExecutor;
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * A logged change waiting until it is durable.
+     * @param commit The commit handle of the log record
+     * @param op The operation of the change
+     * @param user The user after the change (the removed user for OP_DELETE), owned by the repository
+     */
+    private record PendingChange(WriteAheadLog.Commit commit, byte op, User user) {
+    }
+
+    /**
+     * Constructor for a purely in-memory store without persistence.
+     */
+    public InMemoryUserRepository() {
+        this.writeAheadLog = null;
+        this.snapshotExecutor = null;
+    }
+
+    /**
+     * Constructor for a durable store. Recovers the users from the log before returning.
+     * @param writeAheadLog The log to recover from and to append changes to
+     * @throws IOException If the log cannot be recovered
+     */
+    public InMemoryUserRepository(WriteAheadLog writeAheadLog) throws IOException {
+        this.writeAheadLog = writeAheadLog;
+        this.snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writeAheadLog.recover(new RecoveryReplayer());
+        AppLogger.info("Recovered " + usersById.size() + " users from write-ahead log, last ID " + lastId.get());
+    }
+
+    @Override
+    public void createUser(User user) throws SQLException {
+        WriteAheadLog.Commit commit;
+        writeLock.lock();
+        try {
+            if (isPersonIdTaken(user.getPersonID())) {
+                throw new SQLIntegrityConstraintViolationException("Duplicate entry '" + user.getPersonID() + "' for key 'personID'");
+            }
+            if (isUuidTaken(user.getUuid())) {
+                throw new SQLIntegrityConstraintViolationException("Duplicate entry '" + user.getUuid() + "' for key 'uuid'");
+            }
+            if (user.getId() == null) {
+                user.setId(lastId.incrementAndGet());
+            } else if (currentUser(user.getId()) != null) {
+                throw new SQLIntegrityConstraintViolationException("Duplicate entry '" + user.getId() + "' for key 'PRIMARY'");
+            } else {
+                lastId.accumulateAndGet(user.getId(), Math::max);
+            }
+            commit = log(WriteAheadLog.OP_CREATE, user);
+            stage(commit, WriteAheadLog.OP_CREATE, new User(user));
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(commit);
+    }
+
+    @Override
+    public void importUsers(List<User> users) throws SQLException {
+        List<WriteAheadLog.Commit> commits = new ArrayList<>(users.size());
+        writeLock.lock();
+        try {
+            Set<Long> ids = new HashSet<>();
+            Set<UUID> uuids = new HashSet<>();
+            Set<String> personIds = new HashSet<>();
+            for (User user : users) {
+                if (currentUser(user.getId()) != null || !ids.add(user.getId())) {
+                    throw new SQLIntegrityConstraintViolationException("Duplicate entry '" + user.getId() + "' for key 'PRIMARY'");
+                }
+                if (isPersonIdTaken(user.getPersonID()) || !personIds.add(user.getPersonID())) {
+                    throw new SQLIntegrityConstraintViolationException("Duplicate entry '" + user.getPersonID() + "' for key 'personID'");
+                }
+                if (isUuidTaken(user.getUuid()) || !uuids.add(user.getUuid())) {
+                    throw new SQLIntegrityConstraintViolationException("Duplicate entry '" + user.getUuid() + "' for key 'uuid'");
+                }
+                if (writeAheadLog != null) {
+                    WriteAheadLog.checkWritable(user);
+                }
+            }
+            for (User user : users) {
+                WriteAheadLog.Commit commit = log(WriteAheadLog.OP_CREATE, user);
+                if (commit != null) {
+                    commits.add(commit);
+                }
+                stage(commit, WriteAheadLog.OP_CREATE, new User(user));
+                lastId.accumulateAndGet(user.getId(), Math::max);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        for (WriteAheadLog.Commit commit : commits) {
+            awaitDurable(commit);
+        }
+    }
+
+    @Override
+    public User getUserByPersonId(String personID) {
+        Long id = idsByPersonId.get(personID);
+        return id == null ? null : getUserById(id);
+    }
+
+    @Override
+    public User getUserById(Long id) {
+        User user = usersById.get(id);
+        return user == null ? null : new User(user);
+    }
+
+    @Override
+    public User getUserByUuid(UUID uuid) {
+        Long id = idsByUuid.get(uuid);
+        return id == null ? null : getUserById(id);
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        List<User> allUsers = new ArrayList<>(usersById.size());
+        for (User user : usersById.values()) {
+            allUsers.add(new User(user));
+        }
+        return allUsers;
+    }
+
+    @Override
+    public void forEachUser(UserSink sink) throws IOException {
+        for (User user : usersById.values()) {
+            sink.accept(new User(user));
+        }
+    }
+
+    @Override
+    public List<UserBasicInfo> getAllUsersSimple() {
+        List<UserBasicInfo> allUsers = new ArrayList<>(usersById.size());
+        for (User user : usersById.values()) {
+            allUsers.add(UserBasicInfo.fromUser(user));
+        }
+        return allUsers;
+    }
+
+    @Override
+    public void updateUser(User user) throws SQLException {
+        WriteAheadLog.Commit commit = null;
+        writeLock.lock();
+        try {
+            User stored = currentUser(user.getId());
+            if (stored != null) {
+                User updated = new User(stored);
+                updated.setName(user.getName());
+                updated.setSurname(user.getSurname());
+                commit = log(WriteAheadLog.OP_UPDATE, updated);
+                stage(commit, WriteAheadLog.OP_UPDATE, updated);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(commit);
+    }
+
+    @Override
+    public void deleteUser(Long id) throws SQLException {
+        WriteAheadLog.Commit commit = null;
+        writeLock.lock();
+        try {
+            User stored = currentUser(id);
+            if (stored != null) {
+                commit = log(WriteAheadLog.OP_DELETE, stored);
+                stage(commit, WriteAheadLog.OP_DELETE, stored);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(commit);
+    }
+
+    /**
+     * Writes a snapshot (if the store is durable) and closes the write-ahead log.
+     * Called during shutdown; calls after the first one have no effect.
+     */
+    @Override
+    public void close() {
+        if (writeAheadLog == null || !closed.compareAndSet(false, true)) {
+            return;
+        }
+        snapshotExecutor.shutdown();
+        try {
+            snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            snapshot();
+        } catch (IOException | SQLException e) {
+            AppLogger.error("Failed to write final snapshot: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            writeAheadLog.close();
+        } catch (IOException e) {
+            AppLogger.error("Failed to close write-ahead log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends a change to the write-ahead log. Must be called while holding the write lock,
+     * before the change is staged.
+     * @param op The operation of the change
+     * @param user The changed user
+     * @return Commit handle, or null when the store is not durable
+     * @throws SQLException If the log is not writable
+     */
+    private WriteAheadLog.Commit log(byte op, User user) throws SQLException {
+        return writeAheadLog == null ? null : writeAheadLog.append(op, user);
+    }
+
+    /**
+     * Applies a change to the indexes, or keeps it pending until its log record is durable.
+     * Must be called while holding the write lock, right after the change was logged.
+     * @param commit Commit handle returned by log(), null when the store is not durable
+     * @param op The operation of the change
+     * @param user The user after the change (the removed user for OP_DELETE), owned by the repository afterwards
+     */
+    private void stage(WriteAheadLog.Commit commit, byte op, User user) {
+        if (commit == null) {
+            apply(op, user);
+            return;
+        }
+        PendingChange change = new PendingChange(commit, op, user);
+        pendingChanges.addLast(change);
+        latestPendingChanges.put(user.getId(), change);
+        if (op == WriteAheadLog.OP_CREATE) {
+            pendingUuids.add(user.getUuid());
+            pendingPersonIds.add(user.getPersonID());
+        }
+    }
+
+    /**
+     * Applies the pending changes whose log records are durable, in log order, and drops the failed ones.
+     * Records complete in log order and the log stays failed after the first failure,
+     * so the pending changes are done from the oldest one on.
+     */
+    private void applyDurableChanges() {
+        writeLock.lock();
+        try {
+            PendingChange change;
+            while ((change = pendingChanges.peekFirst()) != null && change.commit().isDone()) {
+                pendingChanges.removeFirst();
+                latestPendingChanges.remove(change.user().getId(), change);
+                if (change.op() == WriteAheadLog.OP_CREATE) {
+                    pendingUuids.remove(change.user().getUuid());
+                    pendingPersonIds.remove(change.user().getPersonID());
+                }
+                if (!change.commit().isFailed()) {
+                    apply(change.op(), change.user());
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a logged change is durable, applies it and schedules a snapshot when one is due.
+     * Called after the write lock is released so that concurrent writers share one fsync.
+     * @param commit Commit handle returned by log(), may be null
+     * @throws SQLException If the change could not be made durable, it is not applied then
+     */
+    private void awaitDurable(WriteAheadLog.Commit commit) throws SQLException {
+        if (commit == null) {
+            return;
+        }
+        try {
+            writeAheadLog.await(commit);
+        } finally {
+            applyDurableChanges();
+        }
+        if (writeAheadLog.isSnapshotDue() && snapshotRunning.compareAndSet(false, true)) {
+            try {
+                snapshotExecutor.execute(() -> {
+                    try {
+                        snapshot();
+                    } catch (IOException | SQLException e) {
+                        AppLogger.error("Failed to write snapshot: " + e.getMessage());
+                    } finally {
+                        snapshotRunning.set(false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                snapshotRunning.set(false); // Executor already shut down
+            }
+        }
+    }
+
+    /**
+     * Captures a consistent copy of the store and writes it as a compacted snapshot.
+     * @throws IOException If the snapshot cannot be written
+     * @throws SQLException If the log is not writable
+     */
+    private void snapshot() throws IOException, SQLException {
+        List<User> users;
+        long capturedLastId;
+        WriteAheadLog.Commit marker;
+        writeLock.lock();
+        try {
+            if (pendingChanges.isEmpty()) {
+                users = new ArrayList<>(usersById.values());
+            } else {
+                // Pending changes are logged before the marker, the snapshot has to contain them
+                Map<Long, User> state = new TreeMap<>(usersById);
+                for (PendingChange change : pendingChanges) {
+                    if (change.op() == WriteAheadLog.OP_DELETE) {
+                        state.remove(change.user().getId());
+                    } else {
+                        state.put(change.user().getId(), change.user());
+                    }
+                }
+                users = new ArrayList<>(state.values());
+            }
+            capturedLastId = lastId.get();
+            marker = writeAheadLog.rotate();
+        } finally {
+            writeLock.unlock();
+        }
+        writeAheadLog.await(marker);
+        writeAheadLog.writeSnapshot(users, capturedLastId, marker.getLsn());
+    }
+
+    /**
+     * Retrieves the latest state of a user including pending changes. Must be called while holding the write lock.
+     * @param id The ID of the user
+     * @return The stored instance, null if there is no such user
+     */
+    private User currentUser(Long id) {
+        PendingChange pending = latestPendingChanges.get(id);
+        if (pending != null) {
+            return pending.op() == WriteAheadLog.OP_DELETE ? null : pending.user();
+        }
+        return usersById.get(id);
+    }
+
+    /**
+     * Checks whether a personID is used by a stored user or a pending create. Must be called while holding the write lock.
+     */
+    private boolean isPersonIdTaken(String personID) {
+        return idsByPersonId.containsKey(personID) || pendingPersonIds.contains(personID);
+    }
+
+    /**
+     * Checks whether a UUID is used by a stored user or a pending create. Must be called while holding the write lock.
+     */
+    private boolean isUuidTaken(UUID uuid) {
+        return idsByUuid.containsKey(uuid) || pendingUuids.contains(uuid);
+    }
+
+    /**
+     * Applies a change to all indexes. Must be called while holding the write lock.
+     */
+    private void apply(byte op, User user) {
+        switch (op) {
+            case WriteAheadLog.OP_CREATE -> putUser(user);
+            case WriteAheadLog.OP_UPDATE -> usersById.put(user.getId(), user);
+            case WriteAheadLog.OP_DELETE -> removeUser(user.getId());
+            default -> throw new IllegalArgumentException("Unknown operation " + op);
+        }
+    }
+
+    /**
+     * Puts a user into all indexes. Must be called while holding the write lock.
+     * @param user The user to index, the instance is owned by the repository afterwards
+     */
+    private void putUser(User user) {
+        usersById.put(user.getId(), user);
+        idsByUuid.put(user.getUuid(), user.getId());
+        idsByPersonId.put(user.getPersonID(), user.getId());
+    }
+
+    /**
+     * Removes a user from all indexes. Must be called while holding the write lock.
+     * @param id The ID of the user to remove
+     */
+    private void removeUser(Long id) {
+        User removed = usersById.remove(id);
+        if (removed != null) {
+            idsByUuid.remove(removed.getUuid());
+            idsByPersonId.remove(removed.getPersonID());
+        }
+    }
+
+    /**
+     * Applies the records of the write-ahead log to the indexes during recovery.
+     */
+    private class RecoveryReplayer implements WriteAheadLog.Replayer {
+        @Override
+        public void replayLastId(long id) {
+            lastId.accumulateAndGet(id, Math::max);
+        }
+
+        @Override
+        public void replayCreate(User user) {
+            removeUser(user.getId());
+            putUser(user);
+            replayLastId(user.getId());
+        }
+
+        @Override
+        public void replayUpdate(User user) {
+            removeUser(user.getId());
+            putUser(user);
+        }
+
+        @Override
+        public void replayDelete(long id) {
+            removeUser(id);
+        }
+    }
+}
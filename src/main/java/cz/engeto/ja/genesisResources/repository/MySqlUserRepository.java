@@ -0,0 +1,474 @@
+package cz.engeto.ja.genesisResources.repository;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.model.UserBasicInfo;
+import cz.engeto.ja.genesisResources.tracing.Span;
+import cz.engeto.ja.genesisResources.tracing.Tracer;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.QueryProfiler;
+import cz.engeto.ja.genesisResources.util.Settings;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * UserRepository implementation storing users in the MySQL Users table.
+ * Connecting, preparing, executing and mapping are traced as separate spans,
+ * executions are recorded by the QueryProfiler.
+ */
+public class MySqlUserRepository implements UserRepository {
+
+    private final String connectionString;
+    private final Properties connectionProperties = new Properties();
+    private final int readTimeoutSeconds;
+    private final int writeTimeoutSeconds;
+    private final QueryProfiler queryProfiler; // null when statements are not profiled
+
+    /**
+     * Constructor to initialize the repository with a JDBC connection string.
+     * @param connectionString The JDBC connection string of the database
+     */
+    public MySqlUserRepository(String connectionString) {
+        this(connectionString, 0, 0, 0, 0, null);
+    }
+
+    /**
+     * Constructor to initialize the repository with a JDBC connection string and timeouts.
+     * A timeout of 0 means no timeout.
+     * @param connectionString The JDBC connection string of the database
+     * @param connectTimeoutMillis Timeout of establishing a connection
+     * @param socketTimeoutMillis Timeout of waiting for data from an established connection
+     * @param readTimeoutSeconds Timeout of read statements
+     * @param writeTimeoutSeconds Timeout of write statements
+     * @param queryProfiler The profiler recording executed statements, may be null
+     */
+    public MySqlUserRepository(String connectionString, int connectTimeoutMillis, int socketTimeoutMillis,
+                               int readTimeoutSeconds, int writeTimeoutSeconds, QueryProfiler queryProfiler) {
+        this.connectionString = connectionString;
+        this.connectionProperties.setProperty("connectTimeout", Integer.toString(connectTimeoutMillis));
+        this.connectionProperties.setProperty("socketTimeout", Integer.toString(socketTimeoutMillis));
+        this.readTimeoutSeconds = readTimeoutSeconds;
+        this.writeTimeoutSeconds = writeTimeoutSeconds;
+        this.queryProfiler = queryProfiler;
+        if (queryProfiler != null) {
+            queryProfiler.setExplainer(this::explain);
+        }
+    }
+
+    /**
+     * Establishes a database connection.
+     * @return Connection object to the database
+     * @throws SQLException If a database access error occurs
+     */
+    private Connection getConnection() throws SQLException {
+        AppLogger.info("Connecting to database...");
+        try (Span span = Tracer.startSpan("jdbc.connect")) {
+            try {
+                return DriverManager.getConnection(connectionString, connectionProperties);
+            } catch (SQLException e) {
+                span.error(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Prepares a read statement with the read timeout.
+     * @param connection The connection to prepare the statement on
+     * @param sql The SQL of the statement
+     * @return The prepared statement
+     * @throws SQLException If a database access error occurs
+     */
+    private PreparedStatement prepareRead(Connection connection, String sql) throws SQLException {
+        try (Span span = Tracer.startSpan("jdbc.prepare").tag("db.statement", sql)) {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setQueryTimeout(readTimeoutSeconds);
+            return statement;
+        }
+    }
+
+    /**
+     * Prepares a write statement with the write timeout.
+     * @param connection The connection to prepare the statement on
+     * @param sql The SQL of the statement
+     * @param autoGeneratedKeys Whether generated keys should be returned (Statement.RETURN_GENERATED_KEYS)
+     * @return The prepared statement
+     * @throws SQLException If a database access error occurs
+     */
+    private PreparedStatement prepareWrite(Connection connection, String sql, int autoGeneratedKeys) throws SQLException {
+        try (Span span = Tracer.startSpan("jdbc.prepare").tag("db.statement", sql)) {
+            PreparedStatement statement = connection.prepareStatement(sql, autoGeneratedKeys);
+            statement.setQueryTimeout(writeTimeoutSeconds);
+            return statement;
+        }
+    }
+
+    /**
+     * Executes a query.
+     * @param statement The prepared statement with all parameters set
+     * @param sql The SQL of the statement, for the profiler
+     * @param params The parameters set on the statement, for the profiler
+     * @return The result set of the query
+     * @throws SQLException If a database access error occurs
+     */
+    private ResultSet executeQuery(PreparedStatement statement, String sql, Object... params) throws SQLException {
+        try (Span span = Tracer.startSpan("jdbc.execute")) {
+            long start = System.nanoTime();
+            try {
+                return statement.executeQuery();
+            } catch (SQLException e) {
+                span.error(e);
+                throw e;
+            } finally {
+                profile(sql, params, start);
+            }
+        }
+    }
+
+    /**
+     * Executes an INSERT, UPDATE or DELETE statement.
+     * @param statement The prepared statement with all parameters set
+     * @param sql The SQL of the statement, for the profiler
+     * @param params The parameters set on the statement, for the profiler
+     * @return The number of affected rows
+     * @throws SQLException If a database access error occurs
+     */
+    private int executeUpdate(PreparedStatement statement, String sql, Object... params) throws SQLException {
+        try (Span span = Tracer.startSpan("jdbc.execute")) {
+            long start = System.nanoTime();
+            try {
+                int rows = statement.executeUpdate();
+                span.tag("db.rows", rows);
+                return rows;
+            } catch (SQLException e) {
+                span.error(e);
+                throw e;
+            } finally {
+                profile(sql, params, start);
+            }
+        }
+    }
+
+    private void profile(String sql, Object[] params, long start) {
+        if (queryProfiler != null) {
+            queryProfiler.recordStatement(sql, params, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Retrieves the execution plan of a statement. Called by the QueryProfiler for slow statements.
+     * @param sql The SQL of the statement
+     * @param params The parameters of the statement
+     * @return Rows of the EXPLAIN output as column name to value maps
+     * @throws SQLException If a database access error occurs
+     */
+    private List<Map<String, Object>> explain(String sql, Object[] params) throws SQLException {
+        List<Map<String, Object>> plan = new ArrayList<>();
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+            statement.setQueryTimeout(readTimeoutSeconds);
+            for (int i = 0; i < params.length; i++) {
+                statement.setObject(i + 1, params[i]);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                while (resultSet.next()) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (int column = 1; column <= metaData.getColumnCount(); column++) {
+                        row.put(metaData.getColumnLabel(column), resultSet.getObject(column));
+                    }
+                    plan.add(row);
+                }
+            }
+        }
+        return plan;
+    }
+
+    @Override
+    public void createUser(User user) throws SQLException {
+        if (user.getId() != null) {
+            createUserWithId(user);
+            return;
+        }
+        String sql = "INSERT INTO Users (name, surname, personID, uuid) VALUES (?, ?, ?, ?)";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = prepareWrite(connection, sql, Statement.RETURN_GENERATED_KEYS)) {
+            statement.setString(1, user.getName());
+            statement.setString(2, user.getSurname());
+            statement.setString(3, user.getPersonID());
+            statement.setString(4, user.getUuid().toString());
+            executeUpdate(statement, sql, user.getName(), user.getSurname(), user.getPersonID(), user.getUuid().toString());
+
+            // Retrieve auto-generated ID from the database
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                if (keys.next()) {
+                    user.setId(keys.getLong(1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores a new user with the ID allocated by the caller, e.g. by the ID allocator of the sharded storage.
+     * @param user The user carrying the ID
+     * @throws SQLException If a database access error occurs
+     */
+    private void createUserWithId(User user) throws SQLException {
+        String sql = "INSERT INTO Users (id, name, surname, personID, uuid) VALUES (?, ?, ?, ?, ?)";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = prepareWrite(connection, sql, Statement.NO_GENERATED_KEYS)) {
+            statement.setLong(1, user.getId());
+            statement.setString(2, user.getName());
+            statement.setString(3, user.getSurname());
+            statement.setString(4, user.getPersonID());
+            statement.setString(5, user.getUuid().toString());
+            executeUpdate(statement, sql, user.getId(), user.getName(), user.getSurname(), user.getPersonID(), user.getUuid().toString());
+        }
+    }
+
+    @Override
+    public User getUserByPersonId(String personID) throws SQLException {
+        String sql = "SELECT * FROM Users WHERE personID = ?";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = prepareRead(connection, sql)) {
+            statement.setString(1, personID);
+            try (ResultSet resultSet = executeQuery(statement, sql, personID)) {
+                return mapFirstUser(resultSet);
+            }
+        }
+    }
+
+    @Override
+    public User getUserById(Long id) throws SQLException {
+        String sql = "SELECT * FROM Users WHERE id = ?";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = prepareRead(connection, sql)) {
+            statement.setLong(1, id);
+            try (ResultSet resultSet = executeQuery(statement, sql, id)) {
+                return mapFirstUser(resultSet);
+            }
+        }
+    }
+
+    @Override
+    public User getUserByUuid(UUID uuid) throws SQLException {
+        String sql = "SELECT * FROM Users WHERE uuid = ?";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = prepareRead(connection, sql)) {
+            statement.setString(1, uuid.toString());
+            try (ResultSet resultSet = executeQuery(statement, sql, uuid.toString())) {
+                return mapFirstUser(resultSet);
+            }
+        }
+    }
+
+    /**
+     * Answers the lookup over one connection with IN queries of at most Settings.LOOKUP_CHUNK_SIZE keys.
+     */
+    @Override
+    public List<User> getUsersByKeys(Collection<Long> ids, Collection<UUID> uuids, Collection<String> personIDs) throws SQLException {
+        Map<Long, User> found = new LinkedHashMap<>();
+        if (ids.isEmpty() && uuids.isEmpty() && personIDs.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<String> uuidStrings = new ArrayList<>(uuids.size());
+        for (UUID uuid : uuids) {
+            uuidStrings.add(uuid.toString());
+        }
+        try (Connection connection = getConnection()) {
+            selectIn(connection, "id", new ArrayList<>(ids), found);
+            selectIn(connection, "uuid", uuidStrings, found);
+            selectIn(connection, "personID", new ArrayList<>(personIDs), found);
+        }
+        return new ArrayList<>(found.values());
+    }
+
+    /**
+     * Selects the users whose column value is one of the keys, in chunks.
+     * The number of placeholders is rounded up to a power of two by repeating the last key,
+     * so a few distinct statements serve all list lengths (for the statement cache and the QueryProfiler).
+     * @param connection The connection to query
+     * @param column The column to match
+     * @param keys The keys to match
+     * @param found The found users by ID, filled by this method
+     * @throws SQLException If a database access error occurs
+     */
+    private void selectIn(Connection connection, String column, List<?> keys, Map<Long, User> found) throws SQLException {
+        for (int from = 0; from < keys.size(); from += Settings.LOOKUP_CHUNK_SIZE) {
+            List<?> chunk = keys.subList(from, Math.min(keys.size(), from + Settings.LOOKUP_CHUNK_SIZE));
+            int placeholders = Integer.highestOneBit(Math.max(1, chunk.size() - 1)) << 1;
+            String sql = "SELECT * FROM Users WHERE " + column + " IN (" + "?, ".repeat(placeholders - 1) + "?)";
+            Object[] params = new Object[placeholders];
+            try (PreparedStatement statement = prepareRead(connection, sql)) {
+                for (int i = 0; i < placeholders; i++) {
+                    params[i] = chunk.get(Math.min(i, chunk.size() - 1));
+                    statement.setObject(i + 1, params[i]);
+                }
+                try (ResultSet resultSet = executeQuery(statement, sql, params);
+                     Span span = Tracer.startSpan("jdbc.map")) {
+                    int rows = 0;
+                    while (resultSet.next()) {
+                        User user = mapUser(resultSet);
+                        found.put(user.getId(), user);
+                        rows++;
+                    }
+                    span.tag("db.rows", rows);
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<User> getAllUsers() throws SQLException {
+        List<User> allUsers = new ArrayList<>();
+        String sql = "SELECT * FROM Users ORDER BY id";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = prepareRead(connection, sql);
+             ResultSet resultSet = executeQuery(statement, sql)) {
+            try (Span span = Tracer.startSpan("jdbc.map")) {
+                while (resultSet.next()) {
+                    allUsers.add(mapUser(resultSet));
+                }
+                span.tag("db.rows", allUsers.size());
+            }
+        }
+        return allUsers;
+    }
+
+    @Override
+    public List<UserBasicInfo> getAllUsersSimple() throws SQLException {
+        List<UserBasicInfo> allUsers = new ArrayList<>();
+        String sql = "SELECT id, name, surname FROM Users ORDER BY id";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = prepareRead(connection, sql);
+             ResultSet resultSet = executeQuery(statement, sql)) {
+            try (Span span = Tracer.startSpan("jdbc.map")) {
+                while (resultSet.next()) {
+                    allUsers.add(new UserBasicInfo(
+                            resultSet.getLong("id"),
+                            resultSet.getString("name"),
+                            resultSet.getString("surname")
+                    ));
+                }
+                span.tag("db.rows", allUsers.size());
+            }
+        }
+        return allUsers;
+    }
+
+    @Override
+    public void updateUser(User user) throws SQLException {
+        String sql = "UPDATE Users SET name = ?, surname = ? WHERE id = ?";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = prepareWrite(connection, sql, Statement.NO_GENERATED_KEYS)) {
+            statement.setString(1, user.getName());
+            statement.setString(2, user.getSurname());
+            statement.setLong(3, user.getId());
+            executeUpdate(statement, sql, user.getName(), user.getSurname(), user.getId());
+        }
+    }
+
+    @Override
+    public void deleteUser(Long id) throws SQLException {
+        String sql = "DELETE FROM Users WHERE id = ?";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = prepareWrite(connection, sql, Statement.NO_GENERATED_KEYS)) {
+            statement.setLong(1, id);
+            executeUpdate(statement, sql, id);
+        }
+    }
+
+    /**
+     * Streams all users over a dedicated connection. The driver is switched to row-by-row streaming
+     * (fetch size Integer.MIN_VALUE), so the table is never held in memory and rows arrive while earlier ones are written.
+     * The statement has no timeout, an export of millions of rows takes longer than any read timeout.
+     */
+    @Override
+    public void forEachUser(UserSink sink) throws SQLException, IOException {
+        String sql = "SELECT id, name, surname, personID, uuid FROM Users ORDER BY id";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet resultSet = executeQuery(statement, sql);
+                 Span span = Tracer.startSpan("jdbc.map")) {
+                long rows = 0;
+                while (resultSet.next()) {
+                    sink.accept(mapUser(resultSet));
+                    rows++;
+                }
+                span.tag("db.rows", rows);
+            }
+        }
+    }
+
+    /**
+     * Inserts the users in one transaction. The driver rewrites the batch into multi-row INSERT statements
+     * (rewriteBatchedStatements), so a batch of thousands of users costs a few round trips.
+     * Batches are not recorded by the QueryProfiler, they would flood the slow query log.
+     */
+    @Override
+    public void importUsers(List<User> users) throws SQLException {
+        String sql = "INSERT INTO Users (id, name, surname, personID, uuid) VALUES (?, ?, ?, ?, ?)";
+        Properties batchProperties = new Properties();
+        batchProperties.putAll(connectionProperties);
+        batchProperties.setProperty("rewriteBatchedStatements", "true");
+        try (Connection connection = DriverManager.getConnection(connectionString, batchProperties)) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = prepareWrite(connection, sql, Statement.NO_GENERATED_KEYS);
+                 Span span = Tracer.startSpan("jdbc.execute").tag("db.statement", sql)) {
+                for (User user : users) {
+                    statement.setLong(1, user.getId());
+                    statement.setString(2, user.getName());
+                    statement.setString(3, user.getSurname());
+                    statement.setString(4, user.getPersonID());
+                    statement.setString(5, user.getUuid().toString());
+                    statement.addBatch();
+                }
+                try {
+                    statement.executeBatch();
+                    connection.commit();
+                    span.tag("db.rows", users.size());
+                } catch (SQLException e) {
+                    span.error(e);
+                    connection.rollback();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the first row of a result set to a User object.
+     * @param resultSet The result set of a query on the Users table
+     * @return The mapped User object, or null if the result set is empty
+     * @throws SQLException If a row cannot be read
+     */
+    private User mapFirstUser(ResultSet resultSet) throws SQLException {
+        try (Span span = Tracer.startSpan("jdbc.map")) {
+            return resultSet.next() ? mapUser(resultSet) : null;
+        }
+    }
+
+    /**
+     * Maps the current row of a result set to a User object.
+     * @param resultSet The result set positioned on a row of the Users table
+     * @return The mapped User object
+     * @throws SQLException If a column cannot be read
+     */
+    private User mapUser(ResultSet resultSet) throws SQLException {
+        return new User(
+                resultSet.getLong("id"),
+                resultSet.getString("name"),
+                resultSet.getString("surname"),
+                resultSet.getString("personID"),
+                resultSet.getString("uuid")
+        );
+    }
+}
@@ -0,0 +1,426 @@
+package cz.engeto.ja.genesisResources.repository;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.model.UserBasicInfo;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.CircuitBreaker;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserRepository decorator isolating the application from database outages.
+ *
+ * Calls go through a circuit breaker, so an unreachable database fails fast with a
+ * DatabaseUnavailableException instead of blocking every request for the connect timeout.
+ * Reads and writes have separate bulkheads (semaphores), so slow writes cannot take all
+ * threads from reads and the other way round. Users read recently are kept in a bounded
+ * cache that serves reads while the database is unreachable (open circuit breaker or connection error),
+ * but not when it is merely busy; such reads may be stale and are marked with StaleReads.
+ */
+public class ResilientUserRepository implements UserRepository {
+
+    /**
+     * A call to the decorated repository.
+     * @param <T> Type of the result
+     */
+    @FunctionalInterface
+    private interface DatabaseCall<T> {
+        T call() throws SQLException;
+    }
+
+    private final UserRepository delegate;
+    private final CircuitBreaker circuitBreaker;
+    private final Semaphore readBulkhead;
+    private final Semaphore writeBulkhead;
+    private final long bulkheadWaitMillis;
+    private final RecentUsers recentUsers; // null when serving stale reads is disabled
+
+    /**
+     * Constructor for ResilientUserRepository.
+     * @param delegate The repository accessing the database
+     * @param circuitBreaker The circuit breaker of the database
+     * @param readConcurrency Maximum number of concurrent reads
+     * @param writeConcurrency Maximum number of concurrent writes
+     * @param bulkheadWaitMillis Maximum time a call waits for a free slot in its bulkhead
+     * @param fallbackCacheSize Number of recently read users kept for reads during outages, 0 to disable
+     */
+    public ResilientUserRepository(UserRepository delegate, CircuitBreaker circuitBreaker, int readConcurrency, int writeConcurrency,
+                                   long bulkheadWaitMillis, int fallbackCacheSize) {
+        this.delegate = delegate;
+        this.circuitBreaker = circuitBreaker;
+        this.readBulkhead = new Semaphore(readConcurrency);
+        this.writeBulkhead = new Semaphore(writeConcurrency);
+        this.bulkheadWaitMillis = bulkheadWaitMillis;
+        this.recentUsers = fallbackCacheSize > 0 ? new RecentUsers(fallbackCacheSize) : null;
+    }
+
+    @Override
+    public void createUser(User user) throws SQLException {
+        write(() -> {
+            delegate.createUser(user);
+            return null;
+        });
+        if (recentUsers != null) {
+            recentUsers.invalidateLists();
+        }
+    }
+
+    @Override
+    public User getUserByPersonId(String personID) throws SQLException {
+        return read(() -> remember(delegate.getUserByPersonId(personID)),
+                () -> recentUsers.getByPersonId(personID));
+    }
+
+    @Override
+    public User getUserById(Long id) throws SQLException {
+        return read(() -> remember(delegate.getUserById(id)),
+                () -> recentUsers.getById(id));
+    }
+
+    @Override
+    public User getUserByUuid(UUID uuid) throws SQLException {
+        return read(() -> remember(delegate.getUserByUuid(uuid)),
+                () -> recentUsers.getByUuid(uuid));
+    }
+
+    @Override
+    public List<User> getUsersByKeys(Collection<Long> ids, Collection<UUID> uuids, Collection<String> personIDs) throws SQLException {
+        return read(() -> {
+            List<User> users = delegate.getUsersByKeys(ids, uuids, personIDs);
+            for (User user : users) {
+                remember(user);
+            }
+            return users;
+        }, () -> recentUsers.getByKeys(ids, uuids, personIDs));
+    }
+
+    @Override
+    public List<User> getAllUsers() throws SQLException {
+        return read(() -> {
+            List<User> users = delegate.getAllUsers();
+            if (recentUsers != null) {
+                recentUsers.putAll(users);
+            }
+            return users;
+        }, () -> recentUsers.getAllUsers());
+    }
+
+    @Override
+    public List<UserBasicInfo> getAllUsersSimple() throws SQLException {
+        return read(() -> {
+            List<UserBasicInfo> users = delegate.getAllUsersSimple();
+            if (recentUsers != null) {
+                recentUsers.setAllUsersSimple(users);
+            }
+            return users;
+        }, () -> recentUsers.getAllUsersSimple());
+    }
+
+    @Override
+    public void updateUser(User user) throws SQLException {
+        write(() -> {
+            delegate.updateUser(user);
+            return null;
+        });
+        forget(user.getId());
+    }
+
+    @Override
+    public void deleteUser(Long id) throws SQLException {
+        write(() -> {
+            delegate.deleteUser(id);
+            return null;
+        });
+        forget(id);
+    }
+
+    /**
+     * Streams all users straight from the decorated repository. Bulk exports and imports run from the command line,
+     * bring their own parallelism and would hold bulkhead slots for minutes, so they bypass the bulkheads and the circuit breaker.
+     */
+    @Override
+    public void forEachUser(UserSink sink) throws SQLException, IOException {
+        delegate.forEachUser(sink);
+    }
+
+    @Override
+    public void importUsers(List<User> users) throws SQLException {
+        delegate.importUsers(users);
+        if (recentUsers != null) {
+            recentUsers.invalidateLists();
+        }
+    }
+
+    /**
+     * Tells whether calls are attempted, so callers choosing between several databases can avoid one that is down.
+     * @return false while the circuit breaker rejects calls
+     */
+    public boolean isAvailable() {
+        return !circuitBreaker.isRejecting();
+    }
+
+    /**
+     * Retrieves the state of the circuit breaker and the bulkheads.
+     * @return Map with the metrics
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("circuitBreaker", circuitBreaker.getMetrics());
+        metrics.put("readsAvailable", readBulkhead.availablePermits());
+        metrics.put("writesAvailable", writeBulkhead.availablePermits());
+        metrics.put("fallbackCacheSize", recentUsers == null ? 0 : recentUsers.size());
+        return metrics;
+    }
+
+    /**
+     * Runs a read, falling back to the recently read users when the database is unreachable.
+     * @param call The read against the database
+     * @param fallback The read against the cache, returning null on a cache miss
+     * @return The result of the read
+     * @throws SQLException If the read fails and cannot be served from the cache
+     */
+    private <T> T read(DatabaseCall<T> call, DatabaseCall<T> fallback) throws SQLException {
+        try {
+            return execute(readBulkhead, call);
+        } catch (SQLException e) {
+            if (recentUsers == null || !isUnreachable(e)) {
+                throw e;
+            }
+            T cached = fallback.call();
+            if (cached == null) {
+                throw e; // A cache miss must not be reported as "not found"
+            }
+            AppLogger.warn("Database unavailable, serving cached data: " + e.getMessage());
+            StaleReads.markServed();
+            return cached;
+        }
+    }
+
+    private <T> T write(DatabaseCall<T> call) throws SQLException {
+        return execute(writeBulkhead, call);
+    }
+
+    /**
+     * Runs a call within a bulkhead and the circuit breaker.
+     * @param bulkhead The bulkhead of the call
+     * @param call The call to run
+     * @return The result of the call
+     * @throws SQLException If the call fails or is rejected
+     */
+    private <T> T execute(Semaphore bulkhead, DatabaseCall<T> call) throws SQLException {
+        try {
+            if (!bulkhead.tryAcquire(bulkheadWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new DatabaseUnavailableException("Too many concurrent database calls", true);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseUnavailableException("Interrupted while waiting for the database", true);
+        }
+        try {
+            if (!circuitBreaker.tryAcquire()) {
+                throw new DatabaseUnavailableException("Database is unavailable (circuit breaker open)");
+            }
+            try {
+                T result = call.call();
+                circuitBreaker.onSuccess();
+                return result;
+            } catch (SQLException e) {
+                if (isOutage(e)) {
+                    circuitBreaker.onFailure();
+                } else {
+                    circuitBreaker.onSuccess(); // The database answered, e.g. with a constraint violation
+                }
+                throw e;
+            } catch (RuntimeException e) {
+                circuitBreaker.onFailure();
+                throw e;
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Decides whether an error means the database is unreachable or overloaded, as opposed to a rejected statement.
+     * @param e The error of a database call
+     * @return true for connection errors, timeouts and other transient errors
+     */
+    public static boolean isOutage(SQLException e) {
+        String sqlState = e.getSQLState();
+        return e instanceof SQLTransientException || e instanceof SQLRecoverableException
+                || (sqlState != null && sqlState.startsWith("08")); // SQLSTATE class 08: connection exception
+    }
+
+    /**
+     * Decides whether an error means the database cannot be reached, so that serving cached data is better than failing.
+     * A full bulkhead or a slow query are not reasons to serve stale data.
+     * @param e The error of a database call
+     * @return true if the circuit breaker is open or the connection failed
+     */
+    private static boolean isUnreachable(SQLException e) {
+        if (e instanceof DatabaseUnavailableException unavailable) {
+            return !unavailable.isOverloaded();
+        }
+        String sqlState = e.getSQLState();
+        return e instanceof SQLTransientConnectionException || e instanceof SQLRecoverableException
+                || (sqlState != null && sqlState.startsWith("08"));
+    }
+
+    private User remember(User user) {
+        if (user != null && recentUsers != null) {
+            recentUsers.put(user);
+        }
+        return user;
+    }
+
+    private void forget(Long id) {
+        if (recentUsers != null) {
+            recentUsers.remove(id);
+        }
+    }
+
+    /**
+     * Bounded LRU cache of recently read users with lookups by id, uuid and personID.
+     * Cached users are copied on the way in and out, so callers cannot modify them.
+     */
+    private static class RecentUsers {
+        private final int capacity;
+        private final LinkedHashMap<Long, User> usersById;
+        private final Map<UUID, Long> idsByUuid = new HashMap<>();
+        private final Map<String, Long> idsByPersonId = new HashMap<>();
+        private List<UserBasicInfo> allUsersSimple;
+        private boolean allUsersCached;
+
+        RecentUsers(int capacity) {
+            this.capacity = capacity;
+            this.usersById = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, User> eldest) {
+                    if (size() <= RecentUsers.this.capacity) {
+                        return false;
+                    }
+                    idsByUuid.remove(eldest.getValue().getUuid());
+                    idsByPersonId.remove(eldest.getValue().getPersonID());
+                    allUsersCached = false;
+                    return true;
+                }
+            };
+        }
+
+        synchronized void put(User user) {
+            User copy = new User(user);
+            usersById.put(copy.getId(), copy);
+            idsByUuid.put(copy.getUuid(), copy.getId());
+            idsByPersonId.put(copy.getPersonID(), copy.getId());
+        }
+
+        synchronized void putAll(List<User> users) {
+            usersById.clear();
+            idsByUuid.clear();
+            idsByPersonId.clear();
+            for (User user : users) {
+                put(user);
+            }
+            allUsersCached = users.size() <= capacity;
+        }
+
+        synchronized void setAllUsersSimple(List<UserBasicInfo> users) {
+            allUsersSimple = users.size() <= capacity ? new ArrayList<>(users) : null;
+        }
+
+        synchronized void remove(Long id) {
+            User removed = usersById.remove(id);
+            if (removed != null) {
+                idsByUuid.remove(removed.getUuid());
+                idsByPersonId.remove(removed.getPersonID());
+            }
+            invalidateLists();
+        }
+
+        synchronized void invalidateLists() {
+            allUsersCached = false;
+            allUsersSimple = null;
+        }
+
+        synchronized User getById(Long id) {
+            User user = usersById.get(id);
+            return user == null ? null : new User(user);
+        }
+
+        synchronized User getByUuid(UUID uuid) {
+            Long id = idsByUuid.get(uuid);
+            return id == null ? null : getById(id);
+        }
+
+        synchronized User getByPersonId(String personID) {
+            Long id = idsByPersonId.get(personID);
+            return id == null ? null : getById(id);
+        }
+
+        /**
+         * Looks up users by many keys. A key missing in the cache can only be reported as not found
+         * when the whole table is cached, otherwise the lookup is a cache miss.
+         * @return The found users, or null on a cache miss
+         */
+        synchronized List<User> getByKeys(Collection<Long> ids, Collection<UUID> uuids, Collection<String> personIDs) {
+            Map<Long, User> found = new LinkedHashMap<>();
+            for (Long id : ids) {
+                if (!collect(getById(id), found)) {
+                    return null;
+                }
+            }
+            for (UUID uuid : uuids) {
+                if (!collect(getByUuid(uuid), found)) {
+                    return null;
+                }
+            }
+            for (String personID : personIDs) {
+                if (!collect(getByPersonId(personID), found)) {
+                    return null;
+                }
+            }
+            return new ArrayList<>(found.values());
+        }
+
+        private boolean collect(User user, Map<Long, User> found) {
+            if (user != null) {
+                found.put(user.getId(), user);
+                return true;
+            }
+            return allUsersCached;
+        }
+
+        synchronized List<User> getAllUsers() {
+            if (!allUsersCached) {
+                return null;
+            }
+            List<User> users = new ArrayList<>(usersById.size());
+            for (User user : usersById.values()) {
+                users.add(new User(user));
+            }
+            users.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+            return users;
+        }
+
+        synchronized List<UserBasicInfo> getAllUsersSimple() {
+            return allUsersSimple == null ? null : new ArrayList<>(allUsersSimple);
+        }
+
+        synchronized int size() {
+            return usersById.size();
+        }
+    }
+}
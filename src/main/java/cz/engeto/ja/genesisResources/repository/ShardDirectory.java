@@ -0,0 +1,330 @@
+package cz.engeto.ja.genesisResources.repository;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.tracing.Span;
+import cz.engeto.ja.genesisResources.tracing.Tracer;
+import cz.engeto.ja.genesisResources.util.CircuitBreaker;
+import cz.engeto.ja.genesisResources.util.Settings;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Global part of the sharded user storage, kept in one MySQL database (see extraFiles/shardedDatabase.txt).
+ *
+ * The UserDirectory table maps personID and uuid to the ID of every user. Since the shard of a user follows from
+ * its ID, the directory routes lookups by the other keys, and its unique keys keep personIDs and UUIDs unique across
+ * all shards. The ShardIdBlocks table is the sequence of ID blocks per shard, it replaces AUTO_INCREMENT,
+ * which is only unique within one shard. Calls go through a circuit breaker like the shards themselves.
+ */
+public class ShardDirectory {
+
+    /**
+     * A call to the directory database.
+     * @param <T> Type of the result
+     */
+    @FunctionalInterface
+    private interface DirectoryCall<T> {
+        T call(Connection connection) throws SQLException;
+    }
+
+    private final String connectionString;
+    private final Properties connectionProperties = new Properties();
+    private final int readTimeoutSeconds;
+    private final int writeTimeoutSeconds;
+    private final CircuitBreaker circuitBreaker;
+    private final int shardCount;
+    private final int rangeSize;
+
+    /**
+     * Constructor for ShardDirectory.
+     * @param connectionString The JDBC connection string of the directory database
+     * @param connectTimeoutMillis Timeout of establishing a connection
+     * @param socketTimeoutMillis Timeout of waiting for data from an established connection
+     * @param readTimeoutSeconds Timeout of read statements
+     * @param writeTimeoutSeconds Timeout of write statements
+     * @param circuitBreaker The circuit breaker of the directory database
+     * @param shardCount Number of shards, must match the ShardIdBlocks table
+     * @param rangeSize Number of IDs in a block, must match the ShardIdBlocks table
+     */
+    public ShardDirectory(String connectionString, int connectTimeoutMillis, int socketTimeoutMillis, int readTimeoutSeconds,
+                          int writeTimeoutSeconds, CircuitBreaker circuitBreaker, int shardCount, int rangeSize) {
+        this.connectionString = connectionString;
+        this.connectionProperties.setProperty("connectTimeout", Integer.toString(connectTimeoutMillis));
+        this.connectionProperties.setProperty("socketTimeout", Integer.toString(socketTimeoutMillis));
+        this.connectionProperties.setProperty("rewriteBatchedStatements", "true");
+        this.readTimeoutSeconds = readTimeoutSeconds;
+        this.writeTimeoutSeconds = writeTimeoutSeconds;
+        this.circuitBreaker = circuitBreaker;
+        this.shardCount = shardCount;
+        this.rangeSize = rangeSize;
+    }
+
+    /**
+     * Reserves the next block of IDs stored on a shard. Blocks are dealt out to the shards in turn,
+     * round r of shard s is block r * shardCount + s.
+     * @param shard The index of the shard
+     * @return Number of the reserved block
+     * @throws SQLException If the block cannot be reserved, or the table was created for another layout of shards
+     */
+    public long reserveBlock(int shard) throws SQLException {
+        String sql = "UPDATE ShardIdBlocks SET nextRound = LAST_INSERT_ID(nextRound + 1) WHERE shard = ? AND shards = ? AND rangeSize = ?";
+        return execute(connection -> {
+            try (PreparedStatement statement = prepare(connection, sql, writeTimeoutSeconds)) {
+                statement.setInt(1, shard);
+                statement.setInt(2, shardCount);
+                statement.setInt(3, rangeSize);
+                if (executeUpdate(statement, sql) != 1) {
+                    throw new SQLException("No ID blocks for shard " + shard + " of " + shardCount + " with ranges of " + rangeSize
+                            + " IDs, the shard layout does not match the ShardIdBlocks table");
+                }
+            }
+            try (PreparedStatement statement = connection.prepareStatement("SELECT LAST_INSERT_ID()");
+                 ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                long round = resultSet.getLong(1) - 1;
+                return round * shardCount + shard;
+            }
+        });
+    }
+
+    /**
+     * Moves the ID sequences past imported IDs, so allocated IDs never collide with them.
+     * @param nextRounds First round still free per shard index
+     * @throws SQLException If a database access error occurs
+     */
+    public void advanceRounds(Map<Integer, Long> nextRounds) throws SQLException {
+        String sql = "UPDATE ShardIdBlocks SET nextRound = GREATEST(nextRound, ?) WHERE shard = ?";
+        execute(connection -> {
+            try (PreparedStatement statement = prepare(connection, sql, writeTimeoutSeconds)) {
+                for (Map.Entry<Integer, Long> entry : nextRounds.entrySet()) {
+                    statement.setLong(1, entry.getValue());
+                    statement.setInt(2, entry.getKey());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Adds a user to the directory.
+     * @param user The user carrying its ID
+     * @throws SQLException If a database access error occurs, or the ID, personID or UUID is already used
+     */
+    public void register(User user) throws SQLException {
+        registerAll(List.of(user));
+    }
+
+    /**
+     * Adds users to the directory in one transaction.
+     * @param users The users carrying their IDs
+     * @throws SQLException If a database access error occurs, or an ID, personID or UUID is already used
+     */
+    public void registerAll(List<User> users) throws SQLException {
+        String sql = "INSERT INTO UserDirectory (id, personID, uuid) VALUES (?, ?, ?)";
+        execute(connection -> {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = prepare(connection, sql, writeTimeoutSeconds)) {
+                for (User user : users) {
+                    statement.setLong(1, user.getId());
+                    statement.setString(2, user.getPersonID());
+                    statement.setString(3, user.getUuid().toString());
+                    statement.addBatch();
+                }
+                executeBatch(statement, sql, users.size());
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Removes users from the directory.
+     * @param ids The IDs of the users
+     * @throws SQLException If a database access error occurs
+     */
+    public void unregisterAll(Collection<Long> ids) throws SQLException {
+        String sql = "DELETE FROM UserDirectory WHERE id = ?";
+        execute(connection -> {
+            try (PreparedStatement statement = prepare(connection, sql, writeTimeoutSeconds)) {
+                for (Long id : ids) {
+                    statement.setLong(1, id);
+                    statement.addBatch();
+                }
+                executeBatch(statement, sql, ids.size());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Retrieves the ID of the user with a personID.
+     * @param personID The personID of the user
+     * @return The ID, or null if no user has the personID
+     * @throws SQLException If a database access error occurs
+     */
+    public Long findIdByPersonId(String personID) throws SQLException {
+        return findId("personID", personID);
+    }
+
+    /**
+     * Retrieves the ID of the user with a UUID.
+     * @param uuid The UUID of the user
+     * @return The ID, or null if no user has the UUID
+     * @throws SQLException If a database access error occurs
+     */
+    public Long findIdByUuid(UUID uuid) throws SQLException {
+        return findId("uuid", uuid.toString());
+    }
+
+    /**
+     * Retrieves the IDs of the users with any of the given UUIDs and personIDs, over one connection.
+     * @param uuids The UUIDs to look up
+     * @param personIDs The personIDs to look up
+     * @return The found IDs, each once
+     * @throws SQLException If a database access error occurs
+     */
+    public Set<Long> findIds(Collection<UUID> uuids, Collection<String> personIDs) throws SQLException {
+        List<String> uuidStrings = new ArrayList<>(uuids.size());
+        for (UUID uuid : uuids) {
+            uuidStrings.add(uuid.toString());
+        }
+        return execute(connection -> {
+            Set<Long> ids = new LinkedHashSet<>();
+            selectIdsIn(connection, "uuid", uuidStrings, ids);
+            selectIdsIn(connection, "personID", new ArrayList<>(personIDs), ids);
+            return ids;
+        });
+    }
+
+    /**
+     * Retrieves the state of the circuit breaker of the directory database.
+     * @return Map with the metrics
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("circuitBreaker", circuitBreaker.getMetrics());
+        return metrics;
+    }
+
+    private Long findId(String column, String key) throws SQLException {
+        String sql = "SELECT id FROM UserDirectory WHERE " + column + " = ?";
+        return execute(connection -> {
+            try (PreparedStatement statement = prepare(connection, sql, readTimeoutSeconds)) {
+                statement.setString(1, key);
+                try (ResultSet resultSet = executeQuery(statement, sql)) {
+                    return resultSet.next() ? resultSet.getLong(1) : null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Selects the IDs of the users whose column value is one of the keys, in chunks of Settings.LOOKUP_CHUNK_SIZE.
+     * @param connection The connection to query
+     * @param column The column to match
+     * @param keys The keys to match
+     * @param ids The found IDs, filled by this method
+     * @throws SQLException If a database access error occurs
+     */
+    private void selectIdsIn(Connection connection, String column, List<String> keys, Set<Long> ids) throws SQLException {
+        for (int from = 0; from < keys.size(); from += Settings.LOOKUP_CHUNK_SIZE) {
+            List<String> chunk = keys.subList(from, Math.min(keys.size(), from + Settings.LOOKUP_CHUNK_SIZE));
+            String sql = "SELECT id FROM UserDirectory WHERE " + column + " IN (" + "?, ".repeat(chunk.size() - 1) + "?)";
+            try (PreparedStatement statement = prepare(connection, sql, readTimeoutSeconds)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setString(i + 1, chunk.get(i));
+                }
+                try (ResultSet resultSet = executeQuery(statement, sql)) {
+                    while (resultSet.next()) {
+                        ids.add(resultSet.getLong(1));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a call on a new connection within the circuit breaker.
+     * @param call The call to run
+     * @return The result of the call
+     * @throws SQLException If the call fails or is rejected
+     */
+    private <T> T execute(DirectoryCall<T> call) throws SQLException {
+        if (!circuitBreaker.tryAcquire()) {
+            throw new DatabaseUnavailableException("Shard directory is unavailable (circuit breaker open)");
+        }
+        try (Connection connection = DriverManager.getConnection(connectionString, connectionProperties)) {
+            T result = call.call(connection);
+            circuitBreaker.onSuccess();
+            return result;
+        } catch (SQLException e) {
+            if (ResilientUserRepository.isOutage(e)) {
+                circuitBreaker.onFailure();
+            } else {
+                circuitBreaker.onSuccess(); // The database answered, e.g. with a duplicate key
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            circuitBreaker.onFailure();
+            throw e;
+        }
+    }
+
+    private PreparedStatement prepare(Connection connection, String sql, int timeoutSeconds) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        statement.setQueryTimeout(timeoutSeconds);
+        return statement;
+    }
+
+    private ResultSet executeQuery(PreparedStatement statement, String sql) throws SQLException {
+        try (Span span = Tracer.startSpan("jdbc.execute").tag("db.statement", sql)) {
+            try {
+                return statement.executeQuery();
+            } catch (SQLException e) {
+                span.error(e);
+                throw e;
+            }
+        }
+    }
+
+    private int executeUpdate(PreparedStatement statement, String sql) throws SQLException {
+        try (Span span = Tracer.startSpan("jdbc.execute").tag("db.statement", sql)) {
+            try {
+                return statement.executeUpdate();
+            } catch (SQLException e) {
+                span.error(e);
+                throw e;
+            }
+        }
+    }
+
+    private void executeBatch(PreparedStatement statement, String sql, int rows) throws SQLException {
+        try (Span span = Tracer.startSpan("jdbc.execute").tag("db.statement", sql)) {
+            try {
+                statement.executeBatch();
+                span.tag("db.rows", rows);
+            } catch (SQLException e) {
+                span.error(e);
+                throw e;
+            }
+        }
+    }
+}
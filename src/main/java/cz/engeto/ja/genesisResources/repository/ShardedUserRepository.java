@@ -0,0 +1,542 @@
+package cz.engeto.ja.genesisResources.repository;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.model.UserBasicInfo;
+import cz.engeto.ja.genesisResources.tracing.Span;
+import cz.engeto.ja.genesisResources.tracing.Tracer;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.HiLoIdAllocator;
+import cz.engeto.ja.genesisResources.util.Settings;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+/**
+ * UserRepository spreading users over several databases (shards) by ranges of their IDs.
+ *
+ * IDs are grouped into ranges of Settings.SHARD_RANGE_SIZE, range b is stored on shard b % shardCount, so the shard
+ * of a user follows from its ID alone. Users with a personID or uuid are found through the ShardDirectory, which also
+ * keeps those keys unique across the shards. New IDs are allocated per shard by the hi/lo scheme from the ranges
+ * of that shard, and new users are dealt out to the shards in turn, skipping shards that are down.
+ * Reads of all users query the shards in parallel and merge their results by ID.
+ *
+ * A user is written to the directory and to its shard in two steps, not in a distributed transaction. A failed second
+ * step is compensated; when the compensation fails too, the directory keeps an entry without a user, which reads treat
+ * as not found and which keeps its personID reserved until the user is deleted again.
+ */
+public class ShardedUserRepository implements UserRepository {
+
+    /**
+     * A call to one shard.
+     * @param <T> Type of the result
+     */
+    @FunctionalInterface
+    private interface ShardCall<T> {
+        T call(int shard) throws SQLException;
+    }
+
+    private final List<UserRepository> shards;
+    private final ShardDirectory directory;
+    private final long rangeSize;
+    private final List<HiLoIdAllocator> allocators = new ArrayList<>();
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Constructor for ShardedUserRepository.
+     * @param shards The repositories of the shards, in the order of the data layout
+     * @param directory The directory of the shards
+     * @param rangeSize Number of consecutive IDs stored on the same shard
+     * @param queryThreads Number of threads querying the shards in parallel, at least one per shard is used
+     */
+    public ShardedUserRepository(List<UserRepository> shards, ShardDirectory directory, int rangeSize, int queryThreads) {
+        this.shards = List.copyOf(shards);
+        this.directory = directory;
+        this.rangeSize = rangeSize;
+        for (int i = 0; i < shards.size(); i++) {
+            int shard = i;
+            allocators.add(new HiLoIdAllocator(() -> directory.reserveBlock(shard), rangeSize));
+        }
+        // Streams of a bulk export hold a thread per shard until the end, fewer threads would deadlock the merge
+        int threads = Math.max(queryThreads, shards.size());
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "shard-query-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Retrieves the shard storing a user.
+     * @param id The ID of the user
+     * @return The index of the shard, or -1 for IDs that cannot exist
+     */
+    public int shardOf(long id) {
+        if (id < 1) {
+            return -1;
+        }
+        return (int) (((id - 1) / rangeSize) % shards.size());
+    }
+
+    /**
+     * Allocates the ID on the next available shard, registers the user in the directory and stores it on the shard.
+     */
+    @Override
+    public void createUser(User user) throws SQLException {
+        int shard = pickShard();
+        long id = allocators.get(shard).nextId();
+        user.setId(id);
+        try {
+            directory.register(user);
+        } catch (SQLException | RuntimeException e) {
+            user.setId(null);
+            throw e;
+        }
+        try {
+            shards.get(shard).createUser(user);
+        } catch (SQLException | RuntimeException e) {
+            user.setId(null);
+            unregisterAfterFailure(List.of(id), e);
+            throw e;
+        }
+    }
+
+    @Override
+    public User getUserByPersonId(String personID) throws SQLException {
+        Long id = directory.findIdByPersonId(personID);
+        if (id == null) {
+            return null;
+        }
+        User user = getUserById(id);
+        return user != null && personID.equals(user.getPersonID()) ? user : null;
+    }
+
+    @Override
+    public User getUserById(Long id) throws SQLException {
+        int shard = shardOf(id);
+        return shard < 0 ? null : shards.get(shard).getUserById(id);
+    }
+
+    @Override
+    public User getUserByUuid(UUID uuid) throws SQLException {
+        Long id = directory.findIdByUuid(uuid);
+        if (id == null) {
+            return null;
+        }
+        User user = getUserById(id);
+        return user != null && uuid.equals(user.getUuid()) ? user : null;
+    }
+
+    /**
+     * Resolves UUIDs and personIDs to IDs in one directory query, then queries the shards holding any of the IDs in parallel.
+     */
+    @Override
+    public List<User> getUsersByKeys(Collection<Long> ids, Collection<UUID> uuids, Collection<String> personIDs) throws SQLException {
+        Set<Long> allIds = new LinkedHashSet<>(ids);
+        if (!uuids.isEmpty() || !personIDs.isEmpty()) {
+            allIds.addAll(directory.findIds(uuids, personIDs));
+        }
+        Map<Integer, List<Long>> idsByShard = new TreeMap<>();
+        for (Long id : allIds) {
+            int shard = shardOf(id);
+            if (shard >= 0) {
+                idsByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(id);
+            }
+        }
+        List<User> found = new ArrayList<>();
+        for (List<User> users : scatter(idsByShard.keySet(), shard -> shards.get(shard).getUsersByKeys(idsByShard.get(shard), List.of(), List.of()))) {
+            found.addAll(users);
+        }
+        return found;
+    }
+
+    @Override
+    public List<User> getAllUsers() throws SQLException {
+        return merge(scatter(allShards(), shard -> shards.get(shard).getAllUsers()), User::getId);
+    }
+
+    @Override
+    public List<UserBasicInfo> getAllUsersSimple() throws SQLException {
+        return merge(scatter(allShards(), shard -> shards.get(shard).getAllUsersSimple()), UserBasicInfo::getId);
+    }
+
+    @Override
+    public void updateUser(User user) throws SQLException {
+        int shard = shardOf(user.getId());
+        if (shard >= 0) {
+            shards.get(shard).updateUser(user);
+        }
+    }
+
+    /**
+     * Deletes the user from its shard first, so a failure leaves at most a directory entry without a user.
+     * Deleting again removes the entry.
+     */
+    @Override
+    public void deleteUser(Long id) throws SQLException {
+        int shard = shardOf(id);
+        if (shard < 0) {
+            return;
+        }
+        shards.get(shard).deleteUser(id);
+        directory.unregisterAll(List.of(id));
+    }
+
+    /**
+     * Streams the users of all shards in parallel and merges the streams by ID, so the export is ordered
+     * and holds at most Settings.SHARD_STREAM_BUFFER users per shard in memory.
+     */
+    @Override
+    public void forEachUser(UserSink sink) throws SQLException, IOException {
+        List<ShardStream> streams = new ArrayList<>(shards.size());
+        List<Future<?>> producers = new ArrayList<>(shards.size());
+        for (UserRepository shard : shards) {
+            ShardStream stream = new ShardStream();
+            streams.add(stream);
+            producers.add(executor.submit(() -> stream.produce(shard)));
+        }
+        try {
+            PriorityQueue<ShardStream> heads = new PriorityQueue<>(Comparator.comparingLong((ShardStream stream) -> stream.head.getId()));
+            for (ShardStream stream : streams) {
+                if (stream.advance()) {
+                    heads.add(stream);
+                }
+            }
+            ShardStream stream;
+            while ((stream = heads.poll()) != null) {
+                sink.accept(stream.head);
+                if (stream.advance()) {
+                    heads.add(stream);
+                }
+            }
+        } finally {
+            for (Future<?> producer : producers) {
+                producer.cancel(true); // Stops the streams still running after a failure
+            }
+        }
+    }
+
+    /**
+     * Stores the users on their shards by their IDs. The ID sequences are moved past the imported IDs and the users
+     * are registered in the directory first, so duplicates are rejected before any shard is written.
+     * When a shard fails, the users already stored on other shards are deleted again.
+     */
+    @Override
+    public void importUsers(List<User> users) throws SQLException {
+        Map<Integer, List<User>> usersByShard = new TreeMap<>();
+        Map<Integer, Long> nextRounds = new HashMap<>();
+        for (User user : users) {
+            int shard = shardOf(user.getId());
+            if (shard < 0) {
+                throw new SQLException("Invalid ID " + user.getId() + " of user " + user.getPersonID());
+            }
+            usersByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(user);
+            long round = (user.getId() - 1) / rangeSize / shards.size();
+            nextRounds.merge(shard, round + 1, Math::max);
+        }
+        if (users.isEmpty()) {
+            return;
+        }
+        directory.advanceRounds(nextRounds);
+        directory.registerAll(users);
+        Set<Integer> stored = ConcurrentHashMap.newKeySet();
+        try {
+            scatter(usersByShard.keySet(), shard -> {
+                shards.get(shard).importUsers(usersByShard.get(shard));
+                stored.add(shard);
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            for (int shard : stored) {
+                for (User user : usersByShard.get(shard)) {
+                    try {
+                        shards.get(shard).deleteUser(user.getId());
+                    } catch (SQLException deleteError) {
+                        AppLogger.error("Failed to remove imported user " + user.getId() + " from shard " + shard + ": " + deleteError.getMessage());
+                    }
+                }
+            }
+            List<Long> ids = new ArrayList<>(users.size());
+            for (User user : users) {
+                ids.add(user.getId());
+            }
+            unregisterAfterFailure(ids, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the query threads and closes the shards.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (UserRepository shard : shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Retrieves the state of the shards and the directory.
+     * @return Map with the metrics of every shard and of the directory
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        List<Map<String, Object>> shardMetrics = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            Map<String, Object> shard = new LinkedHashMap<>();
+            shard.put("shard", i);
+            if (shards.get(i) instanceof ResilientUserRepository resilientUserRepository) {
+                shard.putAll(resilientUserRepository.getMetrics());
+            }
+            shard.put("idAllocator", allocators.get(i).getMetrics());
+            shardMetrics.add(shard);
+        }
+        metrics.put("shards", shardMetrics);
+        metrics.put("directory", directory.getMetrics());
+        metrics.put("queryThreadsActive", executor.getActiveCount());
+        return metrics;
+    }
+
+    /**
+     * Picks the shard of a new user: the shards take turns, shards that are down are skipped while any other is available.
+     * @return The index of the shard
+     */
+    private int pickShard() {
+        int first = Math.floorMod(nextShard.getAndIncrement(), shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            int shard = (first + i) % shards.size();
+            if (!(shards.get(shard) instanceof ResilientUserRepository resilientUserRepository) || resilientUserRepository.isAvailable()) {
+                return shard;
+            }
+        }
+        return first;
+    }
+
+    private List<Integer> allShards() {
+        List<Integer> all = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            all.add(i);
+        }
+        return all;
+    }
+
+    /**
+     * Runs a call on several shards in parallel, the first shard on the calling thread.
+     * @param shardIndexes The indexes of the shards to call
+     * @param call The call to run per shard
+     * @return The results in the order of the shard indexes
+     * @throws SQLException If the call fails on any shard
+     */
+    private <T> List<T> scatter(Collection<Integer> shardIndexes, ShardCall<T> call) throws SQLException {
+        List<T> results = new ArrayList<>(shardIndexes.size());
+        if (shardIndexes.isEmpty()) {
+            return results;
+        }
+        Iterator<Integer> indexes = shardIndexes.iterator();
+        int first = indexes.next();
+        Span parent = Tracer.current();
+        AtomicBoolean staleReads = new AtomicBoolean(); // Stale reads of the query threads are reported on the calling thread
+        List<Future<T>> futures = new ArrayList<>(shardIndexes.size() - 1);
+        while (indexes.hasNext()) {
+            int shard = indexes.next();
+            futures.add(executor.submit(() -> {
+                StaleReads.clear();
+                try {
+                    return callShard(Tracer.startSpan("shard.call", parent), shard, call);
+                } finally {
+                    if (StaleReads.wereServed()) {
+                        staleReads.set(true);
+                    }
+                    StaleReads.clear();
+                }
+            }));
+        }
+        try {
+            results.add(callShard(Tracer.startSpan("shard.call"), first, call));
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            if (staleReads.get()) {
+                StaleReads.markServed();
+            }
+            return results;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new SQLException("Shard query failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the shards", e);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private <T> T callShard(Span span, int shard, ShardCall<T> call) throws SQLException {
+        try (span) {
+            span.tag("shard", shard);
+            try {
+                return call.call(shard);
+            } catch (SQLException | RuntimeException e) {
+                span.error(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Merges lists ordered by ID into one list ordered by ID.
+     * @param sorted The lists to merge, each ordered by ID
+     * @param id Retrieves the ID of an element
+     * @return The merged list
+     */
+    private static <T> List<T> merge(List<List<T>> sorted, ToLongFunction<T> id) {
+        if (sorted.size() == 1) {
+            return sorted.get(0);
+        }
+        int total = 0;
+        for (List<T> list : sorted) {
+            total += list.size();
+        }
+        List<T> merged = new ArrayList<>(total);
+        PriorityQueue<Cursor<T>> heads = new PriorityQueue<>(Comparator.comparingLong((Cursor<T> cursor) -> id.applyAsLong(cursor.head)));
+        for (List<T> list : sorted) {
+            Cursor<T> cursor = new Cursor<>(list.iterator());
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+        Cursor<T> cursor;
+        while ((cursor = heads.poll()) != null) {
+            merged.add(cursor.head);
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    private void unregisterAfterFailure(List<Long> ids, Exception failure) {
+        try {
+            directory.unregisterAll(ids);
+        } catch (SQLException e) {
+            AppLogger.error("Failed to remove " + ids.size() + " directory entries of users not stored (" + failure.getMessage() + "): " + e.getMessage());
+        }
+    }
+
+    /**
+     * Position in a list being merged.
+     */
+    private static final class Cursor<T> {
+        private final Iterator<T> rest;
+        private T head;
+
+        Cursor(Iterator<T> rest) {
+            this.rest = rest;
+        }
+
+        boolean advance() {
+            head = rest.hasNext() ? rest.next() : null;
+            return head != null;
+        }
+    }
+
+    /**
+     * Users of one shard handed from the thread reading the shard to the thread merging the shards.
+     * The buffer is bounded, a fast shard waits for the merge instead of filling the memory.
+     */
+    private static final class ShardStream {
+        private static final Object END = new Object();
+
+        private final BlockingQueue<Object> buffer = new ArrayBlockingQueue<>(Settings.SHARD_STREAM_BUFFER);
+        private User head;
+
+        /**
+         * Reads all users of a shard into the buffer, followed by the end marker or the error of the shard.
+         * Runs on a query thread until the shard is read or the merge is cancelled.
+         */
+        void produce(UserRepository shard) {
+            try {
+                try {
+                    shard.forEachUser(this::put);
+                    buffer.put(END);
+                } catch (SQLException | IOException | RuntimeException e) {
+                    buffer.put(e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // The merge was cancelled, nobody reads the buffer anymore
+            }
+        }
+
+        private void put(User user) throws InterruptedIOException {
+            try {
+                buffer.put(user);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Streaming of users from the shard cancelled");
+            }
+        }
+
+        /**
+         * Moves to the next user of the shard.
+         * @return false at the end of the shard
+         * @throws SQLException If reading the shard failed
+         * @throws IOException If reading the shard failed or the merge is interrupted
+         */
+        boolean advance() throws SQLException, IOException {
+            Object next;
+            try {
+                next = buffer.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while merging users of the shards");
+            }
+            if (next instanceof SQLException e) {
+                throw e;
+            }
+            if (next instanceof IOException e) {
+                throw e;
+            }
+            if (next instanceof RuntimeException e) {
+                throw e;
+            }
+            head = next == END ? null : (User) next;
+            return head != null;
+        }
+    }
+}
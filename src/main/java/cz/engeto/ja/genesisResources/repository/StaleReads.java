@@ -0,0 +1,36 @@
+package cz.engeto.ja.genesisResources.repository;
+
+/**
+ * Marks the current thread when a read was answered from the fallback cache instead of the database,
+ * so the response can be sent without validators claiming the data is current.
+ * The mark stays until it is cleared, callers clear it before the reads they want to check.
+ */
+public final class StaleReads {
+
+    private static final ThreadLocal<Boolean> SERVED = new ThreadLocal<>();
+
+    private StaleReads() {
+    }
+
+    /**
+     * Marks the current thread as having received possibly stale data.
+     */
+    public static void markServed() {
+        SERVED.set(Boolean.TRUE);
+    }
+
+    /**
+     * Clears the mark of the current thread.
+     */
+    public static void clear() {
+        SERVED.remove();
+    }
+
+    /**
+     * Tells whether the current thread received possibly stale data since the mark was last cleared.
+     * @return true if a read was served from the fallback cache
+     */
+    public static boolean wereServed() {
+        return SERVED.get() != null;
+    }
+}
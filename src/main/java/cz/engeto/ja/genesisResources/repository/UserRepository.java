@@ -0,0 +1,147 @@
+package cz.engeto.ja.genesisResources.repository;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.model.UserBasicInfo;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Storage abstraction for users.
+ * Implementations decide where users are kept (MySQL, in-memory, ...),
+ * the UserService only talks to this interface.
+ */
+public interface UserRepository {
+
+    /**
+     * Receives users streamed out of the storage.
+     */
+    @FunctionalInterface
+    interface UserSink {
+        void accept(User user) throws IOException;
+    }
+
+    /**
+     * Stores a new user and assigns the generated ID to it.
+     * A user already carrying an ID, allocated by the caller, is stored with that ID.
+     * @param user The user to store
+     * @throws SQLException If the user cannot be stored
+     */
+    void createUser(User user) throws SQLException;
+
+    /**
+     * Retrieves a user by their personID.
+     * @param personID The personID of the user
+     * @return The User object if found, null otherwise
+     * @throws SQLException If a storage access error occurs
+     */
+    User getUserByPersonId(String personID) throws SQLException;
+
+    /**
+     * Retrieves a user by their ID.
+     * @param id The ID of the user
+     * @return The User object if found, null otherwise
+     * @throws SQLException If a storage access error occurs
+     */
+    User getUserById(Long id) throws SQLException;
+
+    /**
+     * Retrieves a user by their UUID.
+     * @param uuid The UUID of the user
+     * @return The User object if found, null otherwise
+     * @throws SQLException If a storage access error occurs
+     */
+    User getUserByUuid(UUID uuid) throws SQLException;
+
+    /**
+     * Retrieves the users matching any of the given keys, for lookups of many users at once.
+     * Implementations should answer the whole lookup with as few round trips as possible.
+     * @param ids The IDs to look up
+     * @param uuids The UUIDs to look up
+     * @param personIDs The personIDs to look up
+     * @return The found users in no particular order, each user once
+     * @throws SQLException If a storage access error occurs
+     */
+    default List<User> getUsersByKeys(Collection<Long> ids, Collection<UUID> uuids, Collection<String> personIDs) throws SQLException {
+        Map<Long, User> found = new LinkedHashMap<>();
+        for (Long id : ids) {
+            User user = getUserById(id);
+            if (user != null) {
+                found.put(user.getId(), user);
+            }
+        }
+        for (UUID uuid : uuids) {
+            User user = getUserByUuid(uuid);
+            if (user != null) {
+                found.put(user.getId(), user);
+            }
+        }
+        for (String personID : personIDs) {
+            User user = getUserByPersonId(personID);
+            if (user != null) {
+                found.put(user.getId(), user);
+            }
+        }
+        return List.copyOf(found.values());
+    }
+
+    /**
+     * Retrieves all users ordered by ID.
+     * @return List of all users
+     * @throws SQLException If a storage access error occurs
+     */
+    List<User> getAllUsers() throws SQLException;
+
+    /**
+     * Retrieves basic information of all users ordered by ID.
+     * @return List of all users (basic info)
+     * @throws SQLException If a storage access error occurs
+     */
+    List<UserBasicInfo> getAllUsersSimple() throws SQLException;
+
+    /**
+     * Updates name and surname of an existing user.
+     * @param user The user carrying the ID and the new values
+     * @throws SQLException If a storage access error occurs
+     */
+    void updateUser(User user) throws SQLException;
+
+    /**
+     * Deletes a user by their ID.
+     * @param id The ID of the user to delete
+     * @throws SQLException If a storage access error occurs
+     */
+    void deleteUser(Long id) throws SQLException;
+
+    /**
+     * Passes all users ordered by ID to a sink, for bulk exports.
+     * Implementations that can should stream the users instead of loading them all into memory.
+     * @param sink The sink receiving the users
+     * @throws SQLException If a storage access error occurs
+     * @throws IOException If the sink fails
+     */
+    default void forEachUser(UserSink sink) throws SQLException, IOException {
+        for (User user : getAllUsers()) {
+            sink.accept(user);
+        }
+    }
+
+    /**
+     * Stores users keeping their IDs and UUIDs, for bulk imports. Either all users are stored or none.
+     * @param users The users to store
+     * @throws SQLException If the users cannot be stored, e.g. because an ID, personID or UUID is already used
+     */
+    void importUsers(List<User> users) throws SQLException;
+
+    /**
+     * Flushes pending state and releases resources of the storage. Called during shutdown.
+     * Calls after the first one must have no effect.
+     */
+    default void close() {
+    }
+}
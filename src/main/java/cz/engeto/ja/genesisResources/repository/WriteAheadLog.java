@@ -0,0 +1,649 @@
+package cz.engeto.ja.genesisResources.repository;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.Settings;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log for the embedded user store.
+ *
+ * Every change is written as a checksummed binary record: [length][crc32][payload].
+ * Writers only enqueue their records; a single flusher thread writes everything that is
+ * queued and makes it durable with one fsync (group commit), so concurrent writers share
+ * the cost of a flush. The log is split into segments named after their first sequence
+ * number (LSN). A snapshot of the whole store makes all older segments obsolete.
+ * The directory is locked while the log is open, so only one process at a time can use it.
+ */
+public class WriteAheadLog implements Closeable {
+
+    public static final byte OP_CREATE = 1;
+    public static final byte OP_UPDATE = 2;
+    public static final byte OP_DELETE = 3;
+
+    private static final int SNAPSHOT_MAGIC = 0x47454E53; // "GENS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+    private static final int MAX_BATCH = 1024;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "users-";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String LOCK_FILE = "wal.lock";
+
+    /**
+     * Receives the records read from a snapshot and the log during recovery.
+     */
+    public interface Replayer {
+        void replayLastId(long lastId);
+        void replayCreate(User user);
+        void replayUpdate(User user);
+        void replayDelete(long id);
+    }
+
+    /**
+     * Handle of an appended record, used to wait until the record is durable.
+     */
+    public static final class Commit {
+        private final long lsn;
+        private final ByteBuffer data; // null for a segment rotation marker
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Commit(long lsn, ByteBuffer data) {
+            this.lsn = lsn;
+            this.data = data;
+        }
+
+        /**
+         * Retrieves the LSN of the record (or the last LSN before a segment rotation).
+         * @return The log sequence number
+         */
+        public long getLsn() {
+            return lsn;
+        }
+
+        /**
+         * Checks whether the record is durable or has failed, without waiting.
+         * @return true if await() would return or throw immediately
+         */
+        public boolean isDone() {
+            return done.isDone();
+        }
+
+        /**
+         * Checks whether the record could not be made durable.
+         * @return true if await() throws for this record
+         */
+        public boolean isFailed() {
+            return done.isCompletedExceptionally();
+        }
+    }
+
+    private static final Commit CLOSE_MARKER = new Commit(-1, null);
+
+    // Directories locked by logs of this JVM; file locks are held per process, and closing any channel
+    // of the lock file would release them, so a second log in this JVM must not even open the lock file
+    private static final Set<Path> LOCKED_DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+    private final Path directory;
+    private final int snapshotInterval;
+    private final BlockingQueue<Commit> queue = new LinkedBlockingQueue<>();
+    private Path lockedDirectory;
+    private FileChannel lockChannel;
+    private FileLock directoryLock;
+    private Thread flusher;
+    private FileChannel segment;
+    private long segmentStartLsn;
+    private long lastLsn;
+    private long lastSnapshotLsn;
+    private volatile IOException failure;
+
+    /**
+     * Constructor to initialize the log in a directory.
+     * Call recover() before appending any records.
+     * @param directory Directory holding the log segments and snapshots
+     * @param snapshotInterval Number of records after which a snapshot is due
+     */
+    public WriteAheadLog(Path directory, int snapshotInterval) {
+        this.directory = directory;
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Replays the latest snapshot and all newer log records, then opens a new segment for writing.
+     * A torn or corrupted record at the end of a segment (e.g. after a crash) ends the replay of that segment
+     * and is truncated away.
+     * @param replayer Receiver of the recovered state
+     * @throws IOException If the log directory cannot be read or written, or is used by another process
+     */
+    public synchronized void recover(Replayer replayer) throws IOException {
+        Files.createDirectories(directory);
+        lockDirectory();
+        try {
+            long startTime = System.nanoTime();
+
+            Path snapshot = latestFile(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+            if (snapshot != null) {
+                lastSnapshotLsn = readSnapshot(snapshot, replayer);
+                lastLsn = lastSnapshotLsn;
+            }
+            int replayed = 0;
+            for (Path path : listFiles(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                replayed += replaySegment(path, replayer);
+            }
+            AppLogger.info("Write-ahead log recovered: snapshot LSN " + lastSnapshotLsn + ", " + replayed
+                    + " records replayed, last LSN " + lastLsn + " in " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+
+            openSegment(lastLsn + 1);
+        } catch (IOException | RuntimeException e) {
+            unlockDirectory();
+            throw e;
+        }
+        flusher = new Thread(this::flushLoop, "wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Appends a change record. Records are ordered by the order of the calls,
+     * callers must therefore append while holding the lock that orders their in-memory changes.
+     * @param op One of OP_CREATE, OP_UPDATE, OP_DELETE
+     * @param user The changed user (only the ID is written for OP_DELETE)
+     * @return Commit handle to wait for durability with await()
+     * @throws SQLException If the log has failed before, or a field is too long to be logged (SQLState 22001)
+     */
+    public synchronized Commit append(byte op, User user) throws SQLException {
+        checkNotFailed();
+        byte[] change = encodeChange(op, user);
+        // The LSN is only taken once the record is known to be writable, so a rejected change leaves no gap
+        long lsn = ++lastLsn;
+        Commit commit = new Commit(lsn, encodeRecord(lsn, change));
+        queue.add(commit);
+        if (failure != null) {
+            // The flusher may have failed after the check above and will not pick this record up any more
+            commit.done.completeExceptionally(failure);
+        }
+        return commit;
+    }
+
+    /**
+     * Checks that a user can be written to the log, for callers that must reject a whole batch before appending any of it.
+     * @param user The user to check
+     * @throws SQLException If a field is too long to be logged (SQLState 22001)
+     */
+    public static void checkWritable(User user) throws SQLException {
+        encodeChange(OP_CREATE, user);
+    }
+
+    /**
+     * Waits until an appended record has been written and fsynced, at most Settings.WAL_AWAIT_TIMEOUT_MS.
+     * @param commit The handle returned by append()
+     * @throws SQLException If the record could not be made durable, or is not durable in time
+     */
+    public void await(Commit commit) throws SQLException {
+        try {
+            commit.done.get(Settings.WAL_AWAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new SQLTimeoutException("Timed out after " + Settings.WAL_AWAIT_TIMEOUT_MS + " ms waiting for write-ahead log", e);
+        } catch (ExecutionException e) {
+            throw new SQLException("Failed to write change to write-ahead log", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for write-ahead log", e);
+        }
+    }
+
+    /**
+     * Checks whether enough records were appended since the last snapshot to take a new one.
+     * @return true if a snapshot is due
+     */
+    public synchronized boolean isSnapshotDue() {
+        return lastLsn - lastSnapshotLsn >= snapshotInterval;
+    }
+
+    /**
+     * Starts a new segment so that all records up to the current LSN are in older segments.
+     * Must be called while the caller's state is consistent with the current LSN (i.e. under the same lock as append()).
+     * Wait for the returned handle with await() before writing the snapshot.
+     * @return Commit handle whose LSN is the last record covered by a snapshot taken now
+     * @throws SQLException If the log has failed before
+     */
+    public synchronized Commit rotate() throws SQLException {
+        checkNotFailed();
+        Commit marker = new Commit(lastLsn, null);
+        queue.add(marker);
+        if (failure != null) {
+            marker.done.completeExceptionally(failure);
+        }
+        return marker;
+    }
+
+    /**
+     * Writes a compacted snapshot of the store and deletes log segments and snapshots made obsolete by it.
+     * @param users All users of the store at the given LSN
+     * @param lastId Last ID assigned by the store
+     * @param lsn LSN of the rotation marker returned by rotate() when the users were captured
+     * @throws IOException If the snapshot cannot be written
+     */
+    public void writeSnapshot(Collection<User> users, long lastId, long lsn) throws IOException {
+        long startTime = System.nanoTime();
+        Path target = directory.resolve(fileName(SNAPSHOT_PREFIX, lsn, SNAPSHOT_SUFFIX));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new java.util.zip.CheckedOutputStream(fileOut, crc), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(lsn);
+            out.writeLong(lastId);
+            out.writeInt(users.size());
+            for (User user : users) {
+                writeUser(out, user);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+            // Trailing checksum is written outside of the checked stream
+            fileOut.write(ByteBuffer.allocate(Long.BYTES).putLong(crc.getValue()).array());
+            fileOut.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // The rename must be durable before the files it replaces are deleted
+        syncDirectory();
+
+        synchronized (this) {
+            lastSnapshotLsn = Math.max(lastSnapshotLsn, lsn);
+        }
+        for (Path path : listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (sequenceOf(path, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < lsn) {
+                Files.deleteIfExists(path);
+            }
+        }
+        for (Path path : listFiles(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (sequenceOf(path, SEGMENT_PREFIX, SEGMENT_SUFFIX) <= lsn) {
+                Files.deleteIfExists(path);
+            }
+        }
+        AppLogger.info("Write-ahead log snapshot of " + users.size() + " users at LSN " + lsn
+                + " written in " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Flushes all queued records and stops the flusher thread.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread thread = flusher;
+        if (thread == null) {
+            return;
+        }
+        queue.add(CLOSE_MARKER);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flusher = null;
+        try {
+            segment.close();
+        } finally {
+            unlockDirectory();
+        }
+    }
+
+    /**
+     * Locks the log directory for this process. A second application instance or a bulk import run
+     * against the same directory would interleave its records with ours and corrupt the recovery.
+     * @throws IOException If the directory is locked by another process or the lock file cannot be opened
+     */
+    private void lockDirectory() throws IOException {
+        Path realDirectory = directory.toRealPath();
+        Path lockFile = realDirectory.resolve(LOCK_FILE);
+        if (!LOCKED_DIRECTORIES.add(realDirectory)) {
+            throw new IOException("Write-ahead log directory " + realDirectory + " is already used by this process");
+        }
+        lockedDirectory = realDirectory;
+        try {
+            lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            directoryLock = lockChannel.tryLock();
+        } catch (IOException e) {
+            unlockDirectory();
+            throw e;
+        }
+        if (directoryLock == null) {
+            unlockDirectory();
+            throw new IOException("Write-ahead log directory " + realDirectory + " is used by another process (" + lockFile + " is locked)");
+        }
+    }
+
+    private void unlockDirectory() throws IOException {
+        try {
+            if (lockChannel != null) {
+                lockChannel.close(); // Releases the lock
+            }
+        } finally {
+            lockChannel = null;
+            directoryLock = null;
+            if (lockedDirectory != null) {
+                LOCKED_DIRECTORIES.remove(lockedDirectory);
+                lockedDirectory = null;
+            }
+        }
+    }
+
+    /**
+     * Main loop of the flusher thread. Takes everything queued, writes it and fsyncs once per batch.
+     * When the loop ends, because the log is closed, has failed or the thread was interrupted,
+     * every record not made durable yet is failed, so no writer waits for it in vain.
+     */
+    private void flushLoop() {
+        List<Commit> batch = new ArrayList<>();
+        boolean closing = false;
+        try {
+            while (!closing) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH);
+
+                List<Commit> written = new ArrayList<>(batch.size());
+                for (Commit commit : batch) {
+                    if (commit == CLOSE_MARKER) {
+                        closing = true;
+                    } else if (commit.data == null) {
+                        sync(written);
+                        if (segmentStartLsn != commit.lsn + 1) {
+                            segment.close();
+                            openSegment(commit.lsn + 1);
+                        }
+                        commit.done.complete(null);
+                    } else {
+                        while (commit.data.hasRemaining()) {
+                            segment.write(commit.data);
+                        }
+                        written.add(commit);
+                    }
+                }
+                sync(written);
+                batch.clear();
+            }
+            failure = new IOException("Write-ahead log is closed");
+        } catch (IOException e) {
+            AppLogger.error("Write-ahead log failed: " + e.getMessage());
+            failure = e;
+        } catch (InterruptedException e) {
+            AppLogger.error("Write-ahead log flusher was interrupted");
+            failure = new InterruptedIOException("Write-ahead log flusher was interrupted");
+            Thread.currentThread().interrupt();
+        }
+        // Appends check the failure after queueing, so every record is failed either here or by its writer
+        IOException cause = failure;
+        batch.forEach(commit -> commit.done.completeExceptionally(cause));
+        Commit pending;
+        while ((pending = queue.poll()) != null) {
+            pending.done.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Forces written records to disk and releases the writers waiting for them.
+     * @param written Records written since the last sync, cleared afterwards
+     * @throws IOException If the fsync fails
+     */
+    private void sync(List<Commit> written) throws IOException {
+        if (written.isEmpty()) {
+            return;
+        }
+        segment.force(false);
+        written.forEach(commit -> commit.done.complete(null));
+        written.clear();
+    }
+
+    /**
+     * Opens (or creates) the segment starting at the given LSN for appending.
+     * @param startLsn LSN of the first record of the segment
+     * @throws IOException If the segment cannot be opened
+     */
+    private void openSegment(long startLsn) throws IOException {
+        Path path = directory.resolve(fileName(SEGMENT_PREFIX, startLsn, SEGMENT_SUFFIX));
+        boolean created = !Files.exists(path);
+        segment = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentStartLsn = startLsn;
+        if (created) {
+            // A new segment must survive a crash before records are acknowledged in it or older segments are deleted
+            syncDirectory();
+        }
+    }
+
+    /**
+     * Forces the entries of the log directory to disk, making created, renamed and deleted files durable.
+     * @throws IOException If the directory cannot be synced
+     */
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows cannot open directories, its file system makes directory changes durable on its own
+        }
+    }
+
+    /**
+     * Replays all valid records of a segment newer than the last applied LSN.
+     * @param path Segment file
+     * @param replayer Receiver of the records
+     * @return Number of records applied
+     * @throws IOException If the segment cannot be read or truncated
+     */
+    private int replaySegment(Path path, Replayer replayer) throws IOException {
+        int applied = 0;
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            while (true) {
+                byte[] payload = readRecord(in);
+                if (payload == null) {
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                long lsn = record.readLong();
+                byte op = record.readByte();
+                validLength += 2 * Integer.BYTES + payload.length;
+                if (lsn <= lastLsn) {
+                    continue;
+                }
+                if (lsn != lastLsn + 1) {
+                    AppLogger.warn("Write-ahead log gap: expected LSN " + (lastLsn + 1) + " but found " + lsn + " in " + path);
+                }
+                switch (op) {
+                    case OP_CREATE -> replayer.replayCreate(readUser(record));
+                    case OP_UPDATE -> replayer.replayUpdate(readUser(record));
+                    case OP_DELETE -> replayer.replayDelete(record.readLong());
+                    default -> throw new IOException("Unknown write-ahead log operation " + op + " in " + path);
+                }
+                lastLsn = lsn;
+                applied++;
+            }
+        }
+        if (Files.size(path) > validLength) {
+            AppLogger.warn("Truncating torn tail of write-ahead log segment " + path + " at offset " + validLength);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Reads the payload of the next record and verifies its checksum.
+     * @param in Stream positioned at the start of a record
+     * @return The payload, or null at the end of the segment or at a torn / corrupted record
+     * @throws IOException If the stream cannot be read
+     */
+    private byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == checksum ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Loads a snapshot file.
+     * @param path Snapshot file
+     * @param replayer Receiver of the users
+     * @return LSN of the snapshot
+     * @throws IOException If the snapshot cannot be read or is corrupted
+     */
+    private long readSnapshot(Path path, Replayer replayer) throws IOException {
+        byte[] content = Files.readAllBytes(path);
+        if (content.length < Long.BYTES) {
+            throw new IOException("Corrupted snapshot " + path);
+        }
+        int bodyLength = content.length - Long.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, bodyLength);
+        if (crc.getValue() != ByteBuffer.wrap(content, bodyLength, Long.BYTES).getLong()) {
+            throw new IOException("Checksum mismatch in snapshot " + path);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, 0, bodyLength));
+        if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported snapshot format " + path);
+        }
+        long lsn = in.readLong();
+        replayer.replayLastId(in.readLong());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            replayer.replayCreate(readUser(in));
+        }
+        AppLogger.info("Loaded snapshot " + path + " with " + count + " users");
+        return lsn;
+    }
+
+    /**
+     * Encodes the operation and the user of a change record.
+     * @throws SQLException If a field is longer than 65535 bytes in modified UTF-8, the limit of the record format
+     */
+    private static byte[] encodeChange(byte op, User user) throws SQLException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(op);
+            if (op == OP_DELETE) {
+                out.writeLong(user.getId());
+            } else {
+                writeUser(out, user);
+            }
+        } catch (UTFDataFormatException e) {
+            throw new SQLException("User cannot be written to write-ahead log: " + e.getMessage(), "22001", e);
+        } catch (IOException e) {
+            throw new SQLException("User cannot be written to write-ahead log", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes a change record including its length and checksum header.
+     */
+    private static ByteBuffer encodeRecord(long lsn, byte[] change) {
+        ByteBuffer payload = ByteBuffer.allocate(Long.BYTES + change.length).putLong(lsn).put(change);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        ByteBuffer buffer = ByteBuffer.allocate(2 * Integer.BYTES + payload.capacity());
+        buffer.putInt(payload.capacity()).putInt((int) crc.getValue()).put(payload.array()).flip();
+        return buffer;
+    }
+
+    private static void writeUser(DataOutputStream out, User user) throws IOException {
+        out.writeLong(user.getId());
+        writeNullableString(out, user.getName());
+        writeNullableString(out, user.getSurname());
+        writeNullableString(out, user.getPersonID());
+        out.writeLong(user.getUuid().getMostSignificantBits());
+        out.writeLong(user.getUuid().getLeastSignificantBits());
+    }
+
+    private static User readUser(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        String name = readNullableString(in);
+        String surname = readNullableString(in);
+        String personID = readNullableString(in);
+        UUID uuid = new UUID(in.readLong(), in.readLong());
+        return new User(id, name, surname, personID, uuid.toString());
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private void checkNotFailed() throws SQLException {
+        if (failure != null) {
+            throw new SQLException("Write-ahead log is not writable", failure);
+        }
+        if (flusher == null) {
+            throw new SQLException("Write-ahead log is not open");
+        }
+    }
+
+    private Path latestFile(String prefix, String suffix) throws IOException {
+        List<Path> files = listFiles(prefix, suffix);
+        return files.isEmpty() ? null : files.get(files.size() - 1);
+    }
+
+    /**
+     * Lists files of one kind ordered by their sequence number.
+     */
+    private List<Path> listFiles(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith(prefix) && name.endsWith(suffix);
+                    })
+                    .sorted((a, b) -> Long.compare(sequenceOf(a, prefix, suffix), sequenceOf(b, prefix, suffix)))
+                    .toList();
+        }
+    }
+
+    private static long sequenceOf(Path path, String prefix, String suffix) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    private static String fileName(String prefix, long sequence, String suffix) {
+        return prefix + String.format("%020d", sequence) + suffix;
+    }
+}
@@ -0,0 +1,210 @@
+package cz.engeto.ja.genesisResources.service;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.util.Settings;
+import cz.engeto.ja.genesisResources.util.SingleFlight;
+
+import org.springframework.stereotype.Service;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Service remembering the results of user creations by the Idempotency-Key sent by the client.
+ * The first request with a key creates the user, retries with the same key get a copy of the created user
+ * without touching the database, and duplicates arriving while the first request is still running wait for it.
+ * Only successful creations are remembered, so a retry after a failure creates the user again.
+ * Keys are scoped per client, so clients choosing the same key do not see each other's users.
+ * Keys expire after Settings.IDEMPOTENCY_TTL_MS and at most Settings.IDEMPOTENCY_MAX_KEYS are kept,
+ * the oldest finished keys are dropped first. Keys live in memory only and are not shared between instances.
+ */
+@Service
+public class IdempotencyStore {
+
+    /**
+     * Thrown when a key is reused with a different request body.
+     */
+    public static class KeyReusedException extends RuntimeException {
+        KeyReusedException(String key) {
+            super("Idempotency key " + key + " was already used with a different request");
+        }
+    }
+
+    /**
+     * Thrown when the request first sent with a key does not finish in time.
+     */
+    public static class InProgressException extends RuntimeException {
+        InProgressException(String key) {
+            super("Request with idempotency key " + key + " is still in progress");
+        }
+    }
+
+    /**
+     * Result of a creation.
+     * @param user Copy of the created user
+     * @param replayed Whether the user was created by an earlier request with the same key
+     */
+    public record Result(User user, boolean replayed) {
+    }
+
+    /**
+     * Idempotency key of one client.
+     * @param client Identifies the client that sent the key
+     * @param key The Idempotency-Key sent by the client
+     */
+    private record ClientKey(String client, String key) {
+    }
+
+    /**
+     * Remembered request.
+     * @param key The idempotency key and its client
+     * @param fingerprint Identifies the request body, a key must not be reused with another body
+     * @param result Completed with the created user, or exceptionally while the entry is being removed
+     * @param expiresAt Time after which the key can be used again, in milliseconds since the epoch
+     */
+    private record Entry(ClientKey key, String fingerprint, CompletableFuture<User> result, long expiresAt) {
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    private final ConcurrentMap<ClientKey, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry> insertionOrder = new ConcurrentLinkedQueue<>(); // Equals expiry order, the TTL is fixed
+    private final long ttlMillis;
+    private final int maxKeys;
+    private final long waitMillis;
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder replays = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder mismatches = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructor using the limits from Settings.
+     */
+    public IdempotencyStore() {
+        this(Settings.IDEMPOTENCY_TTL_MS, Settings.IDEMPOTENCY_MAX_KEYS, Settings.IDEMPOTENCY_WAIT_MS);
+    }
+
+    /**
+     * Constructor for IdempotencyStore.
+     * @param ttlMillis Time a key is remembered after its first use
+     * @param maxKeys Maximum number of remembered keys
+     * @param waitMillis Maximum time a duplicate waits for the request first sent with its key
+     */
+    public IdempotencyStore(long ttlMillis, int maxKeys, long waitMillis) {
+        this.ttlMillis = ttlMillis;
+        this.maxKeys = maxKeys;
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * Creates a user unless a request of the same client with the same key already did.
+     * @param client Identifies the client, as given by the ClientIdentifier
+     * @param key The Idempotency-Key sent by the client
+     * @param fingerprint Identifies the request body
+     * @param creation Creates the user, runs only for the first request with the key
+     * @return The created user and whether it was created by an earlier request
+     * @throws SQLException If the creation fails, for duplicates waiting for it too
+     * @throws KeyReusedException If the key was used with a different fingerprint
+     * @throws InProgressException If the first request with the key does not finish within the wait time
+     */
+    public Result execute(String client, String key, String fingerprint, SingleFlight.Lookup<User> creation) throws SQLException {
+        long now = System.currentTimeMillis();
+        ClientKey clientKey = new ClientKey(client, key);
+        Entry own = new Entry(clientKey, fingerprint, new CompletableFuture<>(), now + ttlMillis);
+        Entry entry = entries.compute(clientKey, (k, existing) -> existing == null || existing.isExpired(now) ? own : existing);
+        if (!entry.fingerprint().equals(fingerprint)) {
+            mismatches.increment();
+            throw new KeyReusedException(key);
+        }
+        if (entry == own) {
+            insertionOrder.add(own);
+            evict(now);
+            executions.increment();
+            try {
+                User user = creation.load();
+                own.result().complete(new User(user));
+                return new Result(user, false);
+            } catch (Throwable e) {
+                // Failures are not remembered, the key is free for the client's retry
+                entries.remove(clientKey, own);
+                insertionOrder.remove(own);
+                own.result().completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        if (!entry.result().isDone()) {
+            waits.increment();
+        }
+        try {
+            User user = entry.result().get(waitMillis, TimeUnit.MILLISECONDS);
+            replays.increment();
+            return new Result(new User(user), true);
+        } catch (TimeoutException e) {
+            throw new InProgressException(key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw new SQLException(cause.getMessage(), cause);
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new SQLException("Request with idempotency key " + key + " failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for request with idempotency key " + key, e);
+        }
+    }
+
+    /**
+     * Retrieves the counters of this instance.
+     * @return Map with executed, replayed, waiting and mismatching requests, evicted and remembered keys
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("executions", executions.sum());
+        metrics.put("replays", replays.sum());
+        metrics.put("waits", waits.sum());
+        metrics.put("mismatches", mismatches.sum());
+        metrics.put("evictions", evictions.sum());
+        metrics.put("keys", entries.size());
+        return metrics;
+    }
+
+    /**
+     * Drops expired keys and, above the capacity, the oldest keys.
+     * Creations still running keep their keys, so their duplicates wait for them instead of creating the user again.
+     * Entries replaced after expiry are skipped.
+     * @param now Current time in milliseconds since the epoch
+     */
+    private void evict(long now) {
+        Iterator<Entry> oldestFirst = insertionOrder.iterator();
+        while (oldestFirst.hasNext()) {
+            Entry oldest = oldestFirst.next();
+            if (!oldest.isExpired(now) && entries.size() <= maxKeys) {
+                return;
+            }
+            if (!oldest.result().isDone()) {
+                continue;
+            }
+            oldestFirst.remove();
+            if (entries.remove(oldest.key(), oldest)) {
+                evictions.increment();
+            }
+        }
+    }
+}
@@ -12,42 +12,69 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
 
 /**
  * Service class for managing person IDs.
  * This service loads person IDs from a file and provides methods to check and mark them as assigned.
+ * The file is loaded in the background so that it does not delay startup; methods needing the loaded
+ * person IDs wait for the load to finish.
  */
 @Service
 public class PersonIdService {
 
+    private static final Pattern PERSON_ID_PATTERN = Pattern.compile("[a-zA-Z0-9]{12}");
+
     private final Set<String> personIds; // Set to store loaded person IDs
     private ConcurrentMap<String, Boolean> assignedPersonIds; // ConcurrentMap to track assigned person IDs
+    private final CompletableFuture<Void> loading = new CompletableFuture<>(); // Completed when person IDs are loaded
 
     /**
      * Constructor initializes the service.
-     * Loads person IDs from file and handles any initialization exceptions.
+     * Starts loading person IDs from file in the background.
      */
     public PersonIdService() {
         this.personIds = new HashSet<>();
         this.assignedPersonIds = new ConcurrentHashMap<>();
-        try {
-            loadPersonIdsFromFile();
-        } catch (RuntimeException e) {
-            AppLogger.warn("Failed to initialize PersonIdService: " + e.getMessage());
-            throw e;
-        }
+        Thread loader = new Thread(() -> {
+            try {
+                loadPersonIdsFromFile();
+                loading.complete(null);
+            } catch (RuntimeException e) {
+                AppLogger.error("Failed to initialize PersonIdService: " + e.getMessage());
+                loading.completeExceptionally(e);
+            }
+        }, "person-id-loader");
+        loader.setDaemon(true);
+        loader.start();
     }
 
     /**
-     * Retrieves the set of loaded person IDs.
+     * Retrieves the set of loaded person IDs. Waits until the person IDs are loaded.
      * @return Set of person IDs
+     * @throws RuntimeException If the person IDs could not be loaded
      */
     public Set<String> getPersonIds() {
+        awaitLoaded();
         return this.personIds;
     }
 
+    /**
+     * Waits until the person IDs are loaded from file.
+     * @throws RuntimeException If the person IDs could not be loaded
+     */
+    public void awaitLoaded() {
+        try {
+            loading.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
     /**
      * Checks if a person ID is already assigned to another user.
      * @param personID The person ID to check
@@ -75,9 +102,9 @@ public class PersonIdService {
         try (BufferedReader br = new BufferedReader(new FileReader(Settings.PERSON_ID_FILE))) {
             String line;
             while ((line = br.readLine()) != null) {
-                if (line.trim().matches("[a-zA-Z0-9]{12}")) {
-                    AppLogger.info("Loaded personID: " + line);
-                    personIds.add(line.trim());
+                String personId = line.trim();
+                if (PERSON_ID_PATTERN.matcher(personId).matches()) {
+                    personIds.add(personId);
                     count++;
                 } else {
                     AppLogger.warn("Skipping invalid personID format: " + line);
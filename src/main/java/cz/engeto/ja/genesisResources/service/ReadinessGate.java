@@ -0,0 +1,151 @@
+package cz.engeto.ja.genesisResources.service;
+
+import cz.engeto.ja.genesisResources.model.UserBasicInfo;
+import cz.engeto.ja.genesisResources.repository.UserRepository;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.Settings;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * Service deciding whether the instance is ready to receive traffic.
+ * After the application has started, caches are warmed up in the background: the personID file is loaded,
+ * assigned personIDs are loaded from the repository and the search index is built. With lazy initialization
+ * this also creates the storage beans. Only then is the instance reported ready,
+ * so a freshly deployed instance does not serve its first requests from cold caches.
+ * When the application shuts down, it is reported not ready again.
+ */
+@Service
+@Lazy(false)
+public class ReadinessGate implements ApplicationListener<ApplicationReadyEvent> {
+
+    /**
+     * States of the instance.
+     */
+    public enum State {
+        STARTING, WARMING_UP, READY, SHUTTING_DOWN
+    }
+
+    private final UserRepository userRepository;
+    private final PersonIdService personIdService;
+    private final UserSearchIndex userSearchIndex;
+    private volatile State state = State.STARTING;
+    private volatile long readyUptimeMillis = -1;
+
+    /**
+     * Constructor for ReadinessGate.
+     * The dependencies are injected lazily, so with lazy initialization they are created by the warm-up, off the startup path.
+     * @param userRepository The UserRepository to load the users from
+     * @param personIdService The PersonIdService to mark assigned personIDs in
+     * @param userSearchIndex The UserSearchIndex to build
+     */
+    public ReadinessGate(@Lazy UserRepository userRepository, @Lazy PersonIdService personIdService, @Lazy UserSearchIndex userSearchIndex) {
+        this.userRepository = userRepository;
+        this.personIdService = personIdService;
+        this.userSearchIndex = userSearchIndex;
+    }
+
+    /**
+     * Starts warming up the caches once the application has started.
+     * @param event The application ready event
+     */
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        if (state != State.STARTING || event.getSpringApplication().getWebApplicationType() == WebApplicationType.NONE) {
+            return; // Command line runs (bulk export or import) serve no traffic and need no warm caches
+        }
+        state = State.WARMING_UP;
+        Thread thread = new Thread(this::warmUp, "cache-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Retrieves the current state of the instance.
+     * @return The state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Checks whether the instance is ready to receive traffic.
+     * @return true when the caches are warm and the application is not shutting down
+     */
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    /**
+     * Retrieves the JVM uptime at which the instance became ready.
+     * @return Uptime in milliseconds, or -1 if the instance has not been ready yet
+     */
+    public long getReadyUptimeMillis() {
+        return readyUptimeMillis;
+    }
+
+    /**
+     * Reports the instance as not ready because the application is shutting down.
+     */
+    public synchronized void shuttingDown() {
+        state = State.SHUTTING_DOWN;
+    }
+
+    /**
+     * Loads the caches, retrying until it succeeds or the application shuts down.
+     */
+    private void warmUp() {
+        while (state == State.WARMING_UP) {
+            long start = System.nanoTime();
+            try {
+                personIdService.awaitLoaded();
+                long[] users = new long[1];
+                // One streamed pass fills both caches; if a search already filled the index, only the personIDs are loaded
+                if (!userSearchIndex.ensureLoaded(index -> users[0] = loadUsers(index))) {
+                    users[0] = loadUsers(user -> { });
+                }
+                synchronized (this) {
+                    if (state == State.WARMING_UP) {
+                        state = State.READY;
+                        readyUptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+                    }
+                }
+                AppLogger.info("Caches warmed up with " + users[0] + " users in " + (System.nanoTime() - start) / 1_000_000 + " ms, ready");
+                return;
+            } catch (Exception e) {
+                AppLogger.warn("Failed to warm up caches, retrying in " + Settings.WARMUP_RETRY_MS + " ms: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(Settings.WARMUP_RETRY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Streams all users from the repository, marking their personIDs as assigned.
+     * @param index Receives the basic info of each user
+     * @return The number of users
+     * @throws SQLException If the repository fails
+     * @throws IOException If the stream of users fails
+     */
+    private long loadUsers(Consumer<UserBasicInfo> index) throws SQLException, IOException {
+        long[] count = new long[1];
+        userRepository.forEachUser(user -> {
+            personIdService.markPersonIdAsAssigned(user.getPersonID());
+            index.accept(UserBasicInfo.fromUser(user));
+            count[0]++;
+        });
+        return count[0];
+    }
+}
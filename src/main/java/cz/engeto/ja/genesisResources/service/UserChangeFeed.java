@@ -0,0 +1,378 @@
+package cz.engeto.ja.genesisResources.service;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.model.UserChangeEvent;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.Settings;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Service publishing ordered change events of users for downstream consumers.
+ *
+ * Events get sequence numbers increasing by one and are kept in a bounded ring buffer.
+ * Each event is serialized to JSON once when it is published, so any number of consumers
+ * can be served without serializing again. Events pushed out of the ring can optionally be spilled
+ * to segment files next to Settings.CHANGE_FEED_SPILL_FILE so that consumers further behind can still catch up.
+ * The spilled events are capped by Settings.CHANGE_FEED_SPILL_MAX_BYTES, the oldest segment is deleted first.
+ * Spilled events are read without holding the lock of the feed, so slow consumers do not block publishing.
+ * Sequence numbers start at 1 with every application start, event IDs combine them with a random epoch of the run
+ * so that positions from a previous run are recognized.
+ */
+@Service
+public class UserChangeFeed {
+
+    /**
+     * A published change event with its JSON form.
+     * @param sequence The sequence number of the event
+     * @param type The kind of the change
+     * @param json The event serialized as JSON
+     */
+    public record Entry(long sequence, String type, String json) {
+    }
+
+    /**
+     * Byte offset of every n-th event of a spill segment is remembered, reads seek to the nearest one.
+     */
+    private static final int SPILL_INDEX_INTERVAL = 64;
+
+    /**
+     * A spill file holding the events from firstSequence (inclusive) to nextSequence (exclusive).
+     */
+    private static final class SpillSegment {
+        private final Path path;
+        private final long firstSequence;
+        private final List<Long> offsets = new ArrayList<>(); // offset of the events firstSequence + k * SPILL_INDEX_INTERVAL
+        private long nextSequence;
+        private long size;
+
+        private SpillSegment(Path path, long firstSequence) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+            this.nextSequence = firstSequence;
+        }
+    }
+
+    /**
+     * Position in a spill segment from which events are read after the lock of the feed is released.
+     * @param path The spill segment
+     * @param offset Byte offset of the event with the sequence number firstSequence
+     * @param firstSequence The sequence number of the event at the offset
+     * @param endSequence The sequence number following the last event flushed to the segment
+     */
+    private record SpillPosition(Path path, long offset, long firstSequence, long endSequence) {
+    }
+
+    private final String epoch; // Distinguishes event IDs issued by different application runs
+    private final ObjectMapper objectMapper;
+    private final Entry[] ring;
+    private final Path spillFile;
+    private final long spillSegmentBytes;
+    private final Deque<SpillSegment> spillSegments = new ArrayDeque<>();
+    private OutputStream spillOutput;
+    private boolean spilling;
+    private long spilledBytes;
+    private long nextSequence = 1;
+
+    /**
+     * Constructor for UserChangeFeed.
+     * Removes spill segments of previous runs, if spilling is configured.
+     * @param objectMapper the ObjectMapper used to serialize events
+     */
+    public UserChangeFeed(ObjectMapper objectMapper) {
+        this.epoch = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+        this.objectMapper = objectMapper;
+        this.ring = new Entry[Settings.CHANGE_FEED_CAPACITY];
+        this.spillFile = Settings.CHANGE_FEED_SPILL_FILE == null ? null : Path.of(Settings.CHANGE_FEED_SPILL_FILE).toAbsolutePath();
+        this.spillSegmentBytes = Math.max(1, Settings.CHANGE_FEED_SPILL_MAX_BYTES / 4);
+        if (spillFile != null) {
+            try {
+                Files.createDirectories(spillFile.getParent());
+                deleteOldSegments();
+                spilling = true;
+                AppLogger.info("Change feed spills to files: " + spillFile + ".*");
+            } catch (IOException e) {
+                AppLogger.warn("Cannot prepare change feed spill files " + spillFile + ".*, spilling disabled: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Publishes a change of a user and wakes up waiting consumers.
+     * Callers publish changes of the same user in the order they were stored (see UserService).
+     * @param type The kind of the change
+     * @param userId The ID of the changed user
+     * @param user The user after the change, null for deleted users
+     */
+    public synchronized void publish(UserChangeEvent.Type type, Long userId, User user) {
+        long sequence = nextSequence;
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(new UserChangeEvent(sequence, type, userId, user, System.currentTimeMillis()));
+        } catch (JsonProcessingException e) {
+            AppLogger.error("Failed to serialize change event of user " + userId + ": " + e.getMessage());
+            return;
+        }
+        int slot = slotOf(sequence);
+        Entry evicted = ring[slot];
+        if (evicted != null) {
+            spill(evicted);
+        }
+        ring[slot] = new Entry(sequence, type.name(), json);
+        nextSequence++;
+        notifyAll();
+    }
+
+    /**
+     * Builds the ID of an event, unique across application runs.
+     * @param sequence The sequence number of the event
+     * @return The epoch of this run and the sequence number, separated by a dash
+     */
+    public String eventId(long sequence) {
+        return epoch + "-" + sequence;
+    }
+
+    /**
+     * Retrieves the sequence number from an event ID.
+     * @param eventId The ID of an event
+     * @return The sequence number, or -1 if the event was issued by another application run
+     * @throws IllegalArgumentException If the event ID is malformed
+     */
+    public long sequenceOf(String eventId) {
+        int dash = eventId.lastIndexOf('-');
+        if (dash <= 0) {
+            throw new IllegalArgumentException("Invalid event ID: " + eventId);
+        }
+        long sequence;
+        try {
+            sequence = Long.parseLong(eventId.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid event ID: " + eventId);
+        }
+        return epoch.equals(eventId.substring(0, dash)) ? sequence : -1;
+    }
+
+    /**
+     * Retrieves the sequence number of the last published event.
+     * @return The sequence number, 0 if nothing was published yet
+     */
+    public synchronized long getLatestSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * Checks whether all events after a sequence number are still available.
+     * @param after The sequence number of the last event the consumer has seen
+     * @return true if the consumer can resume from this position
+     */
+    public synchronized boolean canResumeAfter(long after) {
+        return after >= 0 && after <= getLatestSequence() && after + 1 >= oldestAvailable();
+    }
+
+    /**
+     * Reads events following a sequence number, waiting for new events if there are none yet.
+     * Events still in memory are returned in one batch, spilled events up to the end of one spill segment.
+     * @param after The sequence number of the last event the consumer has seen
+     * @param max Maximum number of events to return
+     * @param timeoutMillis Maximum time to wait for new events
+     * @return The events in sequence order, empty if none were published within the timeout
+     * @throws IllegalStateException If events after the position are no longer available
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    public List<Entry> awaitEvents(long after, int max, long timeoutMillis) throws InterruptedException {
+        SpillPosition spillPosition;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining = timeoutMillis;
+            while (after >= getLatestSequence() && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            if (!canResumeAfter(after)) {
+                throw new IllegalStateException("Changes after sequence " + after + " are no longer available");
+            }
+            long oldestInRing = oldestInRing();
+            if (after + 1 >= oldestInRing) {
+                List<Entry> entries = new ArrayList<>();
+                for (long sequence = after + 1; sequence < nextSequence && entries.size() < max; sequence++) {
+                    entries.add(ring[slotOf(sequence)]);
+                }
+                return entries;
+            }
+            spillPosition = locateSpilled(after + 1);
+        }
+        return readSpill(spillPosition, after, max);
+    }
+
+    /**
+     * Flushes and closes the spill file.
+     */
+    @PreDestroy
+    public synchronized void close() {
+        closeSpillOutput();
+        spilling = false;
+    }
+
+    /**
+     * Finds the spill segment holding an event and flushes it, so the event can be read without the lock.
+     * Must be called with the lock held.
+     */
+    private SpillPosition locateSpilled(long sequence) {
+        for (SpillSegment segment : spillSegments) {
+            if (sequence < segment.nextSequence) {
+                if (segment == spillSegments.peekLast()) {
+                    try {
+                        spillOutput.flush();
+                    } catch (IOException e) {
+                        disableSpilling("Failed to flush change feed spill file: " + e.getMessage());
+                        throw new IllegalStateException("Changes after sequence " + (sequence - 1) + " are no longer available");
+                    }
+                }
+                int index = (int) ((sequence - segment.firstSequence) / SPILL_INDEX_INTERVAL);
+                return new SpillPosition(segment.path, segment.offsets.get(index),
+                        segment.firstSequence + (long) index * SPILL_INDEX_INTERVAL, segment.nextSequence);
+            }
+        }
+        throw new IllegalStateException("Changes after sequence " + (sequence - 1) + " are no longer available");
+    }
+
+    /**
+     * Reads spilled events with sequence numbers after a position, without holding the lock of the feed.
+     */
+    private List<Entry> readSpill(SpillPosition position, long after, int max) {
+        List<Entry> entries = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(position.path(), StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel.position(position.offset())), StandardCharsets.UTF_8))) {
+            // Lines past endSequence may be incomplete, they are never read
+            for (long sequence = position.firstSequence(); sequence < position.endSequence() && entries.size() < max; sequence++) {
+                String line = reader.readLine();
+                if (line == null) {
+                    throw new IOException("Spill file ends before sequence " + sequence);
+                }
+                if (sequence > after) {
+                    int first = line.indexOf('\t');
+                    int second = line.indexOf('\t', first + 1);
+                    entries.add(new Entry(Long.parseLong(line.substring(0, first)), line.substring(first + 1, second), line.substring(second + 1)));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // The segment was deleted to keep the spilled events within their size limit
+            throw new IllegalStateException("Changes after sequence " + after + " are no longer available", e);
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("Failed to read change feed spill file: " + e.getMessage(), e);
+        }
+        return entries;
+    }
+
+    private void spill(Entry entry) {
+        if (!spilling) {
+            return;
+        }
+        try {
+            SpillSegment segment = spillSegments.peekLast();
+            if (segment == null || segment.size >= spillSegmentBytes) {
+                segment = startSegment(entry.sequence());
+            }
+            // Serialized JSON never contains raw tabs or line breaks
+            byte[] line = (entry.sequence() + "\t" + entry.type() + "\t" + entry.json() + "\n").getBytes(StandardCharsets.UTF_8);
+            if ((entry.sequence() - segment.firstSequence) % SPILL_INDEX_INTERVAL == 0) {
+                segment.offsets.add(segment.size);
+            }
+            spillOutput.write(line);
+            segment.size += line.length;
+            segment.nextSequence = entry.sequence() + 1;
+            spilledBytes += line.length;
+            while (spilledBytes > Settings.CHANGE_FEED_SPILL_MAX_BYTES && spillSegments.size() > 1) {
+                deleteSegment(spillSegments.removeFirst());
+            }
+        } catch (IOException e) {
+            disableSpilling("Failed to spill change event " + entry.sequence() + ", spilling disabled: " + e.getMessage());
+        }
+    }
+
+    private SpillSegment startSegment(long firstSequence) throws IOException {
+        closeSpillOutput();
+        SpillSegment segment = new SpillSegment(spillFile.resolveSibling(spillFile.getFileName() + "." + firstSequence), firstSequence);
+        spillOutput = new BufferedOutputStream(Files.newOutputStream(segment.path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+        spillSegments.addLast(segment);
+        return segment;
+    }
+
+    private void deleteSegment(SpillSegment segment) {
+        spilledBytes -= segment.size;
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            AppLogger.warn("Failed to delete change feed spill file " + segment.path + ": " + e.getMessage());
+        }
+    }
+
+    private void disableSpilling(String message) {
+        AppLogger.warn(message);
+        closeSpillOutput();
+        spilling = false;
+        while (!spillSegments.isEmpty()) {
+            deleteSegment(spillSegments.removeFirst());
+        }
+    }
+
+    private void closeSpillOutput() {
+        if (spillOutput != null) {
+            try {
+                spillOutput.close();
+            } catch (IOException e) {
+                AppLogger.warn("Failed to close change feed spill file: " + e.getMessage());
+            }
+            spillOutput = null;
+        }
+    }
+
+    /**
+     * Deletes the spill segments (spill file name followed by a sequence number) left by a previous run.
+     */
+    private void deleteOldSegments() throws IOException {
+        String prefix = spillFile.getFileName() + ".";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spillFile.getParent(), prefix + "*")) {
+            for (Path file : files) {
+                if (file.getFileName().toString().substring(prefix.length()).matches("[0-9]+")) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private long oldestAvailable() {
+        return spillSegments.isEmpty() ? oldestInRing() : spillSegments.peekFirst().firstSequence;
+    }
+
+    private long oldestInRing() {
+        return Math.max(1, nextSequence - ring.length);
+    }
+
+    private int slotOf(long sequence) {
+        return (int) ((sequence - 1) % ring.length);
+    }
+}
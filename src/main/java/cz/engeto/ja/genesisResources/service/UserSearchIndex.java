@@ -0,0 +1,196 @@
+package cz.engeto.ja.genesisResources.service;
+
+import cz.engeto.ja.genesisResources.model.UserBasicInfo;
+import cz.engeto.ja.genesisResources.model.UserSearchResult;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory index for prefix search of users by name and surname.
+ *
+ * Each field has a sorted map keyed by the folded value (lower case, diacritics removed, so "Novák"
+ * is found by "nova") followed by the zero-padded user ID. A prefix search is a range scan of the map
+ * and the last key of a page is the cursor of the next page (keyset paging).
+ * The index is filled from the repository on first use and kept in sync by the UserService.
+ */
+@Service
+public class UserSearchIndex {
+
+    /**
+     * Fields of a user that can be searched.
+     */
+    public enum Field {
+        NAME, SURNAME;
+
+        /**
+         * Parses a field name case-insensitively.
+         * @param value The field name
+         * @return The field, or null if the name is unknown
+         */
+        public static Field parse(String value) {
+            for (Field field : values()) {
+                if (field.name().equalsIgnoreCase(value)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Source of all users used to fill the index, passing them one by one so they need not be held in a list.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        void loadAll(Consumer<UserBasicInfo> index) throws Exception;
+    }
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final char KEY_SEPARATOR = '\u0000';
+    private static final char MAX_CHAR = '\uffff';
+
+    private final ConcurrentNavigableMap<String, UserBasicInfo> byName = new ConcurrentSkipListMap<>();
+    private final ConcurrentNavigableMap<String, UserBasicInfo> bySurname = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<Long, UserBasicInfo> indexedUsers = new ConcurrentHashMap<>(); // Currently indexed version of each user
+    private volatile boolean loaded;
+
+    /**
+     * Fills the index from a loader unless it is already filled.
+     * Changes of users wait while the index is being filled, so none of them is lost.
+     * @param loader Source of all users
+     * @return true if this call filled the index, false if it was already filled
+     * @throws Exception If the loader fails
+     */
+    public boolean ensureLoaded(Loader loader) throws Exception {
+        if (loaded) {
+            return false;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return false;
+            }
+            long startTime = System.nanoTime();
+            loader.loadAll(this::put);
+            loaded = true;
+            AppLogger.info("Search index built with " + indexedUsers.size() + " users in " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+            return true;
+        }
+    }
+
+    /**
+     * Checks whether the index has been filled.
+     * @return true if the index is filled
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Retrieves the indexed basic info of a user.
+     * @param id The ID of the user
+     * @return The basic info, or null if the user is not indexed
+     */
+    public UserBasicInfo get(Long id) {
+        return indexedUsers.get(id);
+    }
+
+    /**
+     * Adds a new user or replaces the indexed version of a changed user.
+     * @param user The current basic info of the user
+     */
+    public synchronized void put(UserBasicInfo user) {
+        remove(user.getId());
+        byName.put(key(user.getName(), user.getId()), user);
+        bySurname.put(key(user.getSurname(), user.getId()), user);
+        indexedUsers.put(user.getId(), user);
+    }
+
+    /**
+     * Removes a user from the index.
+     * @param id The ID of the user
+     */
+    public synchronized void remove(Long id) {
+        UserBasicInfo previous = indexedUsers.remove(id);
+        if (previous != null) {
+            byName.remove(key(previous.getName(), id));
+            bySurname.remove(key(previous.getSurname(), id));
+        }
+    }
+
+    /**
+     * Searches users whose field starts with a prefix, ignoring case and diacritics.
+     * Results are ordered by the folded field value and ID.
+     * @param field The field to search
+     * @param prefix The prefix to match
+     * @param cursor Cursor returned with the previous page, or null for the first page
+     * @param limit Maximum number of users to return
+     * @return One page of results
+     * @throws IllegalArgumentException If the cursor is invalid or does not belong to the prefix
+     */
+    public UserSearchResult search(Field field, String prefix, String cursor, int limit) {
+        String foldedPrefix = fold(prefix);
+        NavigableMap<String, UserBasicInfo> range = (field == Field.NAME ? byName : bySurname)
+                .subMap(foldedPrefix, true, foldedPrefix + MAX_CHAR, false);
+        if (cursor != null) {
+            String afterKey = decodeCursor(cursor);
+            if (!afterKey.startsWith(foldedPrefix)) {
+                throw new IllegalArgumentException("Cursor does not belong to this search");
+            }
+            range = range.tailMap(afterKey, false);
+        }
+
+        List<UserBasicInfo> users = new ArrayList<>(Math.min(limit, 64));
+        String lastKey = null;
+        boolean more = false;
+        for (Map.Entry<String, UserBasicInfo> entry : range.entrySet()) {
+            if (users.size() == limit) {
+                more = true;
+                break;
+            }
+            users.add(entry.getValue());
+            lastKey = entry.getKey();
+        }
+        return new UserSearchResult(users, more ? encodeCursor(lastKey) : null);
+    }
+
+    /**
+     * Normalizes a value for case and diacritics insensitive matching (e.g. "Žluťoučký" becomes "zlutoucky").
+     * @param value The value to fold, may be null
+     * @return The folded value, empty for null
+     */
+    static String fold(String value) {
+        if (value == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private static String key(String value, Long id) {
+        return fold(value) + KEY_SEPARATOR + String.format("%019d", id);
+    }
+
+    private static String encodeCursor(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+}
@@ -2,45 +2,101 @@ package cz.engeto.ja.genesisResources.service;
 
 import cz.engeto.ja.genesisResources.model.User;
 import cz.engeto.ja.genesisResources.model.UserBasicInfo;
-import cz.engeto.ja.genesisResources.util.Settings;
+import cz.engeto.ja.genesisResources.model.UserChangeEvent;
+import cz.engeto.ja.genesisResources.model.UserLookupResult;
+import cz.engeto.ja.genesisResources.model.UserSearchResult;
+import cz.engeto.ja.genesisResources.repository.StaleReads;
+import cz.engeto.ja.genesisResources.repository.UserRepository;
+import cz.engeto.ja.genesisResources.tracing.Span;
+import cz.engeto.ja.genesisResources.tracing.Tracer;
 import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.QueryProfiler;
+import cz.engeto.ja.genesisResources.util.Settings;
+import cz.engeto.ja.genesisResources.util.SingleFlight;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.sql.*;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Service class for managing users in the database.
  * Provides methods to create, retrieve, update, and delete users.
+ * The actual storage is delegated to the configured UserRepository.
  */
 @Service
 public class UserService {
 
-    private static final String CONNECTION_STRING = Settings.CONNECTION_STRING;
+    /**
+     * Result of a coalesced lookup. Whether it was served from the fallback cache travels with it,
+     * so callers that joined the lookup learn it too.
+     * @param user The user found, or null
+     * @param stale Whether the user may be stale
+     */
+    private record UserRead(User user, boolean stale) {
+        UserRead copy() {
+            return new UserRead(user == null ? null : new User(user), stale);
+        }
+    }
+
+    // Concurrent lookups of the same user share one query, waiting callers get their own copy of the result
+    private final SingleFlight<Long, UserRead> userByIdLookups = new SingleFlight<>(Settings.SINGLE_FLIGHT_TIMEOUT_MS, UserRead::copy);
+    private final SingleFlight<UUID, UserRead> userByUuidLookups = new SingleFlight<>(Settings.SINGLE_FLIGHT_TIMEOUT_MS, UserRead::copy);
+
+    // Writes of the same user are stored and published one at a time, so change events follow the order of the writes
+    private static final int WRITE_LOCK_STRIPES = 64;
+    private final ReentrantLock[] userWriteLocks = new ReentrantLock[WRITE_LOCK_STRIPES];
+
+    // Only an in-process store sees no writes from other instances or imports, so only then may lookups trust the search index
+    private static final boolean SEARCH_INDEX_AUTHORITATIVE = Settings.STORAGE_IN_PROCESS;
 
     @Autowired
     private PersonIdService personIdService;
 
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserVersionTracker userVersionTracker;
+
+    @Autowired
+    private UserSearchIndex userSearchIndex;
+
+    @Autowired
+    private UserChangeFeed userChangeFeed;
+
+    @Autowired
+    private QueryProfiler queryProfiler;
+
     /**
-     * Constructor to initialize the service with a PersonIdService instance.
+     * Constructor to initialize the service.
      * @param personIdService The PersonIdService instance to use
+     * @param userRepository The UserRepository holding the users
+     * @param userVersionTracker The UserVersionTracker notified about changes of users
+     * @param userSearchIndex The UserSearchIndex kept in sync with the users
+     * @param userChangeFeed The UserChangeFeed receiving changes of users
+     * @param queryProfiler The QueryProfiler counting looked up keys
      */
-    public UserService(PersonIdService personIdService) {
+    public UserService(PersonIdService personIdService, UserRepository userRepository, UserVersionTracker userVersionTracker,
+                       UserSearchIndex userSearchIndex, UserChangeFeed userChangeFeed, QueryProfiler queryProfiler) {
         this.personIdService = personIdService;
-    }
-
-    /**
-     * Establishes a database connection.
-     * @return Connection object to the database
-     * @throws SQLException If a database access error occurs
-     */
-    private Connection getConnection() throws SQLException {
-        AppLogger.info("Connecting to database...");
-        return DriverManager.getConnection(CONNECTION_STRING);
+        this.userRepository = userRepository;
+        this.userVersionTracker = userVersionTracker;
+        this.userSearchIndex = userSearchIndex;
+        this.userChangeFeed = userChangeFeed;
+        this.queryProfiler = queryProfiler;
+        for (int i = 0; i < userWriteLocks.length; i++) {
+            userWriteLocks[i] = new ReentrantLock();
+        }
     }
 
     /**
@@ -49,32 +105,32 @@ public class UserService {
      * @throws SQLException If a database access error occurs or the personID is already assigned to another user
      */
     public void createUser(User user) throws SQLException {
-        AppLogger.info("Creating user: " + user);
-        String sql = "INSERT INTO Users (name, surname, personID, uuid) VALUES (?, ?, ?, ?)";
-        try (Connection connection = getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-
-            // Check if personID is already assigned to another user
-            if (personIdService.isPersonIdUsedByOtherUser(user.getPersonID())) {
-                AppLogger.warn("PersonID " + user.getPersonID() + " already assigned to another user");
-                throw new SQLException("personID already assigned to another user");
-            }
-
-            statement.setString(1, user.getName());
-            statement.setString(2, user.getSurname());
-            statement.setString(3, user.getPersonID());
-            statement.setString(4, user.getUuid().toString());
-            statement.executeUpdate();
+        try (Span span = Tracer.startSpan("UserService.createUser")) {
+            AppLogger.info("Creating user: " + user);
+            try {
+                // Check if personID is already assigned to another user
+                if (personIdService.isPersonIdUsedByOtherUser(user.getPersonID())) {
+                    AppLogger.warn("PersonID " + user.getPersonID() + " already assigned to another user");
+                    throw new SQLException("personID already assigned to another user");
+                }
 
-            // Retrieve auto-generated ID from the database
-            ResultSet keys = statement.getGeneratedKeys();
-            if (keys.next()) {
-                user.setId(keys.getLong(1));
+                userRepository.createUser(user);
+                // The ID is only known once the user is stored, other writers learn it from the response at the earliest
+                ReentrantLock writeLock = writeLockOf(user.getId());
+                writeLock.lock();
+                try {
+                    userVersionTracker.userChanged(user.getId(), user.getUuid());
+                    userSearchIndex.put(UserBasicInfo.fromUser(user));
+                    userChangeFeed.publish(UserChangeEvent.Type.CREATED, user.getId(), user);
+                } finally {
+                    writeLock.unlock();
+                }
                 AppLogger.info("User created with ID: " + user.getId());
+            } catch (SQLException e) {
+                AppLogger.warn("Failed to create user: " + e.getMessage());
+                span.error(e);
+                throw new SQLException("Failed to create user", e);
             }
-        } catch (SQLException e) {
-            AppLogger.warn("Failed to create user: " + e.getMessage());
-            throw new SQLException("Failed to create user", e);
         }
     }
 
@@ -85,29 +141,23 @@ public class UserService {
      * @throws SQLException If a database access error occurs
      */
     public User getUserByPersonId(String personID) throws SQLException {
-        AppLogger.info("Retrieving user by personID: " + personID);
-        String sql = "SELECT * FROM Users WHERE personID = ?";
-        try (Connection connection = getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, personID);
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                User user = new User(
-                        resultSet.getLong("id"),
-                        resultSet.getString("name"),
-                        resultSet.getString("surname"),
-                        resultSet.getString("personID"),
-                        resultSet.getString("uuid")
-                );
-                AppLogger.info("User found: " + user);
-                return user;
+        try (Span span = Tracer.startSpan("UserService.getUserByPersonId")) {
+            AppLogger.info("Retrieving user by personID: " + personID);
+            queryProfiler.recordKey("personID", personID);
+            try {
+                User user = userRepository.getUserByPersonId(personID);
+                if (user != null) {
+                    AppLogger.info("User found: " + user);
+                    return user;
+                }
+            } catch (SQLException e) {
+                AppLogger.warn("Failed to retrieve user by personID: " + e.getMessage());
+                span.error(e);
+                throw new SQLException("Failed to retrieve user by personID", e);
             }
-        } catch (SQLException e) {
-            AppLogger.warn("Failed to retrieve user by personID: " + e.getMessage());
-            throw new SQLException("Failed to retrieve user by personID", e);
+            AppLogger.info("No user found with personID: " + personID);
+            return null;
         }
-        AppLogger.info("No user found with personID: " + personID);
-        return null;
     }
 
     /**
@@ -117,29 +167,23 @@ public class UserService {
      * @throws SQLException If a database access error occurs
      */
     public User getUserById(Long id) throws SQLException {
-        AppLogger.info("Retrieving user by ID: " + id);
-        String sql = "SELECT * FROM Users WHERE id = ?";
-        try (Connection connection = getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setLong(1, id);
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                User user = new User(
-                        resultSet.getLong("id"),
-                        resultSet.getString("name"),
-                        resultSet.getString("surname"),
-                        resultSet.getString("personID"),
-                        resultSet.getString("uuid")
-                );
-                AppLogger.info("User found: " + user);
-                return user;
+        try (Span span = Tracer.startSpan("UserService.getUserById").tag("user.id", id)) {
+            AppLogger.info("Retrieving user by ID: " + id);
+            queryProfiler.recordKey("id", id);
+            try {
+                User user = userOf(userByIdLookups.execute(id, () -> readUser(() -> userRepository.getUserById(id))));
+                if (user != null) {
+                    AppLogger.info("User found: " + user);
+                    return user;
+                }
+            } catch (SQLException e) {
+                AppLogger.warn("Failed to retrieve user by ID: " + e.getMessage());
+                span.error(e);
+                throw new SQLException("Failed to retrieve user by ID", e);
             }
-        } catch (SQLException e) {
-            AppLogger.warn("Failed to retrieve user by ID: " + e.getMessage());
-            throw new SQLException("Failed to retrieve user by ID", e);
+            AppLogger.info("No user found with ID: " + id);
+            return null;
         }
-        AppLogger.info("No user found with ID: " + id);
-        return null;
     }
 
     /**
@@ -149,19 +193,22 @@ public class UserService {
      * @throws SQLException If a database access error occurs
      */
     public UserBasicInfo getUserByIdSimple(Long id) throws SQLException {
-        try {
-            User user = getUserById(id);
-            if (user != null) {
-                UserBasicInfo userBasicInfo = UserBasicInfo.fromUser(user);
-                AppLogger.info("Basic info of user found: " + userBasicInfo);
-                return userBasicInfo;
+        try (Span span = Tracer.startSpan("UserService.getUserByIdSimple").tag("user.id", id)) {
+            try {
+                User user = getUserById(id);
+                if (user != null) {
+                    UserBasicInfo userBasicInfo = UserBasicInfo.fromUser(user);
+                    AppLogger.info("Basic info of user found: " + userBasicInfo);
+                    return userBasicInfo;
+                }
+            } catch (SQLException e) {
+                AppLogger.warn("Failed to retrieve user (basic info) by ID: " + e.getMessage());
+                span.error(e);
+                throw new SQLException("Failed to retrieve user (basic info) by ID", e);
             }
-        } catch (SQLException e) {
-            AppLogger.warn("Failed to retrieve user (basic info) by ID: " + e.getMessage());
-            throw new SQLException("Failed to retrieve user (basic info) by ID", e);
+            AppLogger.info("No basic info found for user with ID: " + id);
+            return null;
         }
-        AppLogger.info("No basic info found for user with ID: " + id);
-        return null;
     }
 
     /**
@@ -171,29 +218,117 @@ public class UserService {
      * @throws SQLException If a database access error occurs
      */
     public User getUserByUuid(UUID uuid) throws SQLException {
-        AppLogger.info("Retrieving user by UUID: " + uuid);
-        String sql = "SELECT * FROM Users WHERE uuid = ?";
-        try (Connection connection = getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, uuid.toString());
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                User user = new User(
-                        resultSet.getLong("id"),
-                        resultSet.getString("name"),
-                        resultSet.getString("surname"),
-                        resultSet.getString("personID"),
-                        resultSet.getString("uuid")
-                );
-                AppLogger.info("User found: " + user);
-                return user;
+        try (Span span = Tracer.startSpan("UserService.getUserByUuid")) {
+            AppLogger.info("Retrieving user by UUID: " + uuid);
+            queryProfiler.recordKey("uuid", uuid);
+            try {
+                User user = userOf(userByUuidLookups.execute(uuid, () -> readUser(() -> userRepository.getUserByUuid(uuid))));
+                if (user != null) {
+                    userVersionTracker.rememberUuid(user.getUuid(), user.getId());
+                    AppLogger.info("User found: " + user);
+                    return user;
+                }
+            } catch (SQLException e) {
+                AppLogger.warn("Failed to retrieve user by UUID: " + e.getMessage());
+                span.error(e);
+                throw new SQLException("Failed to retrieve user by UUID", e);
+            }
+            AppLogger.info("No user found with UUID: " + uuid);
+            return null;
+        }
+    }
+
+    /**
+     * Looks up many users at once by ID, UUID and personID.
+     * With an in-process storage engine, basic info of users known to the search index is served from memory.
+     * All other keys are looked up in the repository with a single call, as the index of a MySQL backed instance
+     * misses writes of other instances and of bulk imports.
+     * @param ids The IDs to look up
+     * @param uuids The UUIDs to look up
+     * @param personIDs The personIDs to look up
+     * @param detail Whether full User objects or basic info are returned
+     * @return For each list of keys the users in the order of the keys, null where no user was found
+     * @throws SQLException If a database access error occurs
+     */
+    public UserLookupResult<Object> lookupUsers(List<Long> ids, List<UUID> uuids, List<String> personIDs, boolean detail) throws SQLException {
+        try (Span span = Tracer.startSpan("UserService.lookupUsers").tag("lookup.keys", ids.size() + uuids.size() + personIDs.size())) {
+            AppLogger.info("Looking up " + ids.size() + " IDs, " + uuids.size() + " UUIDs and " + personIDs.size() + " personIDs");
+            Map<Long, Object> byId = new HashMap<>();
+            Map<UUID, Object> byUuid = new HashMap<>();
+            Map<String, Object> byPersonId = new HashMap<>();
+            Set<Long> missingIds = new LinkedHashSet<>();
+            Set<UUID> missingUuids = new LinkedHashSet<>();
+            for (Long id : ids) {
+                queryProfiler.recordKey("id", id);
+                UserBasicInfo indexed = detail || !SEARCH_INDEX_AUTHORITATIVE ? null : userSearchIndex.get(id);
+                if (indexed != null) {
+                    byId.put(id, indexed);
+                } else {
+                    missingIds.add(id);
+                }
+            }
+            for (UUID uuid : uuids) {
+                queryProfiler.recordKey("uuid", uuid);
+                Long knownId = detail || !SEARCH_INDEX_AUTHORITATIVE ? null : userVersionTracker.getIdByUuid(uuid);
+                UserBasicInfo indexed = knownId == null ? null : userSearchIndex.get(knownId);
+                if (indexed != null) {
+                    byUuid.put(uuid, indexed);
+                } else {
+                    missingUuids.add(uuid);
+                }
+            }
+            Set<String> missingPersonIds = new LinkedHashSet<>(personIDs);
+            for (String personID : personIDs) {
+                queryProfiler.recordKey("personID", personID);
+            }
+            int fromMemory = byId.size() + byUuid.size();
+            if (!missingIds.isEmpty() || !missingUuids.isEmpty() || !missingPersonIds.isEmpty()) {
+                try {
+                    for (User user : userRepository.getUsersByKeys(missingIds, missingUuids, missingPersonIds)) {
+                        Object value = detail ? user : UserBasicInfo.fromUser(user);
+                        if (missingIds.contains(user.getId())) {
+                            byId.put(user.getId(), value);
+                        }
+                        if (missingUuids.contains(user.getUuid())) {
+                            byUuid.put(user.getUuid(), value);
+                        }
+                        if (missingPersonIds.contains(user.getPersonID())) {
+                            byPersonId.put(user.getPersonID(), value);
+                        }
+                        userVersionTracker.rememberUuid(user.getUuid(), user.getId());
+                    }
+                } catch (SQLException e) {
+                    AppLogger.warn("Failed to look up users: " + e.getMessage());
+                    span.error(e);
+                    throw new SQLException("Failed to look up users", e);
+                }
             }
-        } catch (SQLException e) {
-            AppLogger.warn("Failed to retrieve user by UUID: " + e.getMessage());
-            throw new SQLException("Failed to retrieve user by UUID", e);
+            List<Object> usersById = inRequestOrder(ids, byId);
+            List<Object> usersByUuid = inRequestOrder(uuids, byUuid);
+            List<Object> usersByPersonId = inRequestOrder(personIDs, byPersonId);
+            int notFound = ids.size() + uuids.size() + personIDs.size()
+                    - countFound(usersById) - countFound(usersByUuid) - countFound(usersByPersonId);
+            AppLogger.info("Lookup answered, " + fromMemory + " keys from memory, " + notFound + " keys not found");
+            return new UserLookupResult<>(usersById, usersByUuid, usersByPersonId, notFound);
         }
-        AppLogger.info("No user found with UUID: " + uuid);
-        return null;
+    }
+
+    private static <K> List<Object> inRequestOrder(List<K> keys, Map<K, Object> found) {
+        List<Object> users = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            users.add(found.get(key));
+        }
+        return users;
+    }
+
+    private static int countFound(List<Object> users) {
+        int found = 0;
+        for (Object user : users) {
+            if (user != null) {
+                found++;
+            }
+        }
+        return found;
     }
 
     /**
@@ -202,28 +337,19 @@ public class UserService {
      * @throws SQLException If a database access error occurs
      */
     public List<User> getAllUsers() throws SQLException {
-        AppLogger.info("Retrieving all users");
-        List<User> allUsers = new ArrayList<>();
-        String sql = "SELECT * FROM Users";
-        try (Connection connection = getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql);
-             ResultSet resultSet = statement.executeQuery()) {
-            while (resultSet.next()) {
-                User user = new User(
-                        resultSet.getLong("id"),
-                        resultSet.getString("name"),
-                        resultSet.getString("surname"),
-                        resultSet.getString("personID"),
-                        resultSet.getString("uuid")
-                );
-                allUsers.add(user);
+        try (Span span = Tracer.startSpan("UserService.getAllUsers")) {
+            AppLogger.info("Retrieving all users");
+            List<User> allUsers;
+            try {
+                allUsers = userRepository.getAllUsers();
+            } catch (SQLException e) {
+                AppLogger.warn("Failed to retrieve all users: " + e.getMessage());
+                span.error(e);
+                throw new SQLException("Failed to retrieve all users (full info)", e);
             }
-        } catch (SQLException e) {
-            AppLogger.warn("Failed to retrieve all users: " + e.getMessage());
-            throw new SQLException("Failed to retrieve all users (full info)", e);
+            AppLogger.info("All users retrieved: " + allUsers);
+            return allUsers;
         }
-        AppLogger.info("All users retrieved: " + allUsers);
-        return allUsers;
     }
 
     /**
@@ -232,26 +358,46 @@ public class UserService {
      * @throws SQLException If a database access error occurs
      */
     public List<UserBasicInfo> getAllUsersSimple() throws SQLException {
-        AppLogger.info("Retrieving all users (basic info)");
-        List<UserBasicInfo> allUsers = new ArrayList<>();
-        String sql = "SELECT id, name, surname FROM Users";
-        try (Connection connection = getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql);
-             ResultSet resultSet = statement.executeQuery()) {
-            while (resultSet.next()) {
-                UserBasicInfo userBasicInfo = new UserBasicInfo(
-                        resultSet.getLong("id"),
-                        resultSet.getString("name"),
-                        resultSet.getString("surname")
-                );
-                allUsers.add(userBasicInfo);
+        try (Span span = Tracer.startSpan("UserService.getAllUsersSimple")) {
+            AppLogger.info("Retrieving all users (basic info)");
+            List<UserBasicInfo> allUsers;
+            try {
+                allUsers = userRepository.getAllUsersSimple();
+            } catch (SQLException e) {
+                AppLogger.warn("Failed to retrieve all users (basic info): " + e.getMessage());
+                span.error(e);
+                throw new SQLException("Failed to retrieve all users (basic info)", e);
             }
-        } catch (SQLException e) {
-            AppLogger.warn("Failed to retrieve all users (basic info): " + e.getMessage());
-            throw new SQLException("Failed to retrieve all users (basic info)", e);
+            AppLogger.info("All users (basic info) retrieved: " + allUsers);
+            return allUsers;
+        }
+    }
+
+    /**
+     * Searches users by a prefix of their name or surname, ignoring case and diacritics.
+     * The search is answered from the in-memory UserSearchIndex, which is filled on first use.
+     * @param field The field to search
+     * @param prefix The prefix to match
+     * @param cursor Cursor of the next page returned by the previous search, or null
+     * @param limit Maximum number of users to return
+     * @return One page of matching users
+     * @throws SQLException If the index cannot be filled from the database
+     * @throws IllegalArgumentException If the cursor is invalid
+     */
+    public UserSearchResult searchUsers(UserSearchIndex.Field field, String prefix, String cursor, int limit) throws SQLException {
+        try (Span span = Tracer.startSpan("UserService.searchUsers")) {
+            AppLogger.info("Searching users by " + field + " prefix: " + prefix);
+            try {
+                userSearchIndex.ensureLoaded(index -> userRepository.forEachUser(user -> index.accept(UserBasicInfo.fromUser(user))));
+            } catch (Exception e) {
+                AppLogger.warn("Failed to build search index: " + e.getMessage());
+                span.error(e);
+                throw new SQLException("Failed to build search index", e);
+            }
+            UserSearchResult result = userSearchIndex.search(field, prefix, cursor, limit);
+            AppLogger.info("Found " + result.getUsers().size() + " users by " + field + " prefix: " + prefix);
+            return result;
         }
-        AppLogger.info("All users (basic info) retrieved: " + allUsers);
-        return allUsers;
     }
 
     /**
@@ -260,19 +406,27 @@ public class UserService {
      * @throws SQLException If a database access error occurs
      */
     public void updateUser(User user) throws SQLException {
-        AppLogger.info("Present user: " + getUserById(user.getId()));
-        AppLogger.info("Updating user: " + user);
-        String sql = "UPDATE Users SET name = ?, surname = ? WHERE id = ?";
-        try (Connection connection = getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, user.getName());
-            statement.setString(2, user.getSurname());
-            statement.setLong(3, user.getId());
-            statement.executeUpdate();
-            AppLogger.info("User updated: " + UserBasicInfo.fromUser(user));
-        } catch (SQLException e) {
-            AppLogger.warn("Failed to update user: " + e.getMessage());
-            throw new SQLException("Failed to update user", e);
+        try (Span span = Tracer.startSpan("UserService.updateUser").tag("user.id", user.getId())) {
+            AppLogger.info("Present user: " + getUserById(user.getId()));
+            AppLogger.info("Updating user: " + user);
+            try {
+                ReentrantLock writeLock = writeLockOf(user.getId());
+                writeLock.lock();
+                try {
+                    userRepository.updateUser(user);
+                    forgetLookupsInFlight(user.getId(), user.getUuid());
+                    userVersionTracker.userChanged(user.getId(), user.getUuid());
+                    userSearchIndex.put(UserBasicInfo.fromUser(user));
+                    userChangeFeed.publish(UserChangeEvent.Type.UPDATED, user.getId(), user);
+                } finally {
+                    writeLock.unlock();
+                }
+                AppLogger.info("User updated: " + UserBasicInfo.fromUser(user));
+            } catch (SQLException e) {
+                AppLogger.warn("Failed to update user: " + e.getMessage());
+                span.error(e);
+                throw new SQLException("Failed to update user", e);
+            }
         }
     }
 
@@ -282,16 +436,77 @@ public class UserService {
      * @throws SQLException If a database access error occurs
      */
     public void deleteUser(Long id) throws SQLException {
-        AppLogger.info("Deleting user with ID: " + id);
-        String sql = "DELETE FROM Users WHERE id = ?";
-        try (Connection connection = getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setLong(1, id);
-            statement.executeUpdate();
-            AppLogger.info("User deleted with ID: " + id);
-        } catch (SQLException e) {
-            AppLogger.warn("Failed to delete user: " + e.getMessage());
-            throw new SQLException("Failed to delete user", e);
+        try (Span span = Tracer.startSpan("UserService.deleteUser").tag("user.id", id)) {
+            AppLogger.info("Deleting user with ID: " + id);
+            try {
+                ReentrantLock writeLock = writeLockOf(id);
+                writeLock.lock();
+                try {
+                    userRepository.deleteUser(id);
+                    forgetLookupsInFlight(id, null);
+                    userVersionTracker.userDeleted(id);
+                    userSearchIndex.remove(id);
+                    userChangeFeed.publish(UserChangeEvent.Type.DELETED, id, null);
+                } finally {
+                    writeLock.unlock();
+                }
+                AppLogger.info("User deleted with ID: " + id);
+            } catch (SQLException e) {
+                AppLogger.warn("Failed to delete user: " + e.getMessage());
+                span.error(e);
+                throw new SQLException("Failed to delete user", e);
+            }
+        }
+    }
+
+    /**
+     * Runs the lookup of a single user, remembering whether it was served from the fallback cache.
+     */
+    private static UserRead readUser(SingleFlight.Lookup<User> lookup) throws SQLException {
+        User user = lookup.load();
+        return new UserRead(user, StaleReads.wereServed());
+    }
+
+    /**
+     * Takes the user out of a coalesced lookup, marking the calling thread if the user may be stale.
+     */
+    private static User userOf(UserRead read) {
+        if (read.stale()) {
+            StaleReads.markServed();
         }
+        return read.user();
+    }
+
+    /**
+     * Keeps requests arriving after a stored change from joining lookups of the user that began before it.
+     * Must run before the version is bumped, as the new ETag is read before the lookup.
+     * @param id The ID of the changed user
+     * @param uuid The UUID of the changed user, or null if unknown, then all UUID lookups in flight are dropped
+     */
+    private void forgetLookupsInFlight(Long id, UUID uuid) {
+        userByIdLookups.forget(id);
+        if (uuid != null) {
+            userByUuidLookups.forget(uuid);
+        } else {
+            userByUuidLookups.forgetAll();
+        }
+    }
+
+    /**
+     * Retrieves the lock serializing writes of a user with the given ID.
+     */
+    private ReentrantLock writeLockOf(Long id) {
+        return userWriteLocks[Math.floorMod(Long.hashCode(id), userWriteLocks.length)];
+    }
+
+    /**
+     * Retrieves the request coalescing metrics of user lookups.
+     * @return Map of metrics per lookup type
+     */
+    public Map<String, Object> getLookupMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("userById", userByIdLookups.getMetrics());
+        metrics.put("userByUuid", userByUuidLookups.getMetrics());
+        return metrics;
     }
 }
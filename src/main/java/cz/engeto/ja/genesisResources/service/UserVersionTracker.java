@@ -0,0 +1,332 @@
+package cz.engeto.ja.genesisResources.service;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.model.UserBasicInfo;
+import cz.engeto.ja.genesisResources.util.Settings;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Service tracking versions of user resources for HTTP conditional requests.
+ * Every change of a user bumps the version of that user and of the user collection,
+ * so ETags can be computed without reading the user from the database.
+ * Versions live in memory only, the epoch part of the ETag makes them unique across restarts.
+ * They are only authoritative when the storage is in-process, with a shared database other instances
+ * and imports change users unseen, so there ETags are computed from the content that was read instead.
+ */
+@Service
+public class UserVersionTracker {
+
+    /**
+     * Version of a single resource together with the time of its last change.
+     * @param version The version counter
+     * @param lastModified Time of the last change in milliseconds since the epoch
+     */
+    private record Version(long version, long lastModified) {
+        Version next() {
+            return new Version(version + 1, Math.max(System.currentTimeMillis(), lastModified));
+        }
+    }
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final boolean authoritative;
+    private final int maxTrackedUsers;
+    private final String epoch; // Distinguishes ETags issued by different application runs
+    // Versions of all users are drawn from one clock, so a version is never issued twice, not even for different users
+    private final AtomicLong clock = new AtomicLong();
+    // Version of every user without an entry; replaced by a fresh one whenever entries are dropped,
+    // so a dropped user never falls back to an ETag it already had before its last change
+    private final AtomicReference<Version> untrackedVersion;
+    private final ConcurrentMap<Long, Version> userVersions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, Long> idsByUuid = new ConcurrentHashMap<>(); // uuid -> id learned from served users
+    private final ConcurrentMap<Long, UUID> uuidsById = new ConcurrentHashMap<>(); // reverse of idsByUuid, to forget deleted users
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicReference<Version> collectionVersion;
+
+    /**
+     * Constructor initializing all versions to the startup time.
+     */
+    public UserVersionTracker() {
+        this(Settings.STORAGE_IN_PROCESS, Settings.ETAG_MAX_TRACKED_USERS);
+    }
+
+    /**
+     * Constructor initializing all versions to the startup time.
+     * @param authoritative Whether this process sees every change of users
+     * @param maxTrackedUsers Maximum number of users with their own version
+     */
+    public UserVersionTracker(boolean authoritative, int maxTrackedUsers) {
+        this.authoritative = authoritative;
+        this.maxTrackedUsers = maxTrackedUsers;
+        this.epoch = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+        Version initialVersion = new Version(0, System.currentTimeMillis() / 1000 * 1000);
+        this.untrackedVersion = new AtomicReference<>(initialVersion);
+        this.collectionVersion = new AtomicReference<>(initialVersion);
+    }
+
+    /**
+     * Checks whether the tracked versions cover every change of users.
+     * @return true if version ETags can be computed before reading, false if they must be computed from the content
+     */
+    public boolean isAuthoritative() {
+        return authoritative;
+    }
+
+    /**
+     * Records a change of a user. Called after the change was stored.
+     * @param id The ID of the changed user
+     * @param uuid The UUID of the changed user, may be null if unknown
+     */
+    public void userChanged(Long id, UUID uuid) {
+        userVersions.compute(id, (key, version) -> new Version(clock.incrementAndGet(),
+                Math.max(System.currentTimeMillis(), version == null ? 0 : version.lastModified())));
+        collectionVersion.updateAndGet(Version::next);
+        if (uuid != null) {
+            rememberUuid(uuid, id);
+        }
+        if (userVersions.size() > maxTrackedUsers) {
+            evictVersions();
+        }
+    }
+
+    /**
+     * Records the deletion of a user and forgets everything known about it. Called after the user was deleted.
+     * @param id The ID of the deleted user
+     */
+    public void userDeleted(Long id) {
+        // The fresh untracked version is in place before the entry goes, so the user never shows an ETag it had before
+        renewUntrackedVersion();
+        userVersions.remove(id);
+        collectionVersion.updateAndGet(Version::next);
+        UUID uuid = uuidsById.remove(id);
+        if (uuid != null) {
+            idsByUuid.remove(uuid, id);
+        }
+    }
+
+    /**
+     * Remembers which user ID belongs to a UUID so that UUID lookups can be validated without the database.
+     * @param uuid The UUID of the user
+     * @param id The ID of the user
+     */
+    public void rememberUuid(UUID uuid, Long id) {
+        idsByUuid.put(uuid, id);
+        uuidsById.put(id, uuid);
+        if (idsByUuid.size() > maxTrackedUsers) {
+            evictUuids();
+        }
+    }
+
+    /**
+     * Retrieves the user ID known for a UUID.
+     * @param uuid The UUID of the user
+     * @return The ID of the user, or null if the UUID was not seen yet
+     */
+    public Long getIdByUuid(UUID uuid) {
+        return idsByUuid.get(uuid);
+    }
+
+    /**
+     * Computes the strong ETag of a user resource from its version.
+     * Must be called before the user is read, so that a concurrent change never gets an old ETag attached to new data.
+     * @param id The ID of the user
+     * @param representation Name of the representation (e.g. basic or detail)
+     * @return The quoted ETag value, or null if the versions are not authoritative
+     */
+    public String getUserETag(Long id, String representation) {
+        if (!authoritative) {
+            return null;
+        }
+        return "\"" + epoch + "-u" + id + "-" + userVersion(id).version() + "-" + representation + "\"";
+    }
+
+    /**
+     * Retrieves the time of the last change of a user.
+     * @param id The ID of the user
+     * @return Time in milliseconds since the epoch, or -1 if the versions are not authoritative
+     */
+    public long getUserLastModified(Long id) {
+        return authoritative ? userVersion(id).lastModified() : -1;
+    }
+
+    /**
+     * Computes the strong ETag of the user collection from its version.
+     * @param representation Name of the representation (e.g. basic or detail)
+     * @return The quoted ETag value, or null if the versions are not authoritative
+     */
+    public String getCollectionETag(String representation) {
+        if (!authoritative) {
+            return null;
+        }
+        return "\"" + epoch + "-c" + collectionVersion.get().version() + "-" + representation + "\"";
+    }
+
+    /**
+     * Retrieves the time of the last change of any user.
+     * @return Time in milliseconds since the epoch, or -1 if the versions are not authoritative
+     */
+    public long getCollectionLastModified() {
+        return authoritative ? collectionVersion.get().lastModified() : -1;
+    }
+
+    /**
+     * Computes the strong ETag of a user or a list of users from the content that was read.
+     * Every field is hashed with its length, so different contents only share an ETag by a hash collision.
+     * The ETag does not depend on the application run, so it stays valid across restarts and instances.
+     * @param representation Name of the representation (e.g. basic or detail)
+     * @param content A User, a UserBasicInfo or a list of them
+     * @return The quoted ETag value
+     */
+    public String getContentETag(String representation, Object content) {
+        long hash = hashContent(FNV_OFFSET_BASIS, content);
+        return "\"h" + Long.toUnsignedString(hash, 36) + "-" + representation + "\"";
+    }
+
+    /**
+     * Checks whether an If-None-Match header matches the current ETag of an existing resource.
+     * @param ifNoneMatch Value of the If-None-Match header, may be null
+     * @param eTag The current quoted ETag, may be null if the resource has none
+     * @return true if the client already has the current representation or asked with If-None-Match: *
+     */
+    public boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch != null && ifNoneMatch.trim().equals("*")) {
+            return true;
+        }
+        return matchesListed(ifNoneMatch, eTag);
+    }
+
+    /**
+     * Checks whether the current ETag is one of the entity tags listed in an If-None-Match header.
+     * Unlike {@link #matches} it ignores If-None-Match: *, so it can be used before the resource is known to exist.
+     * @param ifNoneMatch Value of the If-None-Match header, may be null
+     * @param eTag The current quoted ETag, may be null if the resource has none
+     * @return true if the client already has the current representation
+     */
+    public boolean matchesListed(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null || ifNoneMatch.isEmpty() || eTag == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2); // If-None-Match uses weak comparison
+            }
+            if (tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Version userVersion(Long id) {
+        Version version = userVersions.get(id);
+        return version != null ? version : untrackedVersion.get();
+    }
+
+    /**
+     * Replaces the version of untracked users by one that was never issued.
+     * @return The version counter of the new untracked version
+     */
+    private long renewUntrackedVersion() {
+        Version renewed = new Version(clock.incrementAndGet(), System.currentTimeMillis());
+        return untrackedVersion.accumulateAndGet(renewed, (current, next) -> next.version() > current.version() ? next : current).version();
+    }
+
+    /**
+     * Drops a quarter of the tracked versions once there are too many. Only versions older than the renewed
+     * untracked version are dropped, a user changed meanwhile could have had that untracked version before its change.
+     */
+    private void evictVersions() {
+        if (!evictionLock.tryLock()) {
+            return; // Another thread is already making room
+        }
+        try {
+            long untracked = renewUntrackedVersion();
+            int target = maxTrackedUsers - maxTrackedUsers / 4;
+            Iterator<Map.Entry<Long, Version>> entries = userVersions.entrySet().iterator();
+            while (userVersions.size() > target && entries.hasNext()) {
+                Map.Entry<Long, Version> entry = entries.next();
+                if (entry.getValue().version() < untracked) {
+                    userVersions.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Forgets a quarter of the known UUIDs once there are too many. They are only a shortcut to the ID,
+     * a forgotten UUID is learned again the next time its user is served.
+     */
+    private void evictUuids() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            int target = maxTrackedUsers - maxTrackedUsers / 4;
+            Iterator<Map.Entry<UUID, Long>> entries = idsByUuid.entrySet().iterator();
+            while (idsByUuid.size() > target && entries.hasNext()) {
+                Map.Entry<UUID, Long> entry = entries.next();
+                if (idsByUuid.remove(entry.getKey(), entry.getValue())) {
+                    uuidsById.remove(entry.getValue(), entry.getKey());
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static long hashContent(long hash, Object content) {
+        if (content instanceof List<?> list) {
+            hash = hashLong(hash, list.size());
+            for (Object element : list) {
+                hash = hashContent(hash, element);
+            }
+            return hash;
+        }
+        if (content instanceof User user) {
+            hash = hashLong(hash, user.getId() == null ? -1 : user.getId());
+            hash = hashString(hash, user.getUuid() == null ? null : user.getUuid().toString());
+            hash = hashString(hash, user.getPersonID());
+            hash = hashString(hash, user.getName());
+            return hashString(hash, user.getSurname());
+        }
+        if (content instanceof UserBasicInfo user) {
+            hash = hashLong(hash, user.getId() == null ? -1 : user.getId());
+            hash = hashString(hash, user.getName());
+            return hashString(hash, user.getSurname());
+        }
+        return hashString(hash, String.valueOf(content));
+    }
+
+    private static long hashString(long hash, String value) {
+        if (value == null) {
+            return hashLong(hash, -1);
+        }
+        hash = hashLong(hash, value.length());
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long hashLong(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 16) {
+            hash = (hash ^ ((value >>> shift) & 0xffff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
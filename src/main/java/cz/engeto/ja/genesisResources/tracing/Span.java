@@ -0,0 +1,155 @@
+package cz.engeto.ja.genesisResources.tracing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A timed operation within a trace. Spans are started by the Tracer and ended by close(),
+ * preferably in a try-with-resources block on the thread that started them.
+ * Spans that are not sampled record nothing.
+ */
+public final class Span implements AutoCloseable {
+
+    /**
+     * Span returned when nothing is traced. Closing it has no effect.
+     */
+    static final Span NOOP = new Span(null, null, null, null, false, null);
+
+    private final String traceId;
+    private final String spanId;
+    private final String parentId;
+    private final String name;
+    private final boolean sampled;
+    private final Span previous; // Span current on the thread before this one, restored on close
+    private final long startMicros;
+    private final long startNanos;
+    private long durationMicros;
+    private Map<String, String> tags;
+    private boolean ended;
+
+    Span(String traceId, String spanId, String parentId, String name, boolean sampled, Span previous) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentId = parentId;
+        this.name = name;
+        this.sampled = sampled;
+        this.previous = previous;
+        this.startMicros = System.currentTimeMillis() * 1000;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Adds a tag to the span.
+     * @param key Name of the tag
+     * @param value Value of the tag, converted to a string
+     * @return This span
+     */
+    public Span tag(String key, Object value) {
+        if (sampled && !ended) {
+            if (tags == null) {
+                tags = new LinkedHashMap<>();
+            }
+            tags.put(key, String.valueOf(value));
+        }
+        return this;
+    }
+
+    /**
+     * Marks the span as failed.
+     * @param error The error of the operation
+     * @return This span
+     */
+    public Span error(Throwable error) {
+        return tag("error", error.getClass().getSimpleName() + ": " + error.getMessage());
+    }
+
+    /**
+     * Retrieves the ID of the trace the span belongs to.
+     * @return The trace ID, or null for the no-op span
+     */
+    public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Retrieves the ID of the span.
+     * @return The span ID, or null for the no-op span
+     */
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * Checks whether the span is recorded and exported.
+     * @return true if the span is sampled
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * Ends the span and makes its parent the current span again.
+     */
+    @Override
+    public void close() {
+        if (this == NOOP || ended) {
+            return;
+        }
+        durationMicros = Math.max(1, (System.nanoTime() - startNanos) / 1000);
+        ended = true;
+        Tracer.finish(this);
+    }
+
+    Span getPrevious() {
+        return previous;
+    }
+
+    /**
+     * Serializes the span in the Zipkin v2 JSON format.
+     * @param serviceName Name of the service reported as the local endpoint
+     * @return One JSON object
+     */
+    String toJson(String serviceName) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"traceId\":\"").append(traceId).append("\",\"id\":\"").append(spanId).append('"');
+        if (parentId != null) {
+            json.append(",\"parentId\":\"").append(parentId).append('"');
+        }
+        json.append(",\"name\":");
+        appendString(json, name);
+        json.append(",\"timestamp\":").append(startMicros).append(",\"duration\":").append(durationMicros);
+        json.append(",\"localEndpoint\":{\"serviceName\":");
+        appendString(json, serviceName);
+        json.append('}');
+        if (tags != null) {
+            json.append(",\"tags\":{");
+            boolean first = true;
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendString(json, tag.getKey());
+                json.append(':');
+                appendString(json, tag.getValue());
+            }
+            json.append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
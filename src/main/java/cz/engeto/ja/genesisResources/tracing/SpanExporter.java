@@ -0,0 +1,149 @@
+package cz.engeto.ja.genesisResources.tracing;
+
+import cz.engeto.ja.genesisResources.util.AppLogger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exports ended spans in batches from a background thread.
+ * Spans are written as JSON lines to a file and/or posted as JSON arrays to a Zipkin compatible collector
+ * (e.g. http://localhost:9411/api/v2/spans). The queue is bounded: when the exporter cannot keep up,
+ * spans are dropped rather than slowing down requests.
+ */
+class SpanExporter {
+
+    private static final int BATCH_SIZE = 512;
+
+    private final String serviceName;
+    private final BlockingQueue<Span> queue;
+    private final Path file;
+    private final URI collector;
+    private final HttpClient httpClient;
+    private final Thread thread;
+    private final LongAdder exported = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean running = true;
+
+    /**
+     * Constructor starting the export thread.
+     * @param serviceName Name of the service reported with each span
+     * @param capacity Maximum number of spans waiting for export
+     * @param file File to append spans to, or null
+     * @param collectorUrl URL of the collector to post spans to, or null
+     */
+    SpanExporter(String serviceName, int capacity, Path file, String collectorUrl) {
+        this.serviceName = serviceName;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.file = file;
+        this.collector = collectorUrl == null ? null : URI.create(collectorUrl);
+        this.httpClient = collector == null ? null : HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+        this.thread = new Thread(this::run, "trace-exporter");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a span for export without blocking.
+     * @param span The ended span
+     */
+    void export(Span span) {
+        if (!queue.offer(span)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Exports the queued spans and stops the export thread.
+     */
+    void shutdown() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("exportedSpans", exported.sum());
+        metrics.put("droppedSpans", dropped.sum());
+        metrics.put("queuedSpans", queue.size());
+        return metrics;
+    }
+
+    private void run() {
+        List<Span> batch = new ArrayList<>(BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                Span first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                // Interrupted by shutdown(), drain the rest of the queue
+            }
+            queue.drainTo(batch, BATCH_SIZE - batch.size());
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Span> batch) {
+        List<String> spans = new ArrayList<>(batch.size());
+        for (Span span : batch) {
+            spans.add(span.toJson(serviceName));
+        }
+        try {
+            if (file != null) {
+                try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    for (String span : spans) {
+                        writer.write(span);
+                        writer.write('\n');
+                    }
+                }
+            }
+            if (collector != null) {
+                HttpRequest request = HttpRequest.newBuilder(collector)
+                        .timeout(Duration.ofSeconds(5))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("[" + String.join(",", spans) + "]"))
+                        .build();
+                HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() >= 300) {
+                    throw new IOException("Collector responded with status " + response.statusCode());
+                }
+            }
+            exported.add(batch.size());
+        } catch (IOException e) {
+            dropped.add(batch.size());
+            AppLogger.warn("Failed to export " + batch.size() + " trace spans: " + e.getMessage());
+        } catch (InterruptedException e) {
+            dropped.add(batch.size());
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package cz.engeto.ja.genesisResources.tracing;
+
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.Settings;
+
+import org.slf4j.MDC;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Entry point of the tracing subsystem.
+ *
+ * A trace is started per request by startTrace(), nested operations open child spans with startSpan().
+ * The current span is kept per thread, its trace ID is put into the logging MDC as "traceId",
+ * so every log line written by AppLogger during a request carries the ID of its trace.
+ * Whether a trace is recorded is decided once at its start, by the sampling rate and a cap of
+ * sampled traces per second; spans of traces that are not sampled cost close to nothing.
+ * Sampled spans are exported in the Zipkin v2 format to a file and/or a collector.
+ */
+public final class Tracer {
+
+    /**
+     * Name of the MDC key holding the current trace ID.
+     */
+    public static final String MDC_TRACE_ID = "traceId";
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    private static final SpanExporter EXPORTER = createExporter();
+    private static final LongAdder TRACES = new LongAdder();
+    private static final LongAdder SAMPLED = new LongAdder();
+
+    private static long sampleWindow; // Current second of the per-second cap
+    private static int sampledInWindow;
+
+    private Tracer() {
+    }
+
+    /**
+     * Starts a trace, or continues a trace propagated by the caller in a W3C traceparent header.
+     * The trace becomes current on this thread until the returned span is closed.
+     * @param name Name of the root span
+     * @param traceparent Value of the traceparent header, may be null
+     * @return The root span of the trace
+     */
+    public static Span startTrace(String name, String traceparent) {
+        String traceId = null;
+        String parentId = null;
+        boolean parentSampled = true;
+        if (traceparent != null && traceparent.length() == 55 && traceparent.startsWith("00-")) {
+            // 00-<32 hex trace ID>-<16 hex parent span ID>-<2 hex flags>
+            traceId = traceparent.substring(3, 35);
+            parentId = traceparent.substring(36, 52);
+            parentSampled = (Character.digit(traceparent.charAt(54), 16) & 1) == 1;
+        }
+        if (traceId == null || !isHex(traceId) || !isHex(parentId)) {
+            traceId = randomHex(2);
+            parentId = null;
+            parentSampled = true;
+        }
+        TRACES.increment();
+        boolean sampled = EXPORTER != null && parentSampled && sample();
+        Span span = new Span(traceId, randomHex(1), parentId, name, sampled, CURRENT.get());
+        CURRENT.set(span);
+        MDC.put(MDC_TRACE_ID, traceId);
+        return span;
+    }
+
+    /**
+     * Starts a child span of the current span. Returns a no-op span when no sampled trace is current.
+     * @param name Name of the span
+     * @return The started span
+     */
+    public static Span startSpan(String name) {
+        Span parent = CURRENT.get();
+        if (parent == null || !parent.isSampled()) {
+            return Span.NOOP;
+        }
+        Span span = new Span(parent.getTraceId(), randomHex(1), parent.getSpanId(), name, true, parent);
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * Starts a child span of a span current on another thread, for work handed over to a thread pool.
+     * The span becomes current on this thread until it is closed. Returns a no-op span when the parent is not sampled.
+     * @param name Name of the span
+     * @param parent The parent span, usually Tracer.current() of the thread handing over the work, may be null
+     * @return The started span
+     */
+    public static Span startSpan(String name, Span parent) {
+        if (parent == null || !parent.isSampled()) {
+            return Span.NOOP;
+        }
+        Span span = new Span(parent.getTraceId(), randomHex(1), parent.getSpanId(), name, true, CURRENT.get());
+        CURRENT.set(span);
+        MDC.put(MDC_TRACE_ID, span.getTraceId());
+        return span;
+    }
+
+    /**
+     * Retrieves the span current on this thread.
+     * @return The current span, or null outside of a trace
+     */
+    public static Span current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Retrieves counters of the tracing subsystem.
+     * @return Map with the numbers of started, sampled, exported and dropped traces and spans
+     */
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("traces", TRACES.sum());
+        metrics.put("sampled", SAMPLED.sum());
+        if (EXPORTER != null) {
+            metrics.putAll(EXPORTER.getMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * Exports the spans still queued and stops the exporter.
+     */
+    public static void shutdown() {
+        if (EXPORTER != null) {
+            EXPORTER.shutdown();
+        }
+    }
+
+    /**
+     * Ends a span: restores its parent as the current span and queues it for export.
+     * @param span The ended span
+     */
+    static void finish(Span span) {
+        if (CURRENT.get() == span) {
+            Span previous = span.getPrevious();
+            if (previous == null) {
+                CURRENT.remove();
+                MDC.remove(MDC_TRACE_ID);
+            } else {
+                CURRENT.set(previous);
+                MDC.put(MDC_TRACE_ID, previous.getTraceId());
+            }
+        }
+        if (span.isSampled()) {
+            EXPORTER.export(span);
+        }
+    }
+
+    private static synchronized boolean sample() {
+        if (ThreadLocalRandom.current().nextDouble() >= Settings.TRACE_SAMPLE_RATE) {
+            return false;
+        }
+        long second = System.nanoTime() / 1_000_000_000;
+        if (second != sampleWindow) {
+            sampleWindow = second;
+            sampledInWindow = 0;
+        }
+        if (sampledInWindow >= Settings.TRACE_MAX_SAMPLED_PER_SECOND) {
+            return false;
+        }
+        sampledInWindow++;
+        SAMPLED.increment();
+        return true;
+    }
+
+    private static SpanExporter createExporter() {
+        if (Settings.TRACE_FILE == null && Settings.TRACE_COLLECTOR_URL == null) {
+            return null;
+        }
+        AppLogger.info("Exporting trace spans to " + (Settings.TRACE_FILE != null ? Settings.TRACE_FILE : "")
+                + (Settings.TRACE_FILE != null && Settings.TRACE_COLLECTOR_URL != null ? " and " : "")
+                + (Settings.TRACE_COLLECTOR_URL != null ? Settings.TRACE_COLLECTOR_URL : ""));
+        return new SpanExporter(Settings.TRACE_SERVICE_NAME, Settings.TRACE_QUEUE_CAPACITY,
+                Settings.TRACE_FILE == null ? null : Path.of(Settings.TRACE_FILE), Settings.TRACE_COLLECTOR_URL);
+    }
+
+    private static String randomHex(int longs) {
+        StringBuilder hex = new StringBuilder(longs * 16);
+        for (int i = 0; i < longs; i++) {
+            String part = Long.toHexString(ThreadLocalRandom.current().nextLong());
+            hex.append("0".repeat(16 - part.length())).append(part);
+        }
+        return hex.toString();
+    }
+
+    private static boolean isHex(String value) {
+        boolean nonZero = false;
+        for (int i = 0; i < value.length(); i++) {
+            int digit = Character.digit(value.charAt(i), 16);
+            if (digit < 0 || Character.isUpperCase(value.charAt(i))) {
+                return false;
+            }
+            nonZero |= digit != 0;
+        }
+        return nonZero; // All-zero IDs are invalid
+    }
+}
@@ -0,0 +1,100 @@
+package cz.engeto.ja.genesisResources.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Adaptive limit of concurrently processed requests (AIMD).
+ *
+ * While requests complete faster than the latency target the limit grows additively (by 1/limit per
+ * request, i.e. about +1 per round of requests), when they get slower or fail it is cut multiplicatively,
+ * at most once per latency target interval. Low-priority requests only get a share of the limit, so
+ * cheap reads keep being served when the expensive ones are shed.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double DECREASE_FACTOR = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+    private final double lowPriorityShare;
+
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos;
+    private long admitted;
+    private long rejected;
+    private long rejectedLowPriority;
+    private long decreases;
+
+    /**
+     * Constructor for AdaptiveConcurrencyLimiter.
+     * @param initialLimit Limit to start with
+     * @param minLimit Lowest limit
+     * @param maxLimit Highest limit
+     * @param latencyTargetMillis Latency above which the limit is decreased
+     * @param lowPriorityShare Share of the limit available to low-priority requests (0..1]
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencyTargetMillis, double lowPriorityShare) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = latencyTargetMillis * 1_000_000;
+        this.lowPriorityShare = lowPriorityShare;
+    }
+
+    /**
+     * Tries to admit a request.
+     * @param lowPriority Whether the request is of low priority
+     * @return true if the request was admitted and release() must be called when it completes
+     */
+    public synchronized boolean tryAcquire(boolean lowPriority) {
+        int allowed = lowPriority ? Math.max(1, (int) (limit * lowPriorityShare)) : (int) limit;
+        if (inFlight >= allowed) {
+            rejected++;
+            if (lowPriority) {
+                rejectedLowPriority++;
+            }
+            return false;
+        }
+        inFlight++;
+        admitted++;
+        return true;
+    }
+
+    /**
+     * Releases an admitted request and adapts the limit to its outcome.
+     * @param latencyNanos Processing time of the request
+     * @param success false if the request failed because of the server (e.g. database errors)
+     */
+    public synchronized void release(long latencyNanos, boolean success) {
+        long now = System.nanoTime();
+        if (!success || latencyNanos > latencyTargetNanos) {
+            if (now - lastDecreaseNanos >= latencyTargetNanos) {
+                limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+                lastDecreaseNanos = now;
+                decreases++;
+            }
+        } else if (inFlight >= limit / 2) {
+            // Only grow when the current limit is actually used
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        inFlight--;
+    }
+
+    /**
+     * Retrieves the current state of the limiter.
+     * @return Map with limit, requests in flight and counters
+     */
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("limit", (int) limit);
+        metrics.put("inFlight", inFlight);
+        metrics.put("admitted", admitted);
+        metrics.put("rejected", rejected);
+        metrics.put("rejectedLowPriority", rejectedLowPriority);
+        metrics.put("decreases", decreases);
+        return metrics;
+    }
+}
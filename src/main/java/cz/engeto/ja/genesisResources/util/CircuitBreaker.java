@@ -0,0 +1,132 @@
+package cz.engeto.ja.genesisResources.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Circuit breaker guarding calls to an unreliable dependency.
+ *
+ * CLOSED: calls pass, after a number of consecutive failures the breaker opens.
+ * OPEN: calls are rejected without being attempted until the open interval elapses.
+ * HALF_OPEN: a limited number of probe calls pass; when all of them succeed the breaker closes,
+ * a single failure opens it again.
+ */
+public class CircuitBreaker {
+
+    /**
+     * States of the circuit breaker.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final int halfOpenProbes;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private int probesInFlight;
+    private int probeSuccesses;
+    private long rejected;
+    private long failures;
+    private long opened;
+
+    /**
+     * Constructor for CircuitBreaker.
+     * @param name Name of the guarded dependency, used in logs
+     * @param failureThreshold Number of consecutive failures opening the breaker
+     * @param openMillis Time the breaker stays open before probing
+     * @param halfOpenProbes Number of successful probes closing the breaker
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis, int halfOpenProbes) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMillis * 1_000_000;
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * Asks for permission to make a call. Every permitted call must be followed by onSuccess() or onFailure().
+     * @return true if the call may be attempted
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                rejected++;
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probesInFlight = 0;
+            probeSuccesses = 0;
+            AppLogger.info("Circuit breaker " + name + " half-open, probing");
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight >= halfOpenProbes) {
+                rejected++;
+                return false;
+            }
+            probesInFlight++;
+        }
+        return true;
+    }
+
+    /**
+     * Records a successful call.
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+            if (++probeSuccesses >= halfOpenProbes) {
+                state = State.CLOSED;
+                AppLogger.info("Circuit breaker " + name + " closed");
+            }
+        }
+    }
+
+    /**
+     * Records a failed call.
+     */
+    public synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && ++consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            consecutiveFailures = 0;
+            opened++;
+            AppLogger.warn("Circuit breaker " + name + " opened");
+        }
+    }
+
+    /**
+     * Retrieves the current state of the breaker.
+     * @return The state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Tells whether calls are currently rejected without being attempted, without asking for permission.
+     * @return true while the breaker is open and the open interval has not elapsed
+     */
+    public synchronized boolean isRejecting() {
+        return state == State.OPEN && System.nanoTime() - openedAt < openNanos;
+    }
+
+    /**
+     * Retrieves the state of the breaker and its counters.
+     * @return Map with state, failures, rejected calls and number of openings
+     */
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("state", state);
+        metrics.put("failures", failures);
+        metrics.put("rejected", rejected);
+        metrics.put("opened", opened);
+        return metrics;
+    }
+}
@@ -0,0 +1,71 @@
+package cz.engeto.ja.genesisResources.util;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Allocator of globally unique IDs by the hi/lo scheme.
+ * A block of consecutive IDs (hi) is reserved from a shared sequence in one round trip, the IDs in it (lo)
+ * are then handed out from memory. Instances never hand out the same ID, IDs of a block reserved by an instance
+ * that stops are lost, the same way AUTO_INCREMENT leaves gaps after rollbacks.
+ */
+public class HiLoIdAllocator {
+
+    /**
+     * Reserves the next block from the shared sequence.
+     */
+    @FunctionalInterface
+    public interface BlockSource {
+        /**
+         * @return Number of the reserved block, block b covers the IDs b * blockSize + 1 to (b + 1) * blockSize
+         * @throws SQLException If no block can be reserved
+         */
+        long reserveBlock() throws SQLException;
+    }
+
+    private final BlockSource blockSource;
+    private final long blockSize;
+    private final LongAdder reservedBlocks = new LongAdder();
+    private long nextId = 1;
+    private long limit; // Last ID of the current block, nextId > limit when a block has to be reserved
+
+    /**
+     * Constructor for HiLoIdAllocator.
+     * @param blockSource Source of the blocks
+     * @param blockSize Number of IDs in a block
+     */
+    public HiLoIdAllocator(BlockSource blockSource, long blockSize) {
+        this.blockSource = blockSource;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Retrieves the next ID, reserving a new block when the current one is used up.
+     * @return The allocated ID
+     * @throws SQLException If a new block is needed and cannot be reserved
+     */
+    public synchronized long nextId() throws SQLException {
+        if (nextId > limit) {
+            long block = blockSource.reserveBlock();
+            reservedBlocks.increment();
+            nextId = block * blockSize + 1;
+            limit = (block + 1) * blockSize;
+        }
+        return nextId++;
+    }
+
+    /**
+     * Retrieves the counters of this allocator.
+     * @return Map with the number of reserved blocks and IDs left in the current block
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("reservedBlocks", reservedBlocks.sum());
+        synchronized (this) {
+            metrics.put("idsLeft", Math.max(0, limit - nextId + 1));
+        }
+        return metrics;
+    }
+}
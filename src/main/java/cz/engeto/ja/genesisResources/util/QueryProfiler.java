@@ -0,0 +1,241 @@
+package cz.engeto.ja.genesisResources.util;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Profiler of database statements and looked up keys, cheap enough to stay on in production.
+ *
+ * Every statement execution updates lock-free counters of its SQL (count, total and maximum time).
+ * Executions slower than the threshold are kept in a bounded log together with their parameters;
+ * their execution plan is fetched by EXPLAIN on a background thread, at most once per SQL and interval.
+ * Looked up keys (id, uuid, personID) are counted by Space-Saving sketches, which find the hot keys
+ * in constant memory.
+ */
+public class QueryProfiler {
+
+    /**
+     * Runs EXPLAIN for a statement.
+     */
+    @FunctionalInterface
+    public interface Explainer {
+        /**
+         * Explains a statement.
+         * @param sql The SQL of the statement
+         * @param params The parameters of the statement
+         * @return Rows of the execution plan
+         * @throws SQLException If the plan cannot be retrieved
+         */
+        List<Map<String, Object>> explain(String sql, Object[] params) throws SQLException;
+    }
+
+    /**
+     * Counters of one SQL statement.
+     */
+    private static class StatementStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final LongAdder slow = new LongAdder();
+        volatile long lastExplainNanos = Long.MIN_VALUE;
+    }
+
+    /**
+     * An execution slower than the threshold.
+     */
+    private static class SlowQuery {
+        final long timestamp = System.currentTimeMillis();
+        final String sql;
+        final String params;
+        final long durationMicros;
+        volatile Object plan = "pending"; // Replaced by the EXPLAIN output, or left as a note when not explained
+
+        SlowQuery(String sql, Object[] params, long durationMicros) {
+            this.sql = sql;
+            this.params = Arrays.toString(params);
+            this.durationMicros = durationMicros;
+        }
+    }
+
+    private static final long EXPLAIN_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final long slowNanos;
+    private final int slowLogSize;
+    private final boolean explainEnabled;
+    private final ConcurrentMap<String, StatementStats> statements = new ConcurrentHashMap<>();
+    private final Deque<SlowQuery> slowQueries = new ArrayDeque<>();
+    private final ConcurrentMap<String, SpaceSaving<String>> hotKeys = new ConcurrentHashMap<>();
+    private final int hotKeyCapacity;
+    private final ThreadPoolExecutor explainExecutor;
+    private volatile Explainer explainer;
+
+    /**
+     * Constructor for QueryProfiler.
+     * @param slowQueryMillis Execution time from which a statement is logged as slow
+     * @param slowLogSize Number of slow executions kept
+     * @param hotKeyCapacity Number of keys tracked per key type and sketch stripe
+     * @param explainEnabled Whether execution plans of slow statements are fetched
+     */
+    public QueryProfiler(long slowQueryMillis, int slowLogSize, int hotKeyCapacity, boolean explainEnabled) {
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+        this.slowLogSize = slowLogSize;
+        this.hotKeyCapacity = hotKeyCapacity;
+        this.explainEnabled = explainEnabled;
+        // One thread and a short queue: explaining is best effort and must never pile up
+        this.explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(16), runnable -> {
+            Thread thread = new Thread(runnable, "query-explain");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets the component running EXPLAIN for slow statements, typically the repository executing them.
+     * @param explainer The explainer, or null to not explain statements
+     */
+    public void setExplainer(Explainer explainer) {
+        this.explainer = explainer;
+    }
+
+    /**
+     * Records an execution of a statement.
+     * @param sql The SQL of the statement
+     * @param params The parameters of the statement
+     * @param durationNanos The execution time
+     */
+    public void recordStatement(String sql, Object[] params, long durationNanos) {
+        StatementStats stats = statements.computeIfAbsent(sql, key -> new StatementStats());
+        stats.count.increment();
+        stats.totalNanos.add(durationNanos);
+        stats.maxNanos.accumulateAndGet(durationNanos, Math::max);
+        if (durationNanos < slowNanos) {
+            return;
+        }
+        stats.slow.increment();
+        SlowQuery slowQuery = new SlowQuery(sql, params, durationNanos / 1000);
+        synchronized (slowQueries) {
+            slowQueries.addLast(slowQuery);
+            if (slowQueries.size() > slowLogSize) {
+                slowQueries.removeFirst();
+            }
+        }
+        AppLogger.warn("Slow query (" + durationNanos / 1_000_000 + " ms): " + sql + " " + slowQuery.params);
+        scheduleExplain(stats, slowQuery, params);
+    }
+
+    /**
+     * Counts a lookup of a key.
+     * @param type Type of the key, e.g. id, uuid or personID
+     * @param key The looked up key
+     */
+    public void recordKey(String type, Object key) {
+        SpaceSaving<String> sketch = hotKeys.get(type);
+        if (sketch == null) {
+            sketch = hotKeys.computeIfAbsent(type, k -> new SpaceSaving<>(hotKeyCapacity));
+        }
+        sketch.offer(String.valueOf(key));
+    }
+
+    /**
+     * Builds the profiler report.
+     * @param top Maximum number of statements, slow queries and hot keys per type to include
+     * @return Map with statements ordered by total time, the most recent slow queries and hot keys
+     */
+    public Map<String, Object> getReport(int top) {
+        List<Map<String, Object>> statementReport = new ArrayList<>();
+        statements.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().totalNanos.sum(), a.getValue().totalNanos.sum()))
+                .limit(top)
+                .forEach(entry -> {
+                    StatementStats stats = entry.getValue();
+                    long count = stats.count.sum();
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("sql", entry.getKey());
+                    row.put("count", count);
+                    row.put("totalMs", stats.totalNanos.sum() / 1_000_000);
+                    row.put("avgMicros", count == 0 ? 0 : stats.totalNanos.sum() / count / 1000);
+                    row.put("maxMicros", stats.maxNanos.get() / 1000);
+                    row.put("slow", stats.slow.sum());
+                    statementReport.add(row);
+                });
+
+        List<Map<String, Object>> slowReport = new ArrayList<>();
+        synchronized (slowQueries) {
+            slowQueries.descendingIterator().forEachRemaining(slowQuery -> {
+                if (slowReport.size() < top) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("timestamp", slowQuery.timestamp);
+                    row.put("sql", slowQuery.sql);
+                    row.put("params", slowQuery.params);
+                    row.put("durationMicros", slowQuery.durationMicros);
+                    row.put("plan", slowQuery.plan);
+                    slowReport.add(row);
+                }
+            });
+        }
+
+        Map<String, Object> hotKeyReport = new LinkedHashMap<>();
+        for (Map.Entry<String, SpaceSaving<String>> sketch : new TreeMap<>(hotKeys).entrySet()) {
+            Map<String, Object> keys = new LinkedHashMap<>();
+            keys.put("total", sketch.getValue().getTotal());
+            keys.put("top", sketch.getValue().top(top));
+            hotKeyReport.put(sketch.getKey(), keys);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("slowQueryThresholdMs", TimeUnit.NANOSECONDS.toMillis(slowNanos));
+        report.put("statements", statementReport);
+        report.put("slowQueries", slowReport);
+        report.put("hotKeys", hotKeyReport);
+        return report;
+    }
+
+    /**
+     * Stops the EXPLAIN thread.
+     */
+    public void close() {
+        explainExecutor.shutdownNow();
+    }
+
+    private void scheduleExplain(StatementStats stats, SlowQuery slowQuery, Object[] params) {
+        Explainer currentExplainer = explainer;
+        String upperSql = slowQuery.sql.stripLeading().toUpperCase();
+        if (!explainEnabled || currentExplainer == null || upperSql.startsWith("INSERT")) {
+            slowQuery.plan = "not explained";
+            return;
+        }
+        long now = System.nanoTime();
+        long last = stats.lastExplainNanos;
+        if (last != Long.MIN_VALUE && now - last < EXPLAIN_INTERVAL_NANOS) {
+            slowQuery.plan = "explained recently";
+            return;
+        }
+        stats.lastExplainNanos = now;
+        try {
+            explainExecutor.execute(() -> {
+                try {
+                    slowQuery.plan = currentExplainer.explain(slowQuery.sql, params);
+                } catch (SQLException | RuntimeException e) {
+                    slowQuery.plan = "EXPLAIN failed: " + e.getMessage();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slowQuery.plan = "not explained";
+        }
+    }
+}
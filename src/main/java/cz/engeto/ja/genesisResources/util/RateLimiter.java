@@ -0,0 +1,140 @@
+package cz.engeto.ja.genesisResources.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-client rate limiter implementing a token bucket with the generic cell rate algorithm (GCRA).
+ *
+ * The bucket of a client is a single timestamp, the theoretical arrival time (TAT): the time at which the bucket
+ * would be full again. Every allowed request moves it one emission interval (1 / rate) into the future, a request
+ * is rejected when that would put it more than burst intervals ahead of now. Deciding is a compare-and-set loop on
+ * one AtomicLong, there are no locks and no refill threads.
+ *
+ * A client whose TAT has passed has a full bucket, which is exactly the state of an unknown client, so such
+ * clients are evicted without changing any decision. The sweep runs at most once per sweep interval on the
+ * thread of a request. When more than maxClients clients are tracked, new clients share one overflow bucket
+ * until the sweep frees space, so a flood of clients cannot exhaust memory or escape the limit.
+ */
+public class RateLimiter {
+
+    /**
+     * Outcome of a request for a token.
+     * @param allowed Whether the request may proceed
+     * @param limit Size of the bucket (burst)
+     * @param remaining Tokens left after this request
+     * @param resetSeconds Time until the bucket is full again
+     * @param retryAfterSeconds Time until the next request would be allowed, 0 when allowed
+     */
+    public record Decision(boolean allowed, int limit, int remaining, long resetSeconds, long retryAfterSeconds) {
+    }
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final long emissionNanos;
+    private final long capacityNanos;
+    private final int burst;
+    private final int maxClients;
+    private final long sweepIntervalNanos;
+    private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong overflowBucket;
+    private final AtomicLong nextSweepNanos;
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * Constructor for RateLimiter.
+     * @param ratePerSecond Sustained number of requests per second of one client
+     * @param burst Number of requests one client may send at once after being idle
+     * @param maxClients Maximum number of clients with their own bucket
+     * @param sweepIntervalMillis Minimum time between two evictions of idle clients
+     */
+    public RateLimiter(double ratePerSecond, int burst, int maxClients, long sweepIntervalMillis) {
+        this.emissionNanos = Math.max(1, (long) (NANOS_PER_SECOND / ratePerSecond));
+        this.burst = Math.max(1, burst);
+        this.capacityNanos = emissionNanos * this.burst;
+        this.maxClients = maxClients;
+        this.sweepIntervalNanos = sweepIntervalMillis * 1_000_000;
+        long now = System.nanoTime();
+        this.overflowBucket = new AtomicLong(now);
+        this.nextSweepNanos = new AtomicLong(now + sweepIntervalNanos);
+    }
+
+    /**
+     * Takes a token from the bucket of a client.
+     * @param client Identifier of the client
+     * @return The decision with the state of the bucket
+     */
+    public Decision tryAcquire(String client) {
+        long now = System.nanoTime();
+        sweepIfDue(now);
+        AtomicLong bucket = bucket(client, now);
+        while (true) {
+            long tat = bucket.get();
+            long start = tat - now < 0 ? now : tat; // A TAT in the past means a full bucket
+            long newTat = start + emissionNanos;
+            long fullIn = newTat - now;
+            if (fullIn > capacityNanos) {
+                limited.increment();
+                return new Decision(false, burst, 0, ceilSeconds(start - now), ceilSeconds(fullIn - capacityNanos));
+            }
+            if (bucket.compareAndSet(tat, newTat)) {
+                allowed.increment();
+                return new Decision(true, burst, (int) ((capacityNanos - fullIn) / emissionNanos), ceilSeconds(fullIn), 0);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the counters of this instance.
+     * @return Map with allowed and limited requests, tracked and evicted clients
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("allowed", allowed.sum());
+        metrics.put("limited", limited.sum());
+        metrics.put("clients", buckets.size());
+        metrics.put("evicted", evicted.sum());
+        return metrics;
+    }
+
+    private AtomicLong bucket(String client, long now) {
+        AtomicLong bucket = buckets.get(client);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= maxClients) {
+            return overflowBucket;
+        }
+        return buckets.computeIfAbsent(client, key -> new AtomicLong(now));
+    }
+
+    /**
+     * Evicts clients with a full bucket once the sweep interval has passed. Only the thread winning the
+     * compare-and-set sweeps. A request racing with the eviction of its client may lose its token, which only
+     * lets that client send one request more.
+     * @param now Current time of System.nanoTime()
+     */
+    private void sweepIfDue(long now) {
+        long next = nextSweepNanos.get();
+        if (now - next < 0 || !nextSweepNanos.compareAndSet(next, now + sweepIntervalNanos)) {
+            return;
+        }
+        buckets.values().removeIf(bucket -> {
+            if (bucket.get() - now <= 0) {
+                evicted.increment();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private static long ceilSeconds(long nanos) {
+        return nanos <= 0 ? 0 : (nanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND;
+    }
+}
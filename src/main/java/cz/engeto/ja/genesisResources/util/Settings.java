@@ -1,7 +1,15 @@
 package cz.engeto.ja.genesisResources.util;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Utility class for storing application settings.
+ * Values marked as configurable can be overridden by JVM system properties (-Dname=value).
  */
 public class Settings {
     // Database connection settings
@@ -20,4 +28,323 @@ public class Settings {
      * File name for storing person IDs.
      */
     public static final String PERSON_ID_FILE = "dataPersonId.txt";
+
+    // Storage engines
+    public static final String STORAGE_MYSQL = "mysql";
+    public static final String STORAGE_MEMORY = "memory";
+    public static final String STORAGE_EMBEDDED = "embedded";
+    public static final String STORAGE_SHARDED = "sharded";
+
+    /**
+     * Storage engine used for users, configurable by genesis.storage (mysql, memory, embedded, sharded).
+     * The embedded engine is the in-memory store made durable by a write-ahead log,
+     * the sharded engine spreads users over several MySQL databases.
+     */
+    public static final String STORAGE_ENGINE = System.getProperty("genesis.storage", STORAGE_MYSQL);
+
+    /**
+     * Whether the storage engine keeps users inside this process (memory, embedded).
+     * Only then does the application see every write, other engines are shared with other instances and imports.
+     */
+    public static final boolean STORAGE_IN_PROCESS = STORAGE_MEMORY.equals(STORAGE_ENGINE) || STORAGE_EMBEDDED.equals(STORAGE_ENGINE);
+
+    /**
+     * Directory of the write-ahead log and snapshots of the embedded engine, configurable by genesis.wal.dir.
+     */
+    public static final String WAL_DIRECTORY = System.getProperty("genesis.wal.dir", "data/wal");
+
+    /**
+     * Number of logged changes after which a compacted snapshot is written, configurable by genesis.wal.snapshotInterval.
+     */
+    public static final int WAL_SNAPSHOT_INTERVAL = Integer.getInteger("genesis.wal.snapshotInterval", 10_000);
+
+    /**
+     * Maximum time a write waits for its write-ahead log record to be fsynced, in milliseconds,
+     * configurable by genesis.wal.awaitTimeoutMs.
+     */
+    public static final long WAL_AWAIT_TIMEOUT_MS = Long.getLong("genesis.wal.awaitTimeoutMs", 30_000);
+
+    /**
+     * Maximum number of users whose version is tracked for ETags, configurable by genesis.etag.maxTrackedUsers.
+     * Users beyond it share one version that changes whenever tracked users are dropped.
+     */
+    public static final int ETAG_MAX_TRACKED_USERS = Integer.getInteger("genesis.etag.maxTrackedUsers", 100_000);
+
+    /**
+     * Number of change events kept in memory by the change feed, configurable by genesis.changeFeed.capacity.
+     */
+    public static final int CHANGE_FEED_CAPACITY = Integer.getInteger("genesis.changeFeed.capacity", 10_000);
+
+    /**
+     * File receiving change events pushed out of memory, configurable by genesis.changeFeed.spillFile.
+     * Spilling is disabled when not set.
+     */
+    public static final String CHANGE_FEED_SPILL_FILE = System.getProperty("genesis.changeFeed.spillFile");
+
+    /**
+     * Maximum size of spilled change events in bytes, configurable by genesis.changeFeed.spillMaxBytes.
+     * Events are spilled to segments of a quarter of this size, the oldest segment is deleted when the limit is exceeded.
+     */
+    public static final long CHANGE_FEED_SPILL_MAX_BYTES = Long.getLong("genesis.changeFeed.spillMaxBytes", 256L * 1024 * 1024);
+
+    /**
+     * Maximum number of concurrently connected change feed consumers, configurable by genesis.changeFeed.maxSubscribers.
+     */
+    public static final int CHANGE_FEED_MAX_SUBSCRIBERS = Integer.getInteger("genesis.changeFeed.maxSubscribers", 64);
+
+    /**
+     * Time after which a change feed stream is closed and the consumer has to reconnect, in milliseconds.
+     */
+    public static final long CHANGE_FEED_STREAM_TIMEOUT_MS = 30 * 60 * 1000L;
+
+    /**
+     * Maximum time a lookup waits for an identical lookup already in flight, in milliseconds,
+     * configurable by genesis.singleFlight.timeoutMs.
+     */
+    public static final long SINGLE_FLIGHT_TIMEOUT_MS = Long.getLong("genesis.singleFlight.timeoutMs", 5_000);
+
+    // Admission control of API requests, configurable by genesis.admission.*
+    public static final int ADMISSION_INITIAL_LIMIT = Integer.getInteger("genesis.admission.initialLimit", 20);
+    public static final int ADMISSION_MIN_LIMIT = Integer.getInteger("genesis.admission.minLimit", 2);
+    public static final int ADMISSION_MAX_LIMIT = Integer.getInteger("genesis.admission.maxLimit", 200);
+    public static final long ADMISSION_LATENCY_TARGET_MS = Long.getLong("genesis.admission.latencyTargetMs", 250);
+
+    /**
+     * Share of the admission limit available to bulk dumps of the user table.
+     */
+    public static final double ADMISSION_BULK_SHARE = 0.5;
+
+    /**
+     * Timeouts of the MySQL storage engine, configurable by genesis.db.*: connecting and waiting on the socket
+     * in milliseconds, read and write statements in seconds.
+     */
+    public static final int DB_CONNECT_TIMEOUT_MS = Integer.getInteger("genesis.db.connectTimeoutMs", 2_000);
+    public static final int DB_SOCKET_TIMEOUT_MS = Integer.getInteger("genesis.db.socketTimeoutMs", 30_000);
+    public static final int DB_READ_TIMEOUT_S = Integer.getInteger("genesis.db.readTimeoutS", 5);
+    public static final int DB_WRITE_TIMEOUT_S = Integer.getInteger("genesis.db.writeTimeoutS", 10);
+
+    /**
+     * Bulkheads of the MySQL storage engine, configurable by genesis.db.*: maximum concurrent reads and writes
+     * and the time a call waits for a free slot in milliseconds.
+     */
+    public static final int DB_READ_CONCURRENCY = Integer.getInteger("genesis.db.readConcurrency", 16);
+    public static final int DB_WRITE_CONCURRENCY = Integer.getInteger("genesis.db.writeConcurrency", 4);
+    public static final long DB_BULKHEAD_WAIT_MS = Long.getLong("genesis.db.bulkheadWaitMs", 50);
+
+    /**
+     * Circuit breaker of the MySQL storage engine, configurable by genesis.db.breaker.*: consecutive failures opening
+     * the breaker, time it stays open in milliseconds and successful probes closing it again.
+     */
+    public static final int DB_BREAKER_FAILURE_THRESHOLD = Integer.getInteger("genesis.db.breaker.failureThreshold", 5);
+    public static final long DB_BREAKER_OPEN_MS = Long.getLong("genesis.db.breaker.openMs", 10_000);
+    public static final int DB_BREAKER_HALF_OPEN_PROBES = Integer.getInteger("genesis.db.breaker.halfOpenProbes", 3);
+
+    /**
+     * Number of recently read users served while the database is unavailable, configurable by
+     * genesis.db.fallbackCacheSize. 0 disables serving stale reads.
+     */
+    public static final int DB_FALLBACK_CACHE_SIZE = Integer.getInteger("genesis.db.fallbackCacheSize", 10_000);
+
+    /**
+     * Share of requests whose traces are recorded (0..1), configurable by genesis.trace.sampleRate.
+     */
+    public static final double TRACE_SAMPLE_RATE = Double.parseDouble(System.getProperty("genesis.trace.sampleRate", "0.1"));
+
+    /**
+     * Maximum number of traces recorded per second, configurable by genesis.trace.maxPerSecond.
+     */
+    public static final int TRACE_MAX_SAMPLED_PER_SECOND = Integer.getInteger("genesis.trace.maxPerSecond", 100);
+
+    /**
+     * File receiving recorded spans as JSON lines, configurable by genesis.trace.file.
+     */
+    public static final String TRACE_FILE = System.getProperty("genesis.trace.file");
+
+    /**
+     * URL of a Zipkin compatible collector receiving recorded spans, configurable by genesis.trace.collectorUrl
+     * (e.g. http://localhost:9411/api/v2/spans). Tracing is disabled when neither a file nor a collector is set.
+     */
+    public static final String TRACE_COLLECTOR_URL = System.getProperty("genesis.trace.collectorUrl");
+
+    // Tracing internals
+    public static final String TRACE_SERVICE_NAME = "genesis-resources";
+    public static final int TRACE_QUEUE_CAPACITY = 10_000;
+
+    /**
+     * Execution time from which a statement is logged as slow, configurable by genesis.profiler.slowQueryMs.
+     */
+    public static final long PROFILER_SLOW_QUERY_MS = Long.getLong("genesis.profiler.slowQueryMs", 100);
+
+    /**
+     * Whether execution plans of slow statements are fetched by EXPLAIN, configurable by genesis.profiler.explain.
+     */
+    public static final boolean PROFILER_EXPLAIN = Boolean.parseBoolean(System.getProperty("genesis.profiler.explain", "true"));
+
+    // Profiler internals
+    public static final int PROFILER_SLOW_LOG_SIZE = 100;
+    public static final int PROFILER_HOT_KEY_CAPACITY = 256;
+
+    /**
+     * Delay between attempts to warm up caches after startup when the storage is not available, in milliseconds.
+     */
+    public static final long WARMUP_RETRY_MS = 5_000;
+
+    /**
+     * Number of startup steps recorded for the startup report.
+     */
+    public static final int STARTUP_STEPS_CAPACITY = 10_000;
+
+    /**
+     * Time an Idempotency-Key of a user creation is remembered, in milliseconds, configurable by genesis.idempotency.ttlMs.
+     */
+    public static final long IDEMPOTENCY_TTL_MS = Long.getLong("genesis.idempotency.ttlMs", 24 * 60 * 60 * 1000L);
+
+    /**
+     * Maximum number of remembered Idempotency-Keys, configurable by genesis.idempotency.maxKeys.
+     */
+    public static final int IDEMPOTENCY_MAX_KEYS = Integer.getInteger("genesis.idempotency.maxKeys", 100_000);
+
+    /**
+     * Maximum time a duplicate request waits for the creation first sent with its Idempotency-Key, in milliseconds,
+     * configurable by genesis.idempotency.waitMs.
+     */
+    public static final long IDEMPOTENCY_WAIT_MS = Long.getLong("genesis.idempotency.waitMs", 10_000);
+
+    /**
+     * Maximum length of an Idempotency-Key.
+     */
+    public static final int IDEMPOTENCY_KEY_MAX_LENGTH = 255;
+
+    /**
+     * Maximum length of a name or surname, the size of their database columns.
+     */
+    public static final int NAME_MAX_LENGTH = 255;
+
+    /**
+     * Bulk import, configurable by genesis.bulk.*: users stored in one transaction and threads storing them in parallel.
+     */
+    public static final int BULK_BATCH_SIZE = Integer.getInteger("genesis.bulk.batchSize", 2_000);
+    public static final int BULK_IMPORT_THREADS = Integer.getInteger("genesis.bulk.threads", 4);
+
+    // Bulk export and import internals
+    public static final int BULK_BUFFER_SIZE = 1024 * 1024;
+    public static final long BULK_PROGRESS_INTERVAL_MS = 5_000;
+    public static final int BULK_MAX_LOGGED_REJECTS = 100;
+
+    /**
+     * Maximum number of keys in one lookup of many users, configurable by genesis.lookup.maxKeys.
+     */
+    public static final int LOOKUP_MAX_KEYS = Integer.getInteger("genesis.lookup.maxKeys", 1_000);
+
+    /**
+     * Maximum number of keys in one IN query of a lookup of many users.
+     */
+    public static final int LOOKUP_CHUNK_SIZE = 256;
+
+    /**
+     * Whether API requests are rate limited per client, configurable by genesis.rateLimit.enabled. Off by default:
+     * behind a reverse proxy all clients share the proxy's address unless genesis.rateLimit.trustForwardedFor is set.
+     */
+    public static final boolean RATE_LIMIT_ENABLED = Boolean.parseBoolean(System.getProperty("genesis.rateLimit.enabled", "false"));
+
+    /**
+     * Rate limits per client and endpoint class, configurable by genesis.rateLimit.*: sustained requests per second
+     * and requests allowed at once after being idle.
+     */
+    public static final double RATE_LIMIT_READ_PER_SECOND = Double.parseDouble(System.getProperty("genesis.rateLimit.readPerSecond", "100"));
+    public static final int RATE_LIMIT_READ_BURST = Integer.getInteger("genesis.rateLimit.readBurst", 200);
+    public static final double RATE_LIMIT_WRITE_PER_SECOND = Double.parseDouble(System.getProperty("genesis.rateLimit.writePerSecond", "20"));
+    public static final int RATE_LIMIT_WRITE_BURST = Integer.getInteger("genesis.rateLimit.writeBurst", 40);
+    public static final double RATE_LIMIT_BULK_PER_SECOND = Double.parseDouble(System.getProperty("genesis.rateLimit.bulkPerSecond", "1"));
+    public static final int RATE_LIMIT_BULK_BURST = Integer.getInteger("genesis.rateLimit.bulkBurst", 10);
+
+    /**
+     * Whether the client address is taken from X-Forwarded-For, configurable by genesis.rateLimit.trustForwardedFor.
+     * Enable only behind a reverse proxy that sets the header, clients could spoof it otherwise.
+     */
+    public static final boolean RATE_LIMIT_TRUST_FORWARDED_FOR = Boolean.parseBoolean(System.getProperty("genesis.rateLimit.trustForwardedFor", "false"));
+
+    /**
+     * API keys of known clients, configurable by genesis.apiKeys as a comma separated list of client=key.
+     * A request sending one of these keys in X-API-Key is attributed to that client, all other requests to their IP address.
+     */
+    public static final Map<String, String> API_KEYS = apiKeys(System.getProperty("genesis.apiKeys", ""));
+
+    /**
+     * Clients of API_KEYS allowed to call the admin endpoints, configurable by genesis.adminClients as a comma separated
+     * list of client names. Only the readiness check is open to everyone, without any admin client the other admin
+     * endpoints are closed.
+     */
+    public static final Set<String> ADMIN_CLIENTS = clientNames(System.getProperty("genesis.adminClients", ""));
+
+    // Rate limiter internals
+    public static final int RATE_LIMIT_MAX_CLIENTS = 100_000;
+    public static final long RATE_LIMIT_SWEEP_MS = 10_000;
+
+    /**
+     * Databases of the sharded storage engine, configurable by genesis.shards as a comma separated list of
+     * host:port/database (e.g. localhost:3306/genesis_shard0,localhost:3307/genesis_shard1), connected with
+     * the user and password of the single database. The order is part of the data layout and must not change.
+     */
+    public static final List<String> SHARD_CONNECTION_STRINGS = shardConnectionStrings(System.getProperty("genesis.shards", ""));
+
+    /**
+     * Database holding the directory of the sharded storage, configurable by genesis.shards.directory
+     * as host:port/database. The first shard when not set.
+     */
+    public static final String SHARD_DIRECTORY_CONNECTION_STRING = System.getProperty("genesis.shards.directory") == null
+            ? (SHARD_CONNECTION_STRINGS.isEmpty() ? null : SHARD_CONNECTION_STRINGS.get(0))
+            : shardConnectionStrings(System.getProperty("genesis.shards.directory")).get(0);
+
+    /**
+     * Number of consecutive IDs stored on the same shard, configurable by genesis.shards.rangeSize.
+     * Part of the data layout, it must match the ShardIdBlocks table.
+     */
+    public static final int SHARD_RANGE_SIZE = Integer.getInteger("genesis.shards.rangeSize", 1_000);
+
+    /**
+     * Threads querying the shards in parallel, configurable by genesis.shards.queryThreads. At least one per shard is used.
+     */
+    public static final int SHARD_QUERY_THREADS = Integer.getInteger("genesis.shards.queryThreads", 32);
+
+    /**
+     * Users buffered per shard while the streams of all shards are merged by ID for a bulk export.
+     */
+    public static final int SHARD_STREAM_BUFFER = 1_024;
+
+    /**
+     * Parses the client=key list of API keys.
+     * @return Map of client names by API key
+     */
+    private static Map<String, String> apiKeys(String clients) {
+        Map<String, String> apiKeys = new HashMap<>();
+        for (String client : clients.split(",")) {
+            String entry = client.trim();
+            int separator = entry.indexOf('=');
+            if (separator > 0 && separator < entry.length() - 1) {
+                apiKeys.put(entry.substring(separator + 1).trim(), entry.substring(0, separator).trim());
+            }
+        }
+        return Map.copyOf(apiKeys);
+    }
+
+    private static Set<String> clientNames(String clients) {
+        Set<String> names = new HashSet<>();
+        for (String client : clients.split(",")) {
+            if (!client.isBlank()) {
+                names.add(client.trim());
+            }
+        }
+        return Set.copyOf(names);
+    }
+
+    private static List<String> shardConnectionStrings(String databases) {
+        List<String> connectionStrings = new ArrayList<>();
+        for (String database : databases.split(",")) {
+            if (!database.isBlank()) {
+                connectionStrings.add("jdbc:mysql://" + database.trim() + "?user=" + DB_USER + "&password=" + DB_PASSWORD);
+            }
+        }
+        return List.copyOf(connectionStrings);
+    }
 }
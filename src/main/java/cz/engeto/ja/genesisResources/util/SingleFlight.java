@@ -0,0 +1,126 @@
+package cz.engeto.ja.genesisResources.util;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Request coalescing for lookups: concurrent calls with the same key share a single execution.
+ * The first caller (the leader) runs the lookup, callers arriving while it is in flight wait for its
+ * result or error instead of running the same query again. Nothing is cached after the lookup finishes.
+ * Every caller gets its own copy of the result.
+ * @param <K> Type of the lookup key
+ * @param <V> Type of the looked up value
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * A lookup that may fail with an SQLException.
+     * @param <V> Type of the looked up value
+     */
+    @FunctionalInterface
+    public interface Lookup<V> {
+        V load() throws SQLException;
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final long timeoutMillis;
+    private final UnaryOperator<V> copier;
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * Constructor for SingleFlight.
+     * @param timeoutMillis Maximum time a waiting caller waits for the leader's result
+     * @param copier Creates an independent copy of a shared mutable result for each waiting caller
+     */
+    public SingleFlight(long timeoutMillis, UnaryOperator<V> copier) {
+        this.timeoutMillis = timeoutMillis;
+        this.copier = copier;
+    }
+
+    /**
+     * Runs a lookup, or joins the identical lookup already in flight.
+     * @param key The key identifying identical lookups
+     * @param lookup The lookup to run if none is in flight
+     * @return The result of the lookup
+     * @throws SQLException If the lookup fails (for waiting callers too) or the wait times out
+     */
+    public V execute(K key, Lookup<V> lookup) throws SQLException {
+        CompletableFuture<V> own = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, own);
+        if (existing == null) {
+            executions.increment();
+            try {
+                V value = lookup.load();
+                own.complete(value);
+                // The shared instance never leaves, so no caller can modify it while others copy it
+                return value == null ? null : copier.apply(value);
+            } catch (Throwable e) {
+                own.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, own);
+            }
+        }
+
+        deduplicated.increment();
+        try {
+            V value = existing.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return value == null ? null : copier.apply(value);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            throw new SQLException("Timed out after " + timeoutMillis + " ms waiting for in-flight lookup of " + key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw new SQLException(cause.getMessage(), cause);
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new SQLException("In-flight lookup of " + key + " failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for in-flight lookup of " + key, e);
+        }
+    }
+
+    /**
+     * Stops later callers from joining the lookup of a key that is in flight, they start a new one.
+     * Called after the looked up value was changed, as a lookup that began before the change may return the old value.
+     * @param key The key whose value changed
+     */
+    public void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    /**
+     * Stops later callers from joining any lookup that is in flight, for changes whose key is not known.
+     */
+    public void forgetAll() {
+        inFlight.clear();
+    }
+
+    /**
+     * Retrieves the counters of this instance.
+     * @return Map with executed, deduplicated and timed out lookups and lookups currently in flight
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("executions", executions.sum());
+        metrics.put("deduplicated", deduplicated.sum());
+        metrics.put("timeouts", timeouts.sum());
+        metrics.put("inFlight", inFlight.size());
+        return metrics;
+    }
+}
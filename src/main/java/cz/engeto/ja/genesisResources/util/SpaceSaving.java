@@ -0,0 +1,207 @@
+package cz.engeto.ja.genesisResources.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Space-Saving sketch finding the most frequent keys of a stream in bounded memory.
+ * At most capacity keys are counted; a new key replaces the least counted one and inherits its count
+ * as the possible overestimation (error). Every key occurring more than total/capacity times is guaranteed
+ * to be tracked.
+ * The keys are spread by hash over independent stripes with their own lock, so threads counting different keys
+ * rarely contend. A key always lands in the same stripe, so the stripes count disjoint keys and are merged
+ * when the report is read. Each stripe uses the stream-summary structure: counters are grouped in buckets
+ * of equal count, kept in ascending order, so counting and replacing the least counted key take constant time.
+ * @param <K> Type of the keys
+ */
+public class SpaceSaving<K> {
+
+    /**
+     * A tracked key with its estimated count.
+     * @param key The key
+     * @param count Estimated number of occurrences, never lower than the true count
+     * @param error Maximum overestimation of the count
+     */
+    public record Entry<K>(K key, long count, long error) {
+    }
+
+    private static final int STRIPES = 16; // Power of two
+
+    /**
+     * Counters sharing the same count, linked between the neighbouring counts.
+     */
+    private static final class Bucket<K> {
+        final long count;
+        Counter<K> head;
+        Bucket<K> previous;
+        Bucket<K> next;
+
+        Bucket(long count) {
+            this.count = count;
+        }
+    }
+
+    /**
+     * A tracked key, linked with the other counters of its bucket.
+     */
+    private static final class Counter<K> {
+        K key;
+        long error;
+        Bucket<K> bucket;
+        Counter<K> previous;
+        Counter<K> next;
+    }
+
+    /**
+     * One independent sketch, guarded by its own monitor.
+     */
+    private static final class Stripe<K> {
+        final Map<K, Counter<K>> counters;
+        Bucket<K> lowest; // Bucket with the lowest count, its counters are replaced first
+
+        Stripe(int capacity) {
+            this.counters = new HashMap<>(capacity * 2);
+        }
+    }
+
+    private final int capacity;
+    private final Stripe<K>[] stripes;
+    private final LongAdder total = new LongAdder();
+
+    /**
+     * Constructor for SpaceSaving.
+     * @param capacity Maximum number of tracked keys per stripe
+     */
+    @SuppressWarnings("unchecked")
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe<>(capacity);
+        }
+    }
+
+    /**
+     * Counts an occurrence of a key.
+     * @param key The key
+     */
+    public void offer(K key) {
+        total.increment();
+        int hash = key.hashCode();
+        Stripe<K> stripe = stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+        synchronized (stripe) {
+            Counter<K> counter = stripe.counters.get(key);
+            if (counter != null) {
+                increment(stripe, counter);
+                return;
+            }
+            if (stripe.counters.size() < capacity) {
+                counter = new Counter<>();
+                counter.key = key;
+                Bucket<K> lowest = stripe.lowest;
+                if (lowest == null || lowest.count != 1) {
+                    Bucket<K> ones = new Bucket<>(1);
+                    ones.next = lowest;
+                    if (lowest != null) {
+                        lowest.previous = ones;
+                    }
+                    stripe.lowest = ones;
+                }
+                attach(counter, stripe.lowest);
+                stripe.counters.put(key, counter);
+                return;
+            }
+            // Replace a least counted key; the new key inherits its count as the possible overestimation
+            counter = stripe.lowest.head;
+            stripe.counters.remove(counter.key);
+            counter.key = key;
+            counter.error = counter.bucket.count;
+            stripe.counters.put(key, counter);
+            increment(stripe, counter);
+        }
+    }
+
+    /**
+     * Retrieves the most frequent keys.
+     * @param limit Maximum number of keys to return
+     * @return Keys ordered by estimated count, highest first
+     */
+    public List<Entry<K>> top(int limit) {
+        List<Entry<K>> entries = new ArrayList<>();
+        for (Stripe<K> stripe : stripes) {
+            synchronized (stripe) {
+                for (Counter<K> counter : stripe.counters.values()) {
+                    entries.add(new Entry<>(counter.key, counter.bucket.count, counter.error));
+                }
+            }
+        }
+        entries.sort((a, b) -> Long.compare(b.count(), a.count()));
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+    }
+
+    /**
+     * Retrieves the number of all counted occurrences.
+     * @return The total count
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * Moves a counter to the bucket of the next higher count, creating it when missing.
+     * @param stripe The stripe of the counter, whose monitor is held
+     * @param counter The counter to increment
+     */
+    private static <K> void increment(Stripe<K> stripe, Counter<K> counter) {
+        Bucket<K> bucket = counter.bucket;
+        Bucket<K> next = bucket.next;
+        if (next == null || next.count != bucket.count + 1) {
+            Bucket<K> created = new Bucket<>(bucket.count + 1);
+            created.previous = bucket;
+            created.next = next;
+            if (next != null) {
+                next.previous = created;
+            }
+            bucket.next = created;
+            next = created;
+        }
+        detach(counter);
+        attach(counter, next);
+        if (bucket.head == null) {
+            // Unlink the emptied bucket
+            if (bucket.previous != null) {
+                bucket.previous.next = bucket.next;
+            } else {
+                stripe.lowest = bucket.next;
+            }
+            bucket.next.previous = bucket.previous;
+        }
+    }
+
+    private static <K> void attach(Counter<K> counter, Bucket<K> bucket) {
+        counter.bucket = bucket;
+        counter.previous = null;
+        counter.next = bucket.head;
+        if (bucket.head != null) {
+            bucket.head.previous = counter;
+        }
+        bucket.head = counter;
+    }
+
+    private static <K> void detach(Counter<K> counter) {
+        Bucket<K> bucket = counter.bucket;
+        if (counter.previous != null) {
+            counter.previous.next = counter.next;
+        } else {
+            bucket.head = counter.next;
+        }
+        if (counter.next != null) {
+            counter.next.previous = counter.previous;
+        }
+        counter.previous = null;
+        counter.next = null;
+    }
+}
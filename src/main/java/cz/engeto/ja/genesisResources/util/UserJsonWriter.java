@@ -0,0 +1,292 @@
+package cz.engeto.ja.genesisResources.util;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.model.UserBasicInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Hand-written JSON writer for User and UserBasicInfo.
+ * Produces exactly the same JSON as the default Jackson serialization of these classes
+ * (same property order, null handling and string escaping) but writes UTF-8 bytes straight
+ * into a reusable buffer that is flushed to the output stream, without reflection and without
+ * intermediate strings. An instance is not thread-safe; reuse it per thread.
+ */
+public final class UserJsonWriter {
+
+    private static final byte[] HEX_LOWER = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX_UPPER = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIELD_ID = "{\"id\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIELD_NAME = ",\"name\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIELD_SURNAME = ",\"surname\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIELD_PERSON_ID = ",\"personID\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIELD_UUID = ",\"uuid\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_BYTES_PER_CHAR = 6; // Worst case is a \\uXXXX escape
+
+    private final byte[] buffer;
+    private int position;
+    private OutputStream out;
+
+    /**
+     * Constructor allocating the reusable buffer.
+     * @param bufferSize Size of the buffer in bytes, at least 64
+     */
+    public UserJsonWriter(int bufferSize) {
+        this.buffer = new byte[Math.max(bufferSize, 64)];
+    }
+
+    /**
+     * Attaches the writer to an output stream and clears the buffer.
+     * @param out The stream to write to, or null to release the previous one
+     */
+    public void reset(OutputStream out) {
+        this.out = out;
+        this.position = 0;
+    }
+
+    /**
+     * Writes a User object.
+     * @param user The user to write, may be null
+     * @throws IOException If the output stream fails
+     */
+    public void writeUser(User user) throws IOException {
+        if (user == null) {
+            writeRaw(NULL);
+            return;
+        }
+        writeRaw(FIELD_ID);
+        writeLong(user.getId());
+        writeRaw(FIELD_NAME);
+        writeString(user.getName());
+        writeRaw(FIELD_SURNAME);
+        writeString(user.getSurname());
+        writeRaw(FIELD_PERSON_ID);
+        writeString(user.getPersonID());
+        writeRaw(FIELD_UUID);
+        writeUuid(user.getUuid());
+        writeByte('}');
+    }
+
+    /**
+     * Writes a UserBasicInfo object.
+     * @param userBasicInfo The basic info to write, may be null
+     * @throws IOException If the output stream fails
+     */
+    public void writeUserBasicInfo(UserBasicInfo userBasicInfo) throws IOException {
+        if (userBasicInfo == null) {
+            writeRaw(NULL);
+            return;
+        }
+        writeRaw(FIELD_ID);
+        writeLong(userBasicInfo.getId());
+        writeRaw(FIELD_NAME);
+        writeString(userBasicInfo.getName());
+        writeRaw(FIELD_SURNAME);
+        writeString(userBasicInfo.getSurname());
+        writeByte('}');
+    }
+
+    /**
+     * Writes a User or UserBasicInfo object.
+     * @param value The value to write
+     * @throws IOException If the output stream fails
+     * @throws IllegalArgumentException If the value is of another type
+     */
+    public void writeValue(Object value) throws IOException {
+        if (value == null) {
+            writeRaw(NULL);
+        } else if (value instanceof User user) {
+            writeUser(user);
+        } else if (value instanceof UserBasicInfo userBasicInfo) {
+            writeUserBasicInfo(userBasicInfo);
+        } else {
+            throw new IllegalArgumentException("Unsupported type: " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Writes a JSON array of User or UserBasicInfo objects.
+     * @param values The values to write
+     * @throws IOException If the output stream fails
+     */
+    public void writeList(List<?> values) throws IOException {
+        writeByte('[');
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeValue(values.get(i));
+        }
+        writeByte(']');
+    }
+
+    /**
+     * Checks whether the writer can handle a value.
+     * @param value The value to check
+     * @return true for User, UserBasicInfo and lists containing only these (or nulls)
+     */
+    public static boolean canWrite(Object value) {
+        if (value instanceof List<?> list) {
+            for (Object element : list) {
+                if (element != null && !(element instanceof User) && !(element instanceof UserBasicInfo)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return value instanceof User || value instanceof UserBasicInfo;
+    }
+
+    /**
+     * Writes the buffered bytes to the output stream.
+     * @throws IOException If the output stream fails
+     */
+    public void flush() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (buffer.length - position < length) {
+            flush();
+        }
+    }
+
+    private void writeByte(char value) throws IOException {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeRaw(byte[] bytes) throws IOException {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void writeLong(Long value) throws IOException {
+        if (value == null) {
+            writeRaw(NULL);
+            return;
+        }
+        long number = value;
+        if (number == Long.MIN_VALUE) {
+            writeRaw(Long.toString(number).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        ensureCapacity(20);
+        if (number < 0) {
+            buffer[position++] = '-';
+            number = -number;
+        }
+        int digits = 1;
+        for (long rest = number / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+        position += digits;
+    }
+
+    /**
+     * Writes a quoted string with the same escaping as Jackson: quote, backslash, control characters and surrogates.
+     */
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            writeRaw(NULL);
+            return;
+        }
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            ensureCapacity(MAX_BYTES_PER_CHAR);
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buffer[position++] = (byte) c;
+                } else {
+                    writeEscape(c);
+                }
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Jackson's UTF-8 generator escapes every surrogate, paired or not, instead of encoding the code point
+                writeUnicodeEscape(c);
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeEscape(char c) {
+        char escaped = switch (c) {
+            case '"' -> '"';
+            case '\\' -> '\\';
+            case '\b' -> 'b';
+            case '\t' -> 't';
+            case '\n' -> 'n';
+            case '\f' -> 'f';
+            case '\r' -> 'r';
+            default -> 0;
+        };
+        if (escaped == 0) {
+            writeUnicodeEscape(c);
+        } else {
+            buffer[position++] = '\\';
+            buffer[position++] = (byte) escaped;
+        }
+    }
+
+    private void writeUnicodeEscape(char c) {
+        buffer[position++] = '\\';
+        buffer[position++] = 'u';
+        buffer[position++] = HEX_UPPER[c >> 12];
+        buffer[position++] = HEX_UPPER[(c >> 8) & 0xF];
+        buffer[position++] = HEX_UPPER[(c >> 4) & 0xF];
+        buffer[position++] = HEX_UPPER[c & 0xF];
+    }
+
+    /**
+     * Writes a UUID in its canonical lower-case form without creating a string.
+     */
+    private void writeUuid(UUID uuid) throws IOException {
+        if (uuid == null) {
+            writeRaw(NULL);
+            return;
+        }
+        ensureCapacity(38);
+        buffer[position++] = '"';
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        writeHex(msb >>> 32, 8);
+        buffer[position++] = '-';
+        writeHex(msb >>> 16, 4);
+        buffer[position++] = '-';
+        writeHex(msb, 4);
+        buffer[position++] = '-';
+        writeHex(lsb >>> 48, 4);
+        buffer[position++] = '-';
+        writeHex(lsb, 12);
+        buffer[position++] = '"';
+    }
+
+    private void writeHex(long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[position + i] = HEX_LOWER[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+        position += digits;
+    }
+}
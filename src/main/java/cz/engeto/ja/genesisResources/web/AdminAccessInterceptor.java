@@ -0,0 +1,50 @@
+package cz.engeto.ja.genesisResources.web;
+
+import cz.engeto.ja.genesisResources.util.AppLogger;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.Set;
+
+/**
+ * Interceptor letting only admin clients call the admin endpoints, which expose looked up personIDs
+ * and the parameters of slow queries. A client proves its identity by a configured API key in X-API-Key.
+ * Requests without a known key get 401, known clients that are not admins get 403.
+ */
+public class AdminAccessInterceptor implements HandlerInterceptor {
+
+    private final ClientIdentifier clientIdentifier;
+    private final Set<String> adminClients;
+
+    /**
+     * Constructor for AdminAccessInterceptor.
+     * @param clientIdentifier identifies the client of each request by its API key
+     * @param adminClients the names of the clients allowed to call the admin endpoints
+     */
+    public AdminAccessInterceptor(ClientIdentifier clientIdentifier, Set<String> adminClients) {
+        this.clientIdentifier = clientIdentifier;
+        this.adminClients = Set.copyOf(adminClients);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            return true;
+        }
+        String client = clientIdentifier.apiClientOf(request);
+        if (client != null && adminClients.contains(client)) {
+            return true;
+        }
+        HttpStatus status = client == null ? HttpStatus.UNAUTHORIZED : HttpStatus.FORBIDDEN;
+        AppLogger.warn("Admin request refused (" + status.value() + ") for " + clientIdentifier.clientOf(request)
+                + ": " + request.getMethod() + " " + request.getRequestURI());
+        response.setStatus(status.value());
+        response.setContentType("text/plain");
+        response.getWriter().write(client == null ? "Missing or unknown API key" : "Client is not allowed to call admin endpoints");
+        return false;
+    }
+}
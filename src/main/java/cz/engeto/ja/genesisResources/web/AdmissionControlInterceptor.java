@@ -0,0 +1,61 @@
+package cz.engeto.ja.genesisResources.web;
+
+import cz.engeto.ja.genesisResources.util.AdaptiveConcurrencyLimiter;
+import cz.engeto.ja.genesisResources.util.AppLogger;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Interceptor admitting API requests through the AdaptiveConcurrencyLimiter.
+ * Requests over the limit fail fast with 503 and Retry-After instead of queueing behind a slow database.
+ * Bulk dumps of the user table are low priority.
+ */
+public class AdmissionControlInterceptor implements HandlerInterceptor {
+
+    private static final String START_ATTRIBUTE = AdmissionControlInterceptor.class.getName() + ".start";
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    /**
+     * Constructor for AdmissionControlInterceptor.
+     * @param limiter the limiter deciding about admission
+     */
+    public AdmissionControlInterceptor(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            return true;
+        }
+        boolean lowPriority = EndpointClass.of(request) == EndpointClass.BULK;
+        if (!limiter.tryAcquire(lowPriority)) {
+            AppLogger.warn("Request rejected by admission control: " + request.getMethod() + " " + request.getRequestURI());
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+            response.setContentType("text/plain");
+            response.getWriter().write("Server is overloaded, retry later");
+            return false;
+        }
+        request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object start = request.getAttribute(START_ATTRIBUTE);
+        if (start == null) {
+            return;
+        }
+        request.setAttribute(START_ATTRIBUTE, null);
+        boolean success = ex == null && response.getStatus() < 500;
+        limiter.release(System.nanoTime() - (Long) start, success);
+    }
+}
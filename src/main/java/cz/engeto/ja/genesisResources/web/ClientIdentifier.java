@@ -0,0 +1,59 @@
+package cz.engeto.ja.genesisResources.web;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.Map;
+
+/**
+ * Identifies the client sending a request, for per-client rate limits, Idempotency-Keys and access to the admin endpoints.
+ * Only API keys configured in Settings.API_KEYS identify a client, any other X-API-Key header is ignored,
+ * so a client cannot get a fresh identity by inventing keys. Requests without a known key are attributed to their IP address.
+ */
+public class ClientIdentifier {
+
+    public static final String API_KEY_HEADER = "X-API-Key";
+    private static final String FORWARDED_FOR_HEADER = "X-Forwarded-For";
+
+    private final Map<String, String> clientsByApiKey;
+    private final boolean trustForwardedFor;
+
+    /**
+     * Constructor for ClientIdentifier.
+     * @param clientsByApiKey the names of the known clients by their API keys
+     * @param trustForwardedFor whether the client address is taken from X-Forwarded-For, only safe behind a proxy setting it
+     */
+    public ClientIdentifier(Map<String, String> clientsByApiKey, boolean trustForwardedFor) {
+        this.clientsByApiKey = Map.copyOf(clientsByApiKey);
+        this.trustForwardedFor = trustForwardedFor;
+    }
+
+    /**
+     * Identifies the client of a request.
+     * @param request the HTTP request
+     * @return "key:" and the name of the client of a known API key, or "ip:" and the client address
+     */
+    public String clientOf(HttpServletRequest request) {
+        String client = apiClientOf(request);
+        if (client != null) {
+            return "key:" + client;
+        }
+        if (trustForwardedFor) {
+            String forwardedFor = request.getHeader(FORWARDED_FOR_HEADER);
+            if (forwardedFor != null && !forwardedFor.isBlank()) {
+                // The last address is the one our proxy saw, earlier ones are supplied by the client
+                return "ip:" + forwardedFor.substring(forwardedFor.lastIndexOf(',') + 1).trim();
+            }
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    /**
+     * Identifies the client of a request by its API key only.
+     * @param request the HTTP request
+     * @return the name of the client of a known API key, or null if the request has none
+     */
+    public String apiClientOf(HttpServletRequest request) {
+        String apiKey = request.getHeader(API_KEY_HEADER);
+        return apiKey == null ? null : clientsByApiKey.get(apiKey.trim());
+    }
+}
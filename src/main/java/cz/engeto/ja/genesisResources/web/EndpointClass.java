@@ -0,0 +1,46 @@
+package cz.engeto.ja.genesisResources.web;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Classes of API endpoints with different cost and priority.
+ */
+public enum EndpointClass {
+    /** Lookups of a single user, of a bounded list of users or a page of search results. */
+    READ,
+    /** Creating, updating and deleting users. */
+    WRITE,
+    /** Full dumps of the user table. */
+    BULK,
+    /** Long-lived change feed streams. */
+    STREAM,
+    /** Operational endpoints. */
+    ADMIN;
+
+    private static final String API_PREFIX = "/api/v1";
+
+    /**
+     * Determines the class of the endpoint a request is sent to.
+     * @param request The HTTP request
+     * @return The endpoint class
+     */
+    public static EndpointClass of(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        if (path.startsWith(API_PREFIX)) {
+            path = path.substring(API_PREFIX.length());
+        }
+        if (path.startsWith("/admin")) {
+            return ADMIN;
+        }
+        if (path.startsWith("/users/changes")) {
+            return STREAM;
+        }
+        if (path.startsWith("/users/lookup")) {
+            return READ; // POST only because the keys do not fit into a URL
+        }
+        if (!"GET".equals(request.getMethod())) {
+            return WRITE;
+        }
+        return path.equals("/users") || path.equals("/users/") ? BULK : READ;
+    }
+}
@@ -0,0 +1,87 @@
+package cz.engeto.ja.genesisResources.web;
+
+import cz.engeto.ja.genesisResources.util.AppLogger;
+import cz.engeto.ja.genesisResources.util.RateLimiter;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Interceptor limiting the request rate of every client, with a separate bucket per endpoint class,
+ * so a client hammering the full user dump cannot starve other clients.
+ * Clients are identified by the ClientIdentifier, by a configured API key or by their IP address.
+ * A revalidation of the user list that will be answered with 304 is charged as a read, not as a full dump.
+ * Every limited response carries the X-RateLimit-Limit, X-RateLimit-Remaining and X-RateLimit-Reset headers,
+ * rejected requests get 429 with Retry-After.
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private static final String LIMIT_HEADER = "X-RateLimit-Limit";
+    private static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+    private static final String RESET_HEADER = "X-RateLimit-Reset";
+
+    private final Map<EndpointClass, RateLimiter> limiters;
+    private final ClientIdentifier clientIdentifier;
+    private final Predicate<HttpServletRequest> notModified;
+
+    /**
+     * Constructor for RateLimitInterceptor.
+     * @param limiters the limiter of each limited endpoint class, classes without a limiter are not limited
+     * @param clientIdentifier identifies the client of each request
+     * @param notModified tells whether a request for the user list will be answered with 304 Not Modified
+     */
+    public RateLimitInterceptor(Map<EndpointClass, RateLimiter> limiters, ClientIdentifier clientIdentifier,
+                                Predicate<HttpServletRequest> notModified) {
+        this.limiters = new EnumMap<>(limiters);
+        this.clientIdentifier = clientIdentifier;
+        this.notModified = notModified;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            return true;
+        }
+        EndpointClass endpointClass = EndpointClass.of(request);
+        if (endpointClass == EndpointClass.BULK && notModified.test(request)) {
+            endpointClass = EndpointClass.READ; // Answered from the version tracker without reading any user
+        }
+        RateLimiter limiter = limiters.get(endpointClass);
+        if (limiter == null) {
+            return true;
+        }
+        String client = clientIdentifier.clientOf(request);
+        RateLimiter.Decision decision = limiter.tryAcquire(client);
+        response.setHeader(LIMIT_HEADER, Integer.toString(decision.limit()));
+        response.setHeader(REMAINING_HEADER, Integer.toString(decision.remaining()));
+        response.setHeader(RESET_HEADER, Long.toString(decision.resetSeconds()));
+        if (!decision.allowed()) {
+            AppLogger.warn("Request rate limited for " + client + ": " + request.getMethod() + " " + request.getRequestURI());
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, decision.retryAfterSeconds())));
+            response.setContentType("text/plain");
+            response.getWriter().write("Too many requests, retry later");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves the counters of the limiter of each endpoint class.
+     * @return Map of metrics per endpoint class
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        limiters.forEach((endpointClass, limiter) -> metrics.put(endpointClass.name(), limiter.getMetrics()));
+        return metrics;
+    }
+}
@@ -0,0 +1,68 @@
+package cz.engeto.ja.genesisResources.web;
+
+import cz.engeto.ja.genesisResources.tracing.Span;
+import cz.engeto.ja.genesisResources.tracing.Tracer;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Interceptor starting a trace for every API request.
+ * The root span is named after the controller method handling the request, so its own time
+ * (not covered by UserService and JDBC spans) is the time spent in the controller itself.
+ * The trace ID is returned in the X-Trace-Id header to find the trace and log lines of a response.
+ */
+public class TracingInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String SPAN_ATTRIBUTE = TracingInterceptor.class.getName() + ".span";
+    private static final String TRACEPARENT_HEADER = "traceparent";
+    private static final String TRACE_ID_HEADER = "X-Trace-Id";
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            return true;
+        }
+        String name = handler instanceof HandlerMethod handlerMethod
+                ? handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName()
+                : request.getMethod() + " " + request.getRequestURI();
+        Span span = Tracer.startTrace(name, request.getHeader(TRACEPARENT_HEADER))
+                .tag("http.method", request.getMethod())
+                .tag("http.path", request.getRequestURI());
+        Object route = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (route != null) {
+            span.tag("http.route", route);
+        }
+        request.setAttribute(SPAN_ATTRIBUTE, span);
+        response.setHeader(TRACE_ID_HEADER, span.getTraceId());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Span span = (Span) request.getAttribute(SPAN_ATTRIBUTE);
+        if (span == null) {
+            return;
+        }
+        request.setAttribute(SPAN_ATTRIBUTE, null);
+        span.tag("http.status_code", response.getStatus());
+        if (ex != null) {
+            span.error(ex);
+        }
+        span.close();
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // The request continues on another thread, end the span before this thread is reused
+        Span span = (Span) request.getAttribute(SPAN_ATTRIBUTE);
+        if (span != null) {
+            request.setAttribute(SPAN_ATTRIBUTE, null);
+            span.tag("async", true).close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package cz.engeto.ja.genesisResources.web;
+
+import cz.engeto.ja.genesisResources.service.UserVersionTracker;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.List;
+
+/**
+ * Representations of the user list: basic or detailed, encoded as JSON or CBOR.
+ * Shared by the controller serving the list and the rate limiting that must recognize cheap revalidations of it.
+ */
+public final class UserListRepresentation {
+
+    private static final String DETAIL_PARAMETER = "detail";
+
+    private UserListRepresentation() {
+    }
+
+    /**
+     * Chooses between JSON and CBOR by the quality values of the Accept header.
+     * JSON wins ties and is used when the header is missing or malformed.
+     * @param accept the Accept header, may be null
+     * @return the media type to send, or null if the client accepts neither
+     */
+    public static MediaType selectMediaType(String accept) {
+        List<MediaType> accepted;
+        try {
+            accepted = accept == null || accept.isBlank() ? List.of(MediaType.ALL) : MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            accepted = List.of(MediaType.ALL);
+        }
+        double jsonQuality = qualityOf(MediaType.APPLICATION_JSON, accepted);
+        double cborQuality = qualityOf(MediaType.APPLICATION_CBOR, accepted);
+        if (jsonQuality <= 0 && cborQuality <= 0) {
+            return null;
+        }
+        return cborQuality > jsonQuality ? MediaType.APPLICATION_CBOR : MediaType.APPLICATION_JSON;
+    }
+
+    /**
+     * Names a representation of the list, used to give each representation its own ETag.
+     * @param detail whether the detailed representation is requested
+     * @param mediaType the media type chosen by selectMediaType
+     * @return name of the representation
+     */
+    public static String name(boolean detail, MediaType mediaType) {
+        return (detail ? "detail" : "basic") + (MediaType.APPLICATION_CBOR.equals(mediaType) ? "-cbor" : "");
+    }
+
+    /**
+     * Checks whether a request for the list will be answered with 304 Not Modified, without reading any user.
+     * Only the plain forms of the detail parameter are recognized, anything else counts as modified.
+     * @param request the request for the user list
+     * @param userVersionTracker the tracker of the current versions
+     * @return true if the If-None-Match header names the current ETag of the requested representation
+     */
+    public static boolean isNotModified(HttpServletRequest request, UserVersionTracker userVersionTracker) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch == null || !"GET".equals(request.getMethod())) {
+            return false;
+        }
+        String detail = request.getParameter(DETAIL_PARAMETER);
+        if (detail != null && !detail.equalsIgnoreCase("true") && !detail.equalsIgnoreCase("false")) {
+            return false;
+        }
+        MediaType mediaType = selectMediaType(request.getHeader(HttpHeaders.ACCEPT));
+        if (mediaType == null) {
+            return false;
+        }
+        String eTag = userVersionTracker.getCollectionETag(name(Boolean.parseBoolean(detail), mediaType));
+        // Without authoritative versions the ETag is only known after reading the whole list
+        return eTag != null && userVersionTracker.matches(ifNoneMatch, eTag);
+    }
+
+    /**
+     * Finds the quality the client gives a media type, taken from the most specific range that includes it.
+     * @param mediaType the media type to rate
+     * @param accepted the media ranges of the Accept header
+     * @return the quality value, 0 if no range includes the media type
+     */
+    private static double qualityOf(MediaType mediaType, List<MediaType> accepted) {
+        double quality = 0;
+        int specificity = -1;
+        for (MediaType range : accepted) {
+            if (!range.includes(mediaType)) {
+                continue;
+            }
+            int rangeSpecificity = range.isWildcardType() ? 0 : range.isWildcardSubtype() ? 1 : 2;
+            if (rangeSpecificity > specificity) {
+                specificity = rangeSpecificity;
+                quality = range.getQualityValue();
+            }
+        }
+        return quality;
+    }
+}
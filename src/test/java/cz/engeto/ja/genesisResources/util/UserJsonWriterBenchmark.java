@@ -0,0 +1,111 @@
+package cz.engeto.ja.genesisResources.util;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.model.UserBasicInfo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compares UserJsonWriter with Jackson on the user lists served by /users, by time and by bytes allocated
+ * per serialized list. Both outputs are checked to be identical before anything is measured.
+ * Not a unit test; run it with
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=cz.engeto.ja.genesisResources.util.UserJsonWriterBenchmark
+ */
+public final class UserJsonWriterBenchmark {
+
+    private static final int USERS = 10_000;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURED_ROUNDS = 200;
+
+    private interface Serializer {
+        void write(OutputStream out, List<?> users) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        UserJsonWriter userJsonWriter = new UserJsonWriter(8192); // Same buffer size as UserJsonHttpMessageConverter
+        Serializer jackson = objectMapper::writeValue;
+        Serializer writer = (out, users) -> {
+            userJsonWriter.reset(out);
+            userJsonWriter.writeList(users);
+            userJsonWriter.flush();
+            userJsonWriter.reset(null);
+        };
+
+        List<User> details = new ArrayList<>(USERS);
+        List<UserBasicInfo> basics = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            User user = new User((long) i, "Jan" + i, i % 2 == 0 ? "Novák" : "Černý \"Jr.\"",
+                    String.format("%012d", i), UUID.randomUUID().toString());
+            details.add(user);
+            basics.add(UserBasicInfo.fromUser(user));
+        }
+
+        for (List<?> users : List.of(details, basics)) {
+            String name = users == details ? "detail" : "basic";
+            if (!Arrays.equals(serialize(jackson, users), serialize(writer, users))) {
+                throw new IllegalStateException("UserJsonWriter output differs from Jackson for the " + name + " list");
+            }
+            Result jacksonResult = measure(jackson, users);
+            Result writerResult = measure(writer, users);
+            System.out.printf("%-6s %,d users  Jackson: %,8d us %,12d B  UserJsonWriter: %,8d us %,12d B  (%.1fx faster)%n",
+                    name, USERS, jacksonResult.micros(), jacksonResult.allocatedBytes(),
+                    writerResult.micros(), writerResult.allocatedBytes(),
+                    (double) jacksonResult.micros() / Math.max(1, writerResult.micros()));
+        }
+    }
+
+    /**
+     * Median time and allocation of one serialized list.
+     * @param micros Time per list in microseconds
+     * @param allocatedBytes Bytes allocated by the serializing thread per list
+     */
+    private record Result(long micros, long allocatedBytes) {
+    }
+
+    private static byte[] serialize(Serializer serializer, List<?> users) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.write(out, users);
+        return out.toByteArray();
+    }
+
+    private static Result measure(Serializer serializer, List<?> users) throws IOException {
+        // The output is discarded, so only the serialization itself is timed and its allocations counted.
+        // Jackson closes the stream after writing, like Spring's converter the sink stays usable
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            serializer.write(sink, users);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+        long[] nanos = new long[MEASURED_ROUNDS];
+        long[] allocated = new long[MEASURED_ROUNDS];
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            serializer.write(sink, users);
+            nanos[i] = System.nanoTime() - start;
+            allocated[i] = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        }
+        Arrays.sort(nanos);
+        Arrays.sort(allocated);
+        return new Result(nanos[MEASURED_ROUNDS / 2] / 1000, allocated[MEASURED_ROUNDS / 2]);
+    }
+}
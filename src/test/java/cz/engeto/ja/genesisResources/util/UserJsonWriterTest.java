@@ -0,0 +1,113 @@
+package cz.engeto.ja.genesisResources.util;
+
+import cz.engeto.ja.genesisResources.model.User;
+import cz.engeto.ja.genesisResources.model.UserBasicInfo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Verifies that UserJsonWriter produces byte for byte the JSON of the ObjectMapper configured for the application.
+ */
+@SpringBootTest(classes = JacksonAutoConfiguration.class, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class UserJsonWriterTest {
+
+    private static final String UUID = "550e8400-e29b-41d4-a716-446655440001";
+
+    private static final List<String> STRINGS = List.of(
+            "",
+            "Jan",
+            "Nov\u00e1kov\u00e1 \u010cech \u20ac",
+            "quote \" and backslash \\ and slash /",
+            "\"\\\"",
+            "\u0000\u0001\u0008\t\n\u000b\f\r\u001f\u007f",
+            "line separator \u2028, BOM \uFEFF and \uFFFF",
+            "non-BMP \uD83D\uDE00 and \uD834\uDD1E",
+            "unpaired high \uD800 surrogate",
+            "unpaired low \uDC00 surrogate",
+            "ends with high surrogate \uD83D",
+            "\uDE00\uD83D reversed pair");
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void writesUserLikeJackson() throws IOException {
+        for (String value : STRINGS) {
+            assertSameJson(new User(1L, value, value, value, UUID));
+        }
+        assertSameJson(new User(null, null, null, null, UUID));
+        assertSameJson(new User(Long.MAX_VALUE, "a", null, "123456789012", UUID));
+        assertSameJson(new User(Long.MIN_VALUE, null, "b", null, UUID));
+        assertSameJson(new User(-42L, "a", "b", "c", "00000000-0000-0000-0000-000000000000"));
+        assertSameJson(new User(0L, "a", "b", "c", "ffffffff-ffff-ffff-ffff-ffffffffffff"));
+    }
+
+    @Test
+    void writesUserBasicInfoLikeJackson() throws IOException {
+        for (String value : STRINGS) {
+            assertSameJson(new UserBasicInfo(7L, value, value));
+        }
+        assertSameJson(new UserBasicInfo(null, null, null));
+        assertSameJson(new UserBasicInfo(-1L, "a", null));
+    }
+
+    @Test
+    void writesListsLikeJackson() throws IOException {
+        List<Object> users = new ArrayList<>();
+        for (String value : STRINGS) {
+            users.add(new User((long) users.size(), value, "surname", "123456789012", UUID));
+            users.add(new UserBasicInfo((long) users.size(), "name", value));
+        }
+        users.add(null);
+        assertSameJson(users);
+        assertSameJson(List.of());
+        assertSameJson(Arrays.asList(null, null));
+    }
+
+    @Test
+    void writesRandomStringsLikeJackson() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            char[] chars = new char[random.nextInt(50)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) (random.nextBoolean() ? random.nextInt(0x80) : random.nextInt(0x10000));
+            }
+            String value = new String(chars);
+            assertSameJson(new User((long) i, value, value, value, UUID));
+        }
+    }
+
+    /**
+     * Compares the writer with the ObjectMapper, with a small buffer so that values span several flushes.
+     */
+    private void assertSameJson(Object value) throws IOException {
+        byte[] expected = objectMapper.writeValueAsBytes(value);
+        for (int bufferSize : new int[] {64, 8192}) {
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            UserJsonWriter writer = new UserJsonWriter(bufferSize);
+            writer.reset(actual);
+            if (value instanceof List<?> list) {
+                writer.writeList(list);
+            } else {
+                writer.writeValue(value);
+            }
+            writer.flush();
+            assertArrayEquals(expected, actual.toByteArray(), () -> "Expected " + new String(expected, StandardCharsets.UTF_8)
+                    + " but was " + new String(actual.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+}